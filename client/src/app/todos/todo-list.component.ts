@@ -54,7 +54,6 @@ export class TodoListComponent implements OnInit {
     this.todoService.getTodos({
       owner: this.todoOwner,
       status: this.todoStatus,
-      body: this.todoBody,
       limit: this.todoLimit,
       sort: this.todoSort
     }).subscribe(returnedTodos => {
@@ -0,0 +1,126 @@
+package umm3601;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClientSettings;
+
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonCodecRegistry;
+import org.mongojack.ObjectMapperConfigurer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.todo.Todo;
+import umm3601.todo.TodoCodec;
+import umm3601.user.User;
+import umm3601.user.UserCodec;
+
+/**
+ * Compares decoding a single BSON document into a `Todo` or `User` with our
+ * hand-written codecs (`MONGO_CODECS=native`) against MongoJack's Jackson-based
+ * codecs (the default).
+ *
+ * Run with `./gradlew jmh`. The build runs JMH's `gc` profiler as well, so
+ * the `gc.alloc.rate.norm` lines give the bytes allocated per document.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BsonCodecBenchmark {
+
+  private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+  private byte[] todoBytes;
+  private byte[] userBytes;
+
+  private Codec<Todo> nativeTodoCodec;
+  private Codec<User> nativeUserCodec;
+  private Codec<Todo> jacksonTodoCodec;
+  private Codec<User> jacksonUserCodec;
+
+  @Setup
+  public void setup() {
+    // A todo as it's stored in the database, extra query fields and all
+    todoBytes = bytesOf(new Document("_id", new ObjectId())
+      .append("owner", "Blanche")
+      .append("status", false)
+      .append("body", "In sunt ex non tempor cillum commodo amet incididunt anim qui commodo quis. "
+        + "Cillum non labore ex sint esse.")
+      .append("category", "software design")
+      .append("ownerLower", "blanche")
+      .append("bodyLength", 106));
+    userBytes = bytesOf(new Document("_id", new ObjectId())
+      .append("name", "Connie Stewart")
+      .append("age", 25)
+      .append("company", "OHMNET")
+      .append("email", "conniestewart@ohmnet.com")
+      .append("avatar", "https://gravatar.com/avatar/d4a6c71dd9470ad4cf58f78c100258bf?d=identicon")
+      .append("role", "viewer"));
+
+    nativeTodoCodec = new TodoCodec();
+    nativeUserCodec = new UserCodec();
+
+    // The same codecs `JacksonMongoCollection` builds for itself
+    ObjectMapper objectMapper = ObjectMapperConfigurer.configureObjectMapper(new ObjectMapper());
+    JacksonCodecRegistry jacksonRegistry = new JacksonCodecRegistry(
+      objectMapper, MongoClientSettings.getDefaultCodecRegistry(), null, UuidRepresentation.STANDARD);
+    jacksonRegistry.addCodecForClass(Todo.class);
+    jacksonRegistry.addCodecForClass(User.class);
+    jacksonTodoCodec = jacksonRegistry.get(Todo.class);
+    jacksonUserCodec = jacksonRegistry.get(User.class);
+  }
+
+  private static byte[] bytesOf(Document document) {
+    RawBsonDocument raw = RawBsonDocument.parse(document.toJson());
+    ByteBuffer buffer = raw.getByteBuffer().asNIO();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static <T> T decode(Codec<T> codec, byte[] bytes) {
+    try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+      return codec.decode(reader, DECODER_CONTEXT);
+    }
+  }
+
+  @Benchmark
+  public Todo todoNative() {
+    return decode(nativeTodoCodec, todoBytes);
+  }
+
+  @Benchmark
+  public Todo todoJackson() {
+    return decode(jacksonTodoCodec, todoBytes);
+  }
+
+  @Benchmark
+  public User userNative() {
+    return decode(nativeUserCodec, userBytes);
+  }
+
+  @Benchmark
+  public User userJackson() {
+    return decode(jacksonUserCodec, userBytes);
+  }
+}
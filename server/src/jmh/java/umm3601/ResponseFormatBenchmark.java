@@ -0,0 +1,86 @@
+package umm3601;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.todo.Todo;
+
+/**
+ * Compares how long it takes to encode and decode a large list of todos
+ * in each of the formats `ResponseFormat` can send, against plain JSON.
+ *
+ * Run with `./gradlew jmh`. The size of each encoded list (the other half
+ * of the comparison) is printed when each trial starts.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseFormatBenchmark {
+
+  @Param({ "application/json", ResponseFormat.CBOR_CONTENT_TYPE,
+    ResponseFormat.SMILE_CONTENT_TYPE, ResponseFormat.MSGPACK_CONTENT_TYPE })
+  public String format;
+
+  @Param({ "10000" })
+  public int todoCount;
+
+  private ObjectMapper mapper;
+  private JavaType listType;
+  private List<Todo> todos;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws IOException {
+    mapper = format.equals("application/json") ? new ObjectMapper() : ResponseFormat.mapperFor(format);
+    listType = mapper.getTypeFactory().constructCollectionType(List.class, Todo.class);
+
+    String[] owners = { "Blanche", "Fry", "Barry", "Workman", "Dawn", "Roberta" };
+    String[] categories = { "software design", "video games", "homework", "groceries" };
+    todos = new ArrayList<>();
+    for (int i = 0; i < todoCount; i++) {
+      Todo todo = new Todo();
+      todo._id = new ObjectId().toHexString();
+      todo.owner = owners[i % owners.length];
+      todo.status = i % 3 == 0;
+      todo.category = categories[i % categories.length];
+      todo.body = "In sunt ex non tempor cillum commodo amet incididunt anim qui commodo quis. "
+        + "Cillum non labore ex sint esse. Todo number " + i + ".";
+      todos.add(todo);
+    }
+
+    encoded = mapper.writeValueAsBytes(todos);
+    System.out.printf("%n%s: %d todos encode to %d bytes%n", format, todoCount, encoded.length);
+  }
+
+  @Benchmark
+  public byte[] encode() throws IOException {
+    return mapper.writeValueAsBytes(todos);
+  }
+
+  @Benchmark
+  public List<Todo> decode() throws IOException {
+    return mapper.readValue(encoded, listType);
+  }
+}
@@ -0,0 +1,125 @@
+package umm3601.todo;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.conversions.Bson;
+import org.mongojack.JacksonMongoCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares answering `?status=incomplete&category=groceries&owner=bl` from
+ * MongoDB (as `TodoController` normally does, with its indexes) against
+ * the bitmap indexes in `TodoSnapshot`, both for the todos themselves and
+ * for just counting them.
+ *
+ * This needs a running MongoDB (at `MONGO_ADDR`, or `localhost`); it fills
+ * a `benchmark` database with todos and drops it afterwards. Run with
+ * `./gradlew jmh`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TodoFilterBenchmark {
+
+  @Param({ "10000", "100000" })
+  public int todoCount;
+
+  private MongoClient mongoClient;
+  private MongoDatabase database;
+  private MongoCollection<Document> todoDocuments;
+  private MongoCollection<Todo> todoCollection;
+  private TodoSnapshot snapshot;
+
+  private final TodoFilter filter = new TodoFilter("bl", TodoController.MATCH_PREFIX, false, List.of("groceries"));
+  private final Bson mongoFilter = and(
+    regex(TodoController.OWNER_LOWER_KEY, "^bl"),
+    eq(TodoController.STATUS_KEY, false),
+    eq(TodoController.CATEGORY_KEY, "groceries"));
+
+  @Setup
+  public void setup() {
+    mongoClient = MongoClients.create("mongodb://" + System.getenv().getOrDefault("MONGO_ADDR", "localhost"));
+    database = mongoClient.getDatabase("benchmark");
+    database.drop();
+
+    String[] owners = { "Blanche", "Fry", "Barry", "Workman", "Dawn", "Roberta", "Blaine", "Blake" };
+    String[] categories = { "software design", "video games", "homework", "groceries" };
+    todoDocuments = database.getCollection("todos");
+    List<Document> batch = new ArrayList<>();
+    for (int i = 0; i < todoCount; i++) {
+      batch.add(TodoController.newTodoDocument(
+        owners[i % owners.length] + " " + (i % 100),
+        i % 3 == 0,
+        "In sunt ex non tempor cillum commodo amet incididunt anim qui commodo quis. Todo number " + i + ".",
+        categories[i % categories.length]));
+      if (batch.size() == TodoController.DEFAULT_BATCH_SIZE) {
+        todoDocuments.insertMany(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      todoDocuments.insertMany(batch);
+    }
+
+    // Building a controller creates the same indexes the server uses.
+    new TodoController(database);
+    todoCollection = JacksonMongoCollection.builder()
+      .build(database, "todos", Todo.class, UuidRepresentation.STANDARD);
+    snapshot = new TodoSnapshot();
+    snapshot.load(todoDocuments);
+  }
+
+  @TearDown
+  public void teardown() {
+    database.drop();
+    mongoClient.close();
+  }
+
+  @Benchmark
+  public List<Todo> mongoFind() {
+    return todoCollection.find(mongoFilter).into(new ArrayList<>());
+  }
+
+  @Benchmark
+  public List<Todo> snapshotFind() {
+    return snapshot.find(filter, null, false, null, 0);
+  }
+
+  @Benchmark
+  public long mongoCount() {
+    return todoDocuments.countDocuments(mongoFilter);
+  }
+
+  @Benchmark
+  public int snapshotCount() {
+    return snapshot.count(filter);
+  }
+}
@@ -0,0 +1,105 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * A bitmap index over one field of an in-memory snapshot (like
+ * `TodoSnapshot`): for each value of the field, a compressed bitmap of
+ * the ordinals of the documents that have that value.
+ *
+ * Values are identified by `int` keys (e.g., codes from a dictionary of
+ * the field's distinct values), and documents by their dense ordinals in
+ * the snapshot. The bitmaps are Roaring bitmaps, which store runs and
+ * dense stretches of ordinals in a fraction of the space of a `BitSet`,
+ * and AND/OR them a whole container (up to 65536 ordinals) at a time.
+ * So a filter on several fields is a handful of bitmap ANDs, and the
+ * number of matches is just the cardinality of the result.
+ *
+ * This is meant for fields with few distinct values (status, category,
+ * role, etc.). It isn't thread-safe; the snapshot that owns it is
+ * expected to guard it with its own lock.
+ */
+public final class BitmapIndex {
+
+  // A document with no value for the field has this key, and isn't in any bitmap.
+  public static final int NO_VALUE = -1;
+
+  private final List<RoaringBitmap> bitmaps = new ArrayList<>();
+
+  /**
+   * Record that a document's value for the field has changed.
+   *
+   * @param ordinal the document's ordinal
+   * @param oldKey the key for its old value (or `NO_VALUE`)
+   * @param newKey the key for its new value (or `NO_VALUE`)
+   */
+  public void move(int ordinal, int oldKey, int newKey) {
+    if (oldKey == newKey) {
+      return;
+    }
+    if (oldKey != NO_VALUE) {
+      bitmaps.get(oldKey).remove(ordinal);
+    }
+    if (newKey != NO_VALUE) {
+      while (bitmaps.size() <= newKey) {
+        bitmaps.add(new RoaringBitmap());
+      }
+      bitmaps.get(newKey).add(ordinal);
+    }
+  }
+
+  /**
+   * Get the documents that have a value. The bitmap belongs to the
+   * index, so it mustn't be changed.
+   *
+   * @param key the key for the value
+   * @return the ordinals of the documents with that value
+   */
+  public RoaringBitmap get(int key) {
+    if (key < 0 || key >= bitmaps.size()) {
+      return new RoaringBitmap();
+    }
+    return bitmaps.get(key);
+  }
+
+  /**
+   * Get the documents that have any of several values.
+   *
+   * @param keys whether each key is wanted, indexed by key
+   * @return a new bitmap of the ordinals of the documents with any of those values
+   */
+  public RoaringBitmap any(boolean[] keys) {
+    List<RoaringBitmap> wanted = new ArrayList<>();
+    for (int key = 0; key < keys.length && key < bitmaps.size(); key++) {
+      if (keys[key]) {
+        wanted.add(bitmaps.get(key));
+      }
+    }
+    return RoaringBitmap.or(wanted.iterator());
+  }
+
+  /**
+   * @param key the key for a value
+   * @return the number of documents with that value
+   */
+  public int count(int key) {
+    return get(key).getCardinality();
+  }
+
+  /**
+   * Compress runs of consecutive ordinals (as in a freshly loaded
+   * snapshot) into run containers.
+   */
+  public void optimize() {
+    for (RoaringBitmap bitmap : bitmaps) {
+      bitmap.runOptimize();
+    }
+  }
+
+  public void clear() {
+    bitmaps.clear();
+  }
+}
@@ -0,0 +1,133 @@
+package umm3601;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of strings that can answer "definitely not in the set" from memory,
+ * in a few bit lookups, and otherwise only "probably in the set". It's used
+ * to rule out most new values (e.g., user emails) before asking MongoDB
+ * whether they're already taken (see `UserController.emailTaken()`).
+ *
+ * Each value sets `hashCount` bits in a bit array, picked by double hashing
+ * one 64-bit hash of the value. A value none of whose bits are all set was
+ * never added. The array is sized for an expected number of values and
+ * false-positive rate; adding more values than expected doesn't break
+ * anything, but makes false positives (and so extra lookups) more likely.
+ *
+ * Values can't be removed, so a value that was removed from the database
+ * stays a "probably" until the filter is rebuilt. Adding and checking are
+ * lock-free, and safe from any number of threads.
+ */
+public final class BloomFilter {
+
+  // FNV-1a, over the UTF-16 chars of the value
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  // The finalizer from MurmurHash3, which spreads FNV's output across all
+  // 64 bits, and the constant we mix in to get a second hash from the first.
+  private static final long MIX_1 = 0xff51afd7ed558ccdL;
+  private static final long MIX_2 = 0xc4ceb9fe1a85ec53L;
+  private static final int MIX_SHIFT = 33;
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private static final int WORD_SHIFT = 6;
+
+  private final AtomicLongArray bits;
+  private final long bitCount;
+  private final int hashCount;
+
+  /**
+   * Create an empty filter.
+   *
+   * @param expectedValues how many values are expected to be added
+   * @param falsePositiveRate the chance (between 0 and 1) that a value that
+   *   wasn't added is reported as probably added, once `expectedValues` have been
+   */
+  public BloomFilter(long expectedValues, double falsePositiveRate) {
+    if (expectedValues <= 0) {
+      throw new IllegalArgumentException("The expected number of values must be greater than zero");
+    }
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("The false-positive rate must be between 0 and 1");
+    }
+    // The standard optimal sizes: m = -n ln(p) / ln(2)^2 bits and k = (m / n) ln(2) hashes
+    double ln2 = Math.log(2);
+    long wantedBits = (long) Math.ceil(-expectedValues * Math.log(falsePositiveRate) / (ln2 * ln2));
+    int words = Math.toIntExact((wantedBits + Long.SIZE - 1) >>> WORD_SHIFT);
+    this.bits = new AtomicLongArray(words);
+    this.bitCount = (long) words << WORD_SHIFT;
+    this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedValues * ln2));
+  }
+
+  /**
+   * Add a value.
+   *
+   * @param value the value (`null` is ignored)
+   */
+  public void add(String value) {
+    if (value == null) {
+      return;
+    }
+    long hash1 = hash(value);
+    long hash2 = secondHash(hash1);
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+      int word = (int) (bit >>> WORD_SHIFT);
+      long mask = 1L << bit;
+      long current = bits.get(word);
+      while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+        current = bits.get(word);
+      }
+    }
+  }
+
+  /**
+   * Could this value have been added?
+   *
+   * @param value the value
+   * @return false if the value was definitely never added, and true if it
+   *   probably was
+   */
+  public boolean mightContain(String value) {
+    if (value == null) {
+      return false;
+    }
+    long hash1 = hash(value);
+    long hash2 = secondHash(hash1);
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+      if ((bits.get((int) (bit >>> WORD_SHIFT)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int hashCount() {
+    return hashCount;
+  }
+
+  public long bitCount() {
+    return bitCount;
+  }
+
+  private static long hash(String value) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < value.length(); i++) {
+      hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+    }
+    return mix(hash);
+  }
+
+  // Odd, so that stepping by it visits a different bit on each of the
+  // `hashCount` steps (when `bitCount` is a power of two)
+  private static long secondHash(long hash1) {
+    return mix(hash1 ^ GOLDEN_GAMMA) | 1;
+  }
+
+  private static long mix(long hash) {
+    hash = (hash ^ (hash >>> MIX_SHIFT)) * MIX_1;
+    hash = (hash ^ (hash >>> MIX_SHIFT)) * MIX_2;
+    return hash ^ (hash >>> MIX_SHIFT);
+  }
+}
@@ -0,0 +1,59 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The response to a bulk write: how many items were written, how many
+ * weren't, and what happened to each one.
+ */
+// As in `Todo`, these fields are public so that Jackson can get at them.
+@SuppressWarnings({"VisibilityModifier"})
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkReport {
+  public int inserted;
+  public int failed;
+  public List<Item> results = new ArrayList<>();
+
+  /**
+   * Record that the item at `index` in the request was written.
+   *
+   * @param index the item's position in the request (starting from 0)
+   * @param id the id of the new document
+   */
+  public void succeeded(int index, String id) {
+    Item item = new Item();
+    item.index = index;
+    item.id = id;
+    results.add(item);
+    inserted++;
+  }
+
+  /**
+   * Record that the item at `index` in the request wasn't written.
+   *
+   * @param index the item's position in the request (starting from 0)
+   * @param error why it wasn't written
+   */
+  public void failed(int index, String error) {
+    Item item = new Item();
+    item.index = index;
+    item.error = error;
+    results.add(item);
+    failed++;
+  }
+
+  /**
+   * What happened to a single item in a bulk request. Exactly
+   * one of `id` and `error` is set.
+   */
+  @SuppressWarnings({"VisibilityModifier"})
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Item {
+    public int index;
+    public String id;
+    public String error;
+  }
+}
@@ -0,0 +1,93 @@
+package umm3601;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Holds on to a single, expensive-to-compute value (e.g., the result of an
+ * aggregation over a whole collection) so that repeated requests can share it.
+ *
+ * The value is recomputed when it's older than its time-to-live, or after
+ * `invalidate()` has been called (which controllers do whenever they change
+ * the data the value was computed from).
+ *
+ * @param <T> the type of the cached value
+ */
+public final class CachedValue<T> {
+
+  private final long ttlNanos;
+  private final LongSupplier clock;
+
+  // Bumped by every `invalidate()`. A value computed while an invalidation
+  // was happening is tagged with the old generation, so it's never used.
+  private final AtomicLong generation = new AtomicLong();
+
+  private volatile Entry<T> entry;
+
+  /**
+   * Create a cache whose value expires after the given time.
+   *
+   * @param ttl how long a computed value stays fresh; zero means it only
+   *   goes stale when `invalidate()` is called
+   * @param unit the unit of `ttl`
+   */
+  public CachedValue(long ttl, TimeUnit unit) {
+    this(ttl, unit, System::nanoTime);
+  }
+
+  /**
+   * Create a cache with its own clock (so tests can control time).
+   *
+   * @param ttl how long a computed value stays fresh; zero means it only
+   *   goes stale when `invalidate()` is called
+   * @param unit the unit of `ttl`
+   * @param clock a source of the current time, in nanoseconds
+   */
+  public CachedValue(long ttl, TimeUnit unit, LongSupplier clock) {
+    this.ttlNanos = unit.toNanos(ttl);
+    this.clock = clock;
+  }
+
+  /**
+   * Get the cached value, computing it with `loader` if there isn't a fresh one.
+   *
+   * @param loader computes the value
+   * @return the (possibly cached) value
+   */
+  public T get(Supplier<T> loader) {
+    long now = clock.getAsLong();
+    long currentGeneration = generation.get();
+    Entry<T> current = entry;
+    if (current != null
+        && current.generation == currentGeneration
+        && (ttlNanos == 0 || now - current.loadedAt < ttlNanos)) {
+      return current.value;
+    }
+
+    T value = loader.get();
+    entry = new Entry<>(value, now, currentGeneration);
+    return value;
+  }
+
+  /**
+   * Throw away the cached value, so the next `get()` recomputes it.
+   */
+  public void invalidate() {
+    generation.incrementAndGet();
+    entry = null;
+  }
+
+  private static final class Entry<T> {
+    private final T value;
+    private final long loadedAt;
+    private final long generation;
+
+    Entry(T value, long loadedAt, long generation) {
+      this.value = value;
+      this.loadedAt = loadedAt;
+      this.generation = generation;
+    }
+  }
+}
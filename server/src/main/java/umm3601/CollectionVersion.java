@@ -0,0 +1,109 @@
+package umm3601;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * A counter that goes up every time a controller changes its collection,
+ * used to answer conditional GETs (`If-None-Match`) without touching the
+ * database.
+ *
+ * A response's ETag is made from the current version and the request
+ * (path, query string, and `Accept` header), so a client polling the same
+ * URL gets `304 Not Modified` until something is written. Since the version
+ * is checked *before* the query runs, a write that happens while we're
+ * querying can only make the client fetch again, never miss a change.
+ * Because the tag depends on `Accept`, responses also say `Vary: Accept`,
+ * so a shared cache doesn't hand a CSV body to a client that asked for JSON.
+ *
+ * The tag is set before the handler has checked its parameters, so
+ * `dropUnlessSuccessful()` (run after every request) takes it back off any
+ * response that didn't end up a 2xx (or a 304): a 400 or 404 has nothing
+ * worth revalidating.
+ *
+ * Only writes that go through this server bump the version, the same as
+ * for the controllers' caches.
+ */
+public final class CollectionVersion {
+
+  // Every run of the server starts counting from zero again, so this keeps
+  // a tag handed out before a restart from matching one handed out after it.
+  private static final String EPOCH = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * Record that the collection has changed, so every ETag handed out so far is stale.
+   */
+  public void bump() {
+    version.incrementAndGet();
+  }
+
+  /**
+   * Get the ETag for a request against the current version of the collection.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the (quoted, strong) ETag
+   */
+  public String etag(Context ctx) {
+    String request = ctx.path() + "?" + ctx.queryString() + " " + ctx.header(Header.ACCEPT);
+    return "\"" + EPOCH + "-" + version.get() + "-" + Integer.toHexString(request.hashCode()) + "\"";
+  }
+
+  /**
+   * Set the `ETag` and `Vary` headers for this request and, if the client already has
+   * the current version (it sent a matching `If-None-Match`), answer with
+   * `304 Not Modified`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if the response is finished and the caller shouldn't
+   *   query or send anything
+   */
+  public boolean notModified(Context ctx) {
+    String etag = etag(ctx);
+    ctx.header(Header.VARY, Header.ACCEPT);
+    ctx.header(Header.ETAG, etag);
+    if (matches(ctx.header(Header.IF_NONE_MATCH), etag)) {
+      ctx.status(HttpStatus.NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Remove the `ETag` header from a response that isn't a success (e.g., a
+   * 400 for a bad parameter, or a 404), so that only 2xx and 304 responses
+   * carry one. Registered as an `after` handler in `Server`, which Javalin
+   * runs even when the handler threw.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public static void dropUnlessSuccessful(Context ctx) {
+    int status = ctx.statusCode();
+    boolean successful = status >= HttpStatus.OK.getCode() && status < HttpStatus.MULTIPLE_CHOICES.getCode();
+    if (!successful && status != HttpStatus.NOT_MODIFIED.getCode()) {
+      ctx.res().setHeader(Header.ETAG, null);
+    }
+  }
+
+  // `If-None-Match` can hold a comma-separated list of tags, or `*`. For a
+  // GET, a weak (`W/`) tag matches a strong one with the same value.
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      String trimmed = tag.trim();
+      if (trimmed.startsWith("W/")) {
+        trimmed = trimmed.substring(2);
+      }
+      if (trimmed.equals("*") || trimmed.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
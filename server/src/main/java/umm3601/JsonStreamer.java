@@ -0,0 +1,147 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+
+import org.bson.RawBsonDocument;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Writes list results to the response one document at a time as the
+ * MongoDB cursor produces them, instead of collecting them all into an
+ * `ArrayList` and handing that to `ctx.json()`.
+ *
+ * Two formats are supported:
+ *   - NDJSON (`application/x-ndjson`), one JSON document per line, chosen
+ *     with an `Accept: application/x-ndjson` request header
+ *   - an ordinary JSON array, sent in chunks, chosen with `?stream=true`
+ *
+ * Either way only one document (plus Jackson's and Jetty's output buffers)
+ * is in memory at a time, so heap use and time-to-first-byte don't grow
+ * with the number of matching documents.
+ *
+ * Documents can be POJOs (written by Jackson) or `RawBsonDocument`s, which
+ * are copied straight from BSON to JSON (see `RawBsonJson`) without ever
+ * being turned into objects.
+ */
+public final class JsonStreamer {
+
+  public static final String STREAM_KEY = "stream";
+  public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+  // How often (in documents) we push what we have out to the client.
+  // We always flush after the first document so that it arrives quickly.
+  private static final int FLUSH_INTERVAL = 100;
+
+  // We control flushing ourselves, so turn off Jackson's habit of
+  // flushing after every value it writes.
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+    .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  private JsonStreamer() {
+  }
+
+  /**
+   * Did the client ask for a streamed response, either with
+   * `?stream=true` or with `Accept: application/x-ndjson`?
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if the response should be streamed
+   */
+  public static boolean isRequested(Context ctx) {
+    if (ctx.queryParamMap().containsKey(STREAM_KEY)) {
+      return "true".equalsIgnoreCase(ctx.queryParam(STREAM_KEY));
+    }
+    return wantsNdjson(ctx);
+  }
+
+  /**
+   * Did the client ask for newline-delimited JSON?
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if the `Accept` header asks for NDJSON
+   */
+  public static boolean wantsNdjson(Context ctx) {
+    String accept = ctx.header(Header.ACCEPT);
+    return accept != null && accept.contains(NDJSON_CONTENT_TYPE);
+  }
+
+  /**
+   * Stream the results of a MongoDB query to the client.
+   *
+   * The output stream blocks when the client isn't keeping up, and
+   * we only ask the cursor for the next batch once we've written the
+   * previous one, so a slow client slows down the query rather than
+   * piling documents up in memory. If the client goes away part way
+   * through, the write fails, and we close the cursor (freeing it on
+   * the MongoDB side) and stop.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param results the (not yet executed) query whose results should be sent
+   */
+  public static void stream(Context ctx, MongoIterable<?> results) {
+    boolean ndjson = wantsNdjson(ctx);
+    ctx.status(HttpStatus.OK);
+    ctx.contentType(ndjson ? NDJSON_CONTENT_TYPE : "application/json");
+
+    try (MongoCursor<?> cursor = results.iterator()) {
+      write(cursor, ctx.outputStream(), ndjson);
+    } catch (IOException e) {
+      // The client disconnected (or the connection otherwise broke). The
+      // response has already been started, so there's nobody left to tell.
+    }
+  }
+
+  /**
+   * Write documents to an output stream, either as NDJSON or as a JSON array.
+   *
+   * @param documents the documents to write (POJOs or `RawBsonDocument`s)
+   * @param out where to write them
+   * @param ndjson true for one document per line, false for a JSON array
+   * @return the number of documents written
+   * @throws IOException if writing to `out` fails
+   */
+  public static long write(Iterator<?> documents, OutputStream out, boolean ndjson) throws IOException {
+    long count = 0;
+    JsonGenerator generator = MAPPER.createGenerator(out)
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    try {
+      if (ndjson) {
+        generator.setRootValueSeparator(null);
+      } else {
+        generator.writeStartArray();
+      }
+      while (documents.hasNext()) {
+        Object document = documents.next();
+        if (document instanceof RawBsonDocument) {
+          RawBsonJson.write((RawBsonDocument) document, generator);
+        } else {
+          MAPPER.writeValue(generator, document);
+        }
+        if (ndjson) {
+          generator.writeRaw('\n');
+        }
+        count++;
+        if (count == 1 || count % FLUSH_INTERVAL == 0) {
+          generator.flush();
+        }
+      }
+      if (!ndjson) {
+        generator.writeEndArray();
+      }
+    } finally {
+      generator.close();
+    }
+    return count;
+  }
+}
@@ -0,0 +1,131 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * An opaque "keyset" (or "seek") pagination cursor.
+ *
+ * A cursor remembers where the previous page ended: the `_id` of the last
+ * document on that page, plus the value of the sort key for that document
+ * if the results were sorted on something other than `_id`. The next page
+ * is then fetched with a range query ("everything after this position")
+ * rather than with `skip()`, so MongoDB can seek straight to the right place
+ * in an index and page N costs the same as page 1.
+ *
+ * Clients should treat the encoded form as an opaque token and just hand it
+ * back to us in the `after` query parameter.
+ */
+public final class KeysetCursor {
+
+  private static final String ID_KEY = "id";
+  private static final String VALUE_KEY = "v";
+
+  private final Object sortValue;
+  private final ObjectId lastId;
+  // False for a decoded token with no sort value in it at all (as opposed
+  // to a `null` one, from a document that was missing the sort key).
+  private final boolean hasSortValue;
+
+  /**
+   * Construct a cursor pointing just past the given document.
+   *
+   * @param sortValue the value of the sort key in the last document on the page,
+   *   or `null` if the results are only sorted by `_id`
+   * @param lastId the `_id` of the last document on the page
+   */
+  public KeysetCursor(Object sortValue, ObjectId lastId) {
+    this(sortValue, lastId, true);
+  }
+
+  private KeysetCursor(Object sortValue, ObjectId lastId, boolean hasSortValue) {
+    this.sortValue = sortValue;
+    this.lastId = lastId;
+    this.hasSortValue = hasSortValue;
+  }
+
+  /**
+   * Turn a token previously produced by `encode()` back into a cursor.
+   *
+   * @param token the opaque token the client sent us
+   * @return the decoded cursor
+   * @throws BadRequestResponse if the token isn't one we could have produced
+   */
+  public static KeysetCursor decode(String token) {
+    try {
+      String json = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+      Document doc = Document.parse(json);
+      ObjectId id = doc.getObjectId(ID_KEY);
+      if (id == null) {
+        throw new BadRequestResponse("The requested page cursor is not valid.");
+      }
+      return new KeysetCursor(doc.get(VALUE_KEY), id, doc.containsKey(VALUE_KEY));
+    } catch (IllegalArgumentException | JsonParseException | ClassCastException e) {
+      throw new BadRequestResponse("The requested page cursor is not valid.");
+    }
+  }
+
+  /**
+   * Encode this cursor as an opaque, URL-safe token.
+   *
+   * @return the encoded cursor
+   */
+  public String encode() {
+    // The value goes in even if it's `null`, so that `seekFilter()` can
+    // tell it apart from a token that never had one.
+    Document doc = new Document(ID_KEY, lastId).append(VALUE_KEY, sortValue);
+    return Base64.getUrlEncoder().withoutPadding()
+      .encodeToString(doc.toJson().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Build the range filter that selects everything strictly after this cursor.
+   *
+   * The results must be sorted on `sortKey` (if any) and then on `_id`, both
+   * in the same direction, for this filter to line up with the page boundary.
+   *
+   * MongoDB sorts a missing or `null` sort key before every other value, but
+   * `$gt` and `$lt` only compare values of the same type (and never match
+   * `null`), so pages that start or end among the `null`s get their own filters.
+   *
+   * @param sortKey the field the results are sorted on, or `null` if they are
+   *   only sorted by `_id`
+   * @param descending whether the results are sorted in descending order
+   * @return a filter selecting the documents that come after this cursor
+   * @throws BadRequestResponse if the results are sorted on `sortKey`, but
+   *   the cursor has no value for it (so there's no telling where it was)
+   */
+  public Bson seekFilter(String sortKey, boolean descending) {
+    Bson afterId = descending ? lt("_id", lastId) : gt("_id", lastId);
+    if (sortKey == null) {
+      return afterId;
+    }
+    if (!hasSortValue) {
+      throw new BadRequestResponse("The requested page cursor is not valid for this sort order.");
+    }
+    Bson sameValue = and(eq(sortKey, sortValue), afterId);
+    if (sortValue == null) {
+      // Going up, every non-null value is still to come; going down, only
+      // the rest of the `null`s are.
+      return descending ? sameValue : or(ne(sortKey, null), sameValue);
+    }
+    if (descending) {
+      return or(lt(sortKey, sortValue), sameValue, eq(sortKey, null));
+    }
+    return or(gt(sortKey, sortValue), sameValue);
+  }
+}
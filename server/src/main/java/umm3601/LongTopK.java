@@ -0,0 +1,106 @@
+package umm3601;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the `k` smallest of the `long`s it's offered, in a bounded
+ * max-heap: the largest value kept is always at the top, ready to be
+ * pushed out by anything smaller. Offering `n` values costs O(n log k),
+ * and only `k` values are ever held, however many are offered.
+ *
+ * This is used to pick the first page of a sorted list without sorting
+ * the whole list (see `TodoSnapshot`). It isn't thread-safe, but several
+ * can be filled in parallel (e.g., by `IntStream.collect()`) and then
+ * combined with `addAll()`.
+ */
+public final class LongTopK {
+
+  private final long[] heap;
+  private int size;
+
+  /**
+   * Create an empty heap.
+   *
+   * @param k how many values to keep
+   */
+  public LongTopK(int k) {
+    this.heap = new long[k];
+  }
+
+  /**
+   * Offer a value, which is kept if it's among the `k` smallest so far.
+   *
+   * @param value the value
+   */
+  public void offer(long value) {
+    if (size < heap.length) {
+      heap[size] = value;
+      siftUp(size++);
+    } else if (size > 0 && value < heap[0]) {
+      heap[0] = value;
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Offer every value kept by another heap.
+   *
+   * @param other the other heap
+   */
+  public void addAll(LongTopK other) {
+    for (int i = 0; i < other.size; i++) {
+      offer(other.heap[i]);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the values kept, smallest first
+   */
+  public long[] toSortedArray() {
+    long[] sorted = Arrays.copyOf(heap, size);
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  private void siftUp(int index) {
+    int child = index;
+    while (child > 0) {
+      int parent = (child - 1) / 2;
+      if (heap[parent] >= heap[child]) {
+        return;
+      }
+      swap(parent, child);
+      child = parent;
+    }
+  }
+
+  private void siftDown(int index) {
+    int parent = index;
+    while (true) {
+      int largest = parent;
+      int left = 2 * parent + 1;
+      int right = left + 1;
+      if (left < size && heap[left] > heap[largest]) {
+        largest = left;
+      }
+      if (right < size && heap[right] > heap[largest]) {
+        largest = right;
+      }
+      if (largest == parent) {
+        return;
+      }
+      swap(parent, largest);
+      parent = largest;
+    }
+  }
+
+  private void swap(int i, int j) {
+    long value = heap[i];
+    heap[i] = heap[j];
+    heap[j] = value;
+  }
+}
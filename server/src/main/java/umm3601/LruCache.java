@@ -0,0 +1,149 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A small, bounded, read-through cache for looking documents up by key.
+ *
+ * It holds at most `maxSize` entries, throwing out the least recently used
+ * one to make room, and an entry is only trusted for `ttl` after it was
+ * loaded. Controllers call `invalidate()` (or `invalidateAll()`) whenever
+ * they change a document, so the cache never hands out something they know
+ * to be out of date.
+ *
+ * Lookups that find nothing aren't cached, so adding a new document never
+ * leaves a stale "not found" behind.
+ *
+ * @param <K> the type of the keys (e.g., `ObjectId`)
+ * @param <V> the type of the cached documents
+ */
+public final class LruCache<K, V> {
+
+  // The usual defaults for a `HashMap`.
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final int maxSize;
+  private final long ttlNanos;
+  private final LongSupplier clock;
+
+  // A `LinkedHashMap` in access order keeps the least recently used
+  // entry first, which is the one `removeEldestEntry` throws out.
+  private final LinkedHashMap<K, Entry<V>> entries;
+
+  // Bumped (while holding the lock on `entries`) by every invalidation. A value
+  // that was being loaded while an invalidation happened might already be out
+  // of date, so it's only stored if the generation hasn't moved in the meantime.
+  private long generation;
+
+  /**
+   * Create a cache.
+   *
+   * @param maxSize the most entries to hold at once
+   * @param ttl how long an entry stays fresh after it's loaded
+   * @param unit the unit of `ttl`
+   */
+  public LruCache(int maxSize, long ttl, TimeUnit unit) {
+    this(maxSize, ttl, unit, System::nanoTime);
+  }
+
+  /**
+   * Create a cache with its own clock (so tests can control time).
+   *
+   * @param maxSize the most entries to hold at once
+   * @param ttl how long an entry stays fresh after it's loaded
+   * @param unit the unit of `ttl`
+   * @param clock a source of the current time, in nanoseconds
+   */
+  public LruCache(int maxSize, long ttl, TimeUnit unit, LongSupplier clock) {
+    this.maxSize = maxSize;
+    this.ttlNanos = unit.toNanos(ttl);
+    this.clock = clock;
+    this.entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+        return size() > LruCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * Get the value for a key, loading it (and remembering it) if it isn't
+   * already here or has gone stale.
+   *
+   * The loader is called without holding the cache's lock, so a slow
+   * database lookup doesn't hold up lookups of other keys.
+   *
+   * @param key the key to look up
+   * @param loader finds the value for a key, returning `null` if there isn't one
+   * @return the value, or `null` if the loader couldn't find one
+   */
+  public V get(K key, Function<K, V> loader) {
+    long now = clock.getAsLong();
+    long loadGeneration;
+    synchronized (entries) {
+      Entry<V> entry = entries.get(key);
+      if (entry != null && now - entry.loadedAt < ttlNanos) {
+        return entry.value;
+      }
+      loadGeneration = generation;
+    }
+
+    V value = loader.apply(key);
+    if (value != null) {
+      synchronized (entries) {
+        if (generation == loadGeneration) {
+          entries.put(key, new Entry<>(value, now));
+        }
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Forget the value for a key, if we have one.
+   *
+   * @param key the key whose value has changed
+   */
+  public void invalidate(K key) {
+    synchronized (entries) {
+      generation++;
+      entries.remove(key);
+    }
+  }
+
+  /**
+   * Forget everything (e.g., after a change that could affect any entry).
+   */
+  public void invalidateAll() {
+    synchronized (entries) {
+      generation++;
+      entries.clear();
+    }
+  }
+
+  /**
+   * Get the number of entries currently held.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  private static final class Entry<V> {
+    private final V value;
+    private final long loadedAt;
+
+    Entry(V value, long loadedAt) {
+      this.value = value;
+      this.loadedAt = loadedAt;
+    }
+  }
+}
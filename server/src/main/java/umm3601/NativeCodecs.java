@@ -0,0 +1,48 @@
+package umm3601;
+
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import umm3601.todo.TodoCodec;
+import umm3601.user.UserCodec;
+
+/**
+ * Our hand-written BSON codecs (`TodoCodec` and `UserCodec`), which let the
+ * MongoDB driver decode documents straight into `Todo`s and `User`s.
+ *
+ * By default the controllers read and write through MongoJack, which turns
+ * each BSON document into Jackson tokens and then into a POJO. Starting the
+ * server with `MONGO_CODECS=native` registers these codecs with the client
+ * instead, and the controllers use plain `MongoCollection`s that rely on them.
+ */
+public final class NativeCodecs {
+
+  public static final String SWITCH_ENV = "MONGO_CODECS";
+  public static final String NATIVE = "native";
+
+  private NativeCodecs() {
+  }
+
+  /**
+   * Should the controllers use the native codecs rather than MongoJack?
+   *
+   * @param setting the value of the `MONGO_CODECS` environment variable (possibly `null`)
+   * @return true if it asks for the native codecs
+   */
+  public static boolean isEnabled(String setting) {
+    return NATIVE.equalsIgnoreCase(setting);
+  }
+
+  /**
+   * Add our codecs to a codec registry.
+   *
+   * @param base the registry to fall back to for every other type
+   *   (normally `MongoClientSettings.getDefaultCodecRegistry()`)
+   * @return a registry that knows about `Todo` and `User` as well
+   */
+  public static CodecRegistry withNativeCodecs(CodecRegistry base) {
+    return CodecRegistries.fromRegistries(
+      CodecRegistries.fromCodecs(new TodoCodec(), new UserCodec()),
+      base);
+  }
+}
@@ -0,0 +1,266 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * The distinct values of a field (e.g., user companies or todo owners),
+ * each with the number of documents that have it, kept in a compressed
+ * (radix) trie so that typeahead suggestions for a prefix can be answered
+ * in memory instead of with a regex scan of the collection.
+ *
+ * Values are stored under a normalized key (e.g., lowercased), so prefixes
+ * are matched the same way. Values whose keys are the same are counted
+ * together, and suggested as whichever of them was added first.
+ *
+ * Each node also remembers the largest count anywhere below it, so the
+ * top N completions of a prefix are found by a best-first search that only
+ * looks at the branches that could hold them, rather than at every value
+ * that starts with the prefix.
+ *
+ * Like the controllers' caches, this only sees the changes made through
+ * this server.
+ */
+public final class PrefixTrie {
+
+  private final UnaryOperator<String> normalize;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Node root = new Node("");
+
+  /**
+   * Create an empty trie.
+   *
+   * @param normalize turns a value (or a prefix) into the key it's stored
+   *   and looked up under
+   */
+  public PrefixTrie(UnaryOperator<String> normalize) {
+    this.normalize = normalize;
+  }
+
+  // A node in the trie. The key for a node is the labels of every node
+  // from the root down to it, joined together.
+  private static final class Node {
+    private String label;
+    private final TreeMap<Character, Node> children = new TreeMap<>();
+    // If this node's key is a value's key, the value and its count.
+    private String value;
+    private long count;
+    // The largest count of this node or anything below it.
+    private long best;
+
+    Node(String label) {
+      this.label = label;
+    }
+
+    void updateBest() {
+      best = count;
+      for (Node child : children.values()) {
+        best = Math.max(best, child.best);
+      }
+    }
+  }
+
+  /**
+   * Add one document with a value.
+   *
+   * @param value the value (`null` is ignored)
+   */
+  public void add(String value) {
+    add(value, 1);
+  }
+
+  /**
+   * Add (or, with a negative `count`, remove) some documents with a value.
+   * A value whose count drops to zero is no longer suggested.
+   *
+   * @param value the value (`null` is ignored)
+   * @param count how many documents to add
+   */
+  public void add(String value, long count) {
+    if (value == null) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      List<Node> path = new ArrayList<>();
+      Node node = insert(normalize.apply(value), path);
+      if (node.count == 0) {
+        node.value = value;
+      }
+      node.count = Math.max(0, node.count + count);
+      if (node.count == 0) {
+        node.value = null;
+      }
+      for (int i = path.size() - 1; i >= 0; i--) {
+        Node step = path.get(i);
+        if (i > 0 && step.count == 0 && step.children.isEmpty()) {
+          path.get(i - 1).children.remove(step.label.charAt(0));
+        } else if (i > 0 && step.count == 0 && step.children.size() == 1) {
+          // Nothing ends here any more, so fold the only child into this
+          // node to keep the trie compressed.
+          Node child = step.children.firstEntry().getValue();
+          step.label = step.label + child.label;
+          step.value = child.value;
+          step.count = child.count;
+          step.children.clear();
+          step.children.putAll(child.children);
+        }
+        step.updateBest();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove one document with a value.
+   *
+   * @param value the value (`null` is ignored)
+   */
+  public void remove(String value) {
+    add(value, -1);
+  }
+
+  /**
+   * Throw away every value.
+   */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      root.children.clear();
+      root.count = 0;
+      root.value = null;
+      root.best = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Find the node for a key, splitting edges and adding nodes as needed,
+  // and record every node on the way down (root first) in `path`.
+  private Node insert(String key, List<Node> path) {
+    Node node = root;
+    path.add(node);
+    int position = 0;
+    while (position < key.length()) {
+      Node child = node.children.get(key.charAt(position));
+      if (child == null) {
+        child = new Node(key.substring(position));
+        node.children.put(key.charAt(position), child);
+        path.add(child);
+        return child;
+      }
+      int common = commonPrefix(child.label, key, position);
+      if (common < child.label.length()) {
+        // The key leaves (or ends) partway along this edge, so split it.
+        Node split = new Node(child.label.substring(0, common));
+        child.label = child.label.substring(common);
+        split.children.put(child.label.charAt(0), child);
+        split.updateBest();
+        node.children.put(split.label.charAt(0), split);
+        child = split;
+      }
+      node = child;
+      path.add(node);
+      position += common;
+    }
+    return node;
+  }
+
+  private static int commonPrefix(String label, String key, int position) {
+    int common = 0;
+    while (common < label.length() && position + common < key.length()
+        && label.charAt(common) == key.charAt(position + common)) {
+      common++;
+    }
+    return common;
+  }
+
+  /**
+   * Get the most common values that start with a prefix (after both have
+   * been normalized), most common first, and alphabetically (by key) among
+   * values with the same count.
+   *
+   * @param prefix the prefix
+   * @param limit the most suggestions to return
+   * @return the suggestions
+   */
+  public List<Suggestion> complete(String prefix, int limit) {
+    lock.readLock().lock();
+    try {
+      List<Suggestion> suggestions = new ArrayList<>();
+      String key = normalize.apply(prefix);
+
+      // Find the node whose subtree holds every key that starts with the prefix.
+      Node node = root;
+      StringBuilder path = new StringBuilder();
+      int position = 0;
+      while (position < key.length()) {
+        Node child = node.children.get(key.charAt(position));
+        if (child == null) {
+          return suggestions;
+        }
+        int common = commonPrefix(child.label, key, position);
+        if (common < child.label.length() && position + common < key.length()) {
+          return suggestions;
+        }
+        node = child;
+        path.append(child.label);
+        position += common;
+      }
+
+      // A node's key comes before every key below it, and its `best` is at
+      // least every count below it, so nothing below a node can come out of
+      // the queue ahead of the node itself.
+      PriorityQueue<Candidate> queue = new PriorityQueue<>(Candidate.ORDER);
+      queue.add(new Candidate(node, path.toString(), false));
+      while (!queue.isEmpty() && suggestions.size() < limit) {
+        Candidate next = queue.poll();
+        if (next.entry) {
+          Suggestion suggestion = new Suggestion();
+          suggestion.value = next.node.value;
+          suggestion.count = next.node.count;
+          suggestions.add(suggestion);
+          continue;
+        }
+        if (next.node.count > 0) {
+          queue.add(new Candidate(next.node, next.key, true));
+        }
+        for (Node child : next.node.children.values()) {
+          queue.add(new Candidate(child, next.key + child.label, false));
+        }
+      }
+      return suggestions;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Something on the best-first search's queue: either a node's own value
+  // (an `entry`), or everything below a node.
+  private static final class Candidate {
+    private static final Comparator<Candidate> ORDER = Comparator
+      .comparingLong((Candidate candidate) -> -candidate.score())
+      .thenComparing(candidate -> candidate.key)
+      .thenComparing(candidate -> !candidate.entry);
+
+    private final Node node;
+    private final String key;
+    private final boolean entry;
+
+    Candidate(Node node, String key, boolean entry) {
+      this.node = node;
+      this.key = key;
+      this.entry = entry;
+    }
+
+    long score() {
+      return entry ? node.count : node.best;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package umm3601;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+
+/**
+ * Writes raw BSON documents, exactly as MongoDB sent them, as JSON.
+ *
+ * Reading a document into a `Todo` (or `User`) only for Jackson to turn
+ * it straight back into JSON builds a whole object graph per document
+ * that's thrown away immediately. This instead walks the BSON bytes
+ * with a `BsonReader` and writes each value to a `JsonGenerator` as it
+ * goes, so the only garbage is the strings themselves.
+ *
+ * The JSON matches what Jackson writes for our POJOs:
+ *   - object ids (including `_id`) are written as hex strings, as
+ *     MongoJack's `@ObjectId` does
+ *   - fields whose value is `null` are left out, as with `NON_NULL`
+ *   - dates are written as milliseconds since the epoch
+ */
+public final class RawBsonJson {
+
+  private RawBsonJson() {
+  }
+
+  /**
+   * Write a raw BSON document as a JSON object.
+   *
+   * @param document the document to write
+   * @param generator where to write it
+   * @throws IOException if writing to the generator fails
+   */
+  public static void write(RawBsonDocument document, JsonGenerator generator) throws IOException {
+    try (BsonBinaryReader reader = new BsonBinaryReader(document.getByteBuffer().asNIO())) {
+      writeDocument(reader, generator);
+    }
+  }
+
+  private static void writeDocument(BsonReader reader, JsonGenerator generator) throws IOException {
+    reader.readStartDocument();
+    generator.writeStartObject();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      if (reader.getCurrentBsonType() == BsonType.NULL) {
+        reader.readNull();
+        continue;
+      }
+      generator.writeFieldName(name);
+      writeValue(reader, generator);
+    }
+    reader.readEndDocument();
+    generator.writeEndObject();
+  }
+
+  private static void writeArray(BsonReader reader, JsonGenerator generator) throws IOException {
+    reader.readStartArray();
+    generator.writeStartArray();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      writeValue(reader, generator);
+    }
+    reader.readEndArray();
+    generator.writeEndArray();
+  }
+
+  private static void writeValue(BsonReader reader, JsonGenerator generator) throws IOException {
+    switch (reader.getCurrentBsonType()) {
+      case DOCUMENT:
+        writeDocument(reader, generator);
+        break;
+      case ARRAY:
+        writeArray(reader, generator);
+        break;
+      case STRING:
+        generator.writeString(reader.readString());
+        break;
+      case OBJECT_ID:
+        generator.writeString(reader.readObjectId().toHexString());
+        break;
+      case BOOLEAN:
+        generator.writeBoolean(reader.readBoolean());
+        break;
+      case INT32:
+        generator.writeNumber(reader.readInt32());
+        break;
+      case INT64:
+        generator.writeNumber(reader.readInt64());
+        break;
+      case DOUBLE:
+        generator.writeNumber(reader.readDouble());
+        break;
+      case DECIMAL128:
+        generator.writeNumber(reader.readDecimal128().bigDecimalValue());
+        break;
+      case DATE_TIME:
+        generator.writeNumber(reader.readDateTime());
+        break;
+      case NULL:
+        reader.readNull();
+        generator.writeNull();
+        break;
+      default:
+        // None of our collections hold anything else (binary data,
+        // regexes, etc.), and there's no obvious JSON for them anyway.
+        reader.skipValue();
+        generator.writeNull();
+    }
+  }
+}
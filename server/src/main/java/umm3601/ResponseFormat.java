@@ -0,0 +1,150 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+import org.msgpack.jackson.dataformat.MessagePackMapper;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.InternalServerErrorResponse;
+
+/**
+ * Sends API responses as JSON or, for clients that ask for one in their
+ * `Accept` header, as one of Jackson's binary formats:
+ *   - CBOR (`application/cbor`)
+ *   - Smile (`application/x-jackson-smile`)
+ *   - MessagePack (`application/x-msgpack` or `application/msgpack`)
+ *
+ * The binary formats encode the same objects (`Todo`, `User`, etc.) with
+ * the same annotations as the JSON does, so a client gets the same
+ * structure either way; they're just quicker to write and parse, and
+ * smaller, than text. Clients that don't ask for one (including browsers,
+ * which send `text/html` and a wildcard) get JSON exactly as before.
+ */
+public final class ResponseFormat {
+
+  public static final String CBOR_CONTENT_TYPE = "application/cbor";
+  public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+  public static final String MSGPACK_CONTENT_TYPE = "application/x-msgpack";
+
+  private static final List<ResponseFormat> BINARY_FORMATS = List.of(
+    new ResponseFormat(new CBORMapper(), CBOR_CONTENT_TYPE),
+    new ResponseFormat(new SmileMapper(), SMILE_CONTENT_TYPE),
+    new ResponseFormat(new MessagePackMapper(), MSGPACK_CONTENT_TYPE, "application/msgpack"));
+
+  private final ObjectMapper mapper;
+  private final String contentType;
+  private final List<String> mediaTypes;
+
+  private ResponseFormat(ObjectMapper mapper, String contentType, String... aliases) {
+    this.mapper = mapper;
+    this.contentType = contentType;
+    this.mediaTypes = new ArrayList<>(List.of(aliases));
+    this.mediaTypes.add(0, contentType);
+  }
+
+  /**
+   * Set the body of the response to be `value`, in whichever format the
+   * client prefers. This is a drop-in replacement for `ctx.json(value)`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param value the object to send
+   */
+  public static void respond(Context ctx, Object value) {
+    ResponseFormat format = negotiate(ctx.header(Header.ACCEPT));
+    if (format == null) {
+      ctx.json(value);
+      return;
+    }
+    try {
+      ctx.contentType(format.contentType);
+      ctx.result(format.mapper.writeValueAsBytes(value));
+    } catch (JsonProcessingException e) {
+      throw new InternalServerErrorResponse("Unable to encode the response as " + format.contentType);
+    }
+  }
+
+  /**
+   * Does the client want (or at least accept) plain JSON?
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if `respond()` would send JSON
+   */
+  public static boolean wantsJson(Context ctx) {
+    return negotiate(ctx.header(Header.ACCEPT)) == null;
+  }
+
+  /**
+   * Get the mapper for one of the binary formats (e.g., so a client or a
+   * benchmark can read what `respond()` wrote).
+   *
+   * @param contentType the format's content type
+   * @return the mapper, or `null` if we don't support that format
+   */
+  public static ObjectMapper mapperFor(String contentType) {
+    ResponseFormat format = formatFor(contentType);
+    return format == null ? null : format.mapper;
+  }
+
+  private static ResponseFormat formatFor(String mediaType) {
+    for (ResponseFormat format : BINARY_FORMATS) {
+      if (format.mediaTypes.contains(mediaType)) {
+        return format;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Pick the binary format the client prefers, from their `Accept` header.
+   *
+   * Each media range's `q` value is honored, so `application/cbor;q=0.5,
+   * application/json` still gets JSON. When two ranges have the same `q`,
+   * the one listed first wins.
+   *
+   * @param accept the request's `Accept` header (possibly `null`)
+   * @return the binary format to use, or `null` to use JSON
+   */
+  static ResponseFormat negotiate(String accept) {
+    if (accept == null) {
+      return null;
+    }
+    ResponseFormat best = null;
+    double bestQuality = 0;
+    for (String range : accept.split(",")) {
+      String[] parts = range.split(";");
+      String mediaType = parts[0].trim().toLowerCase();
+      double quality = quality(parts);
+      if (quality <= bestQuality) {
+        continue;
+      }
+      // JSON and wildcards (`*/*`, `application/*`) count as asking for JSON.
+      ResponseFormat format = formatFor(mediaType);
+      if (format != null || mediaType.equals("application/json") || mediaType.endsWith("/*")) {
+        best = format;
+        bestQuality = quality;
+      }
+    }
+    return best;
+  }
+
+  private static double quality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String param = parts[i].trim();
+      if (param.startsWith("q=")) {
+        try {
+          return Double.parseDouble(param.substring(2));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+}
@@ -3,6 +3,7 @@ package umm3601;
 import java.util.Arrays;
 
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoExecutionTimeoutException;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
@@ -12,6 +13,7 @@ import org.bson.UuidRepresentation;
 
 import io.javalin.Javalin;
 import io.javalin.plugin.bundled.RouteOverviewPlugin;
+import io.javalin.http.HttpStatus;
 import io.javalin.http.InternalServerErrorResponse;
 import umm3601.user.UserController;
 import umm3601.todo.TodoController;
@@ -26,24 +28,28 @@ public class Server {
     // if they aren't set, use the defaults of "localhost" and "dev".
     String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
     String databaseName = System.getenv().getOrDefault("MONGO_DB", "dev");
+    // Which of the optional ways of reading and sending data to use (all off by default).
+    ServerOptions options = ServerOptions.fromEnvironment(System.getenv());
 
     // Setup the MongoDB client object with the information we set earlier
-    MongoClient mongoClient
-      = MongoClients.create(MongoClientSettings
-        .builder()
-        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
-        // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
-        // a non-standard way. This option says to use the standard encoding.
-        // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
-        .uuidRepresentation(UuidRepresentation.STANDARD)
-        .build());
+    MongoClientSettings.Builder settings = MongoClientSettings
+      .builder()
+      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
+      // a non-standard way. This option says to use the standard encoding.
+      // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
+      .uuidRepresentation(UuidRepresentation.STANDARD);
+    if (options.nativeCodecs()) {
+      settings.codecRegistry(NativeCodecs.withNativeCodecs(MongoClientSettings.getDefaultCodecRegistry()));
+    }
+    MongoClient mongoClient = MongoClients.create(settings.build());
 
     // Get the database
     MongoDatabase database = mongoClient.getDatabase(databaseName);
 
     // Initialize dependencies
-    UserController userController = new UserController(database);
-    TodoController todoController = new TodoController(database);
+    UserController userController = new UserController(database, options);
+    TodoController todoController = new TodoController(database, options);
 
     Javalin server = Javalin.create(config ->
       config.plugins.register(new RouteOverviewPlugin("/api"))
@@ -66,6 +72,21 @@ public class Server {
     // List users, filtered using query parameters
     server.get("/api/users", userController::getUsers);
 
+    // Count users, filtered using query parameters; the count is in the
+    // `X-Total-Count` header (see `TotalCount`)
+    server.head("/api/users", userController::getUsers);
+
+    // Add many users at once, from an NDJSON stream, JSON array, or CSV
+    // file in the body of the HTTP request
+    server.post("/api/users/import", userController::importUsers);
+
+    // Get how many users there are in each range of ages. Like the todo
+    // summary, this has to come before the `{id}` route below.
+    server.get("/api/users/age-histogram", userController::getAgeHistogram);
+
+    // Suggest companies that start with a prefix, for typeahead
+    server.get("/api/users/companies/suggest", userController::suggestCompanies);
+
     // Get the specified user
     server.get("/api/users/{id}", userController::getUser);
 
@@ -79,8 +100,41 @@ public class Server {
     // List todos, filtered using query parameters
     server.get("api/todos", todoController::getTodos);
 
+    // Count todos, filtered using query parameters; the count is in the
+    // `X-Total-Count` header (see `TotalCount`)
+    server.head("api/todos", todoController::getTodos);
+
+    // Get counts of todos by owner, category, and status. This has to come
+    // before the `{id}` route below, or "summary" would be taken as an id.
+    server.get("/api/todos/summary", todoController::getTodoSummary);
+
+    // Suggest todo owners that start with a prefix, for typeahead
+    server.get("/api/todos/owners/suggest", todoController::suggestOwners);
+
     // Get the specified todo
-    server.get("/api/todos/{id}", todoController::getTodos);
+    server.get("/api/todos/{id}", todoController::getTodo);
+
+    // Add many todos at once, from a JSON array or NDJSON stream
+    // in the body of the HTTP request
+    server.post("/api/todos/bulk", todoController::addTodos);
+
+    // Set the status of many todos at once; which todos, and the
+    // new status, are in the JSON body of the HTTP request
+    server.patch("/api/todos/status", todoController::updateTodoStatuses);
+
+    // The list and single-item GETs tag their responses with an ETag
+    // before they've looked at the request; a request that then fails
+    // (400, 404, ...) shouldn't keep that tag.
+    server.after(CollectionVersion::dropUnlessSuccessful);
+
+    // Some queries (e.g., todo owner patterns) are given a time limit on
+    // the database side. If one runs out of time it's because the request
+    // was too expensive, not because the server is broken, so we say so
+    // rather than letting it turn into a 500.
+    server.exception(MongoExecutionTimeoutException.class, (e, ctx) -> {
+      ctx.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .result("The database took too long to answer this request; try narrowing it down.");
+    });
 
     // This catches any uncaught exceptions thrown in the server
     // code and turns them into a 500 response ("Internal Server
@@ -0,0 +1,62 @@
+package umm3601;
+
+import java.util.Map;
+
+/**
+ * The optional ways the controllers can read and send their data, all
+ * of which are off by default. `Server` reads them from environment
+ * variables; tests set them directly.
+ *
+ *   - `MONGO_CODECS=native`: read and write `Todo`s and `User`s with our own
+ *     BSON codecs instead of MongoJack (see `NativeCodecs`)
+ *   - `JSON_PASSTHROUGH=true`: copy every JSON list straight from BSON, not
+ *     just streamed ones (see `RawBsonJson`)
+ *   - `MEMORY_SNAPSHOTS=true`: keep an in-memory copy of the collections and
+ *     answer filter queries from it instead of from MongoDB
+ */
+public final class ServerOptions {
+
+  private boolean nativeCodecs;
+  private boolean passthroughLists;
+  private boolean memorySnapshots;
+
+  /**
+   * Read the options from environment variables.
+   *
+   * @param env the environment (normally `System.getenv()`)
+   * @return the options
+   */
+  public static ServerOptions fromEnvironment(Map<String, String> env) {
+    return new ServerOptions()
+      .nativeCodecs(NativeCodecs.isEnabled(env.get(NativeCodecs.SWITCH_ENV)))
+      .passthroughLists(Boolean.parseBoolean(env.get("JSON_PASSTHROUGH")))
+      .memorySnapshots(Boolean.parseBoolean(env.get("MEMORY_SNAPSHOTS")));
+  }
+
+  public boolean nativeCodecs() {
+    return nativeCodecs;
+  }
+
+  public ServerOptions nativeCodecs(boolean enabled) {
+    this.nativeCodecs = enabled;
+    return this;
+  }
+
+  public boolean passthroughLists() {
+    return passthroughLists;
+  }
+
+  public ServerOptions passthroughLists(boolean enabled) {
+    this.passthroughLists = enabled;
+    return this;
+  }
+
+  public boolean memorySnapshots() {
+    return memorySnapshots;
+  }
+
+  public ServerOptions memorySnapshots(boolean enabled) {
+    this.memorySnapshots = enabled;
+    return this;
+  }
+}
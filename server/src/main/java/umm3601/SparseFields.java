@@ -0,0 +1,85 @@
+package umm3601;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.mongodb.client.model.Projections;
+
+import org.bson.conversions.Bson;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * Turns a `fields` query parameter (e.g., `?fields=owner,status`) into a
+ * MongoDB projection, so that list requests only get back the fields they
+ * ask for.
+ *
+ * Because the projection is applied by the database, the fields that were
+ * left out are never sent to us or serialized by Jackson, which matters
+ * most for long text fields like a todo's `body`. `_id` is always included.
+ * Fields can be given as a comma-separated list, by repeating `fields`,
+ * or both.
+ */
+public final class SparseFields {
+
+  public static final String FIELDS_KEY = "fields";
+
+  private SparseFields() {
+  }
+
+  /**
+   * Build the projection for the fields the client asked for.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param allowed the fields a client is allowed to ask for
+   * @param alwaysIncluded fields we need ourselves (e.g., to build a page
+   *   cursor), which are included whether the client asked for them or not
+   * @return the projection, or `null` (meaning every field) if the
+   *   client didn't send a `fields` parameter
+   */
+  public static Bson projection(Context ctx, Set<String> allowed, String... alwaysIncluded) {
+    Set<String> fields = requested(ctx, allowed);
+    if (fields == null) {
+      return null;
+    }
+    fields.addAll(List.of(alwaysIncluded));
+    return Projections.include(List.copyOf(fields));
+  }
+
+  /**
+   * Get the fields the client asked for, for code that picks out the
+   * fields itself rather than having MongoDB do it.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param allowed the fields a client is allowed to ask for
+   * @return the fields, in the order they were asked for, or `null`
+   *   (meaning every field) if the client didn't send a `fields` parameter
+   */
+  public static Set<String> requested(Context ctx, Set<String> allowed) {
+    if (!ctx.queryParamMap().containsKey(FIELDS_KEY)) {
+      return null;
+    }
+
+    Set<String> fields = new LinkedHashSet<>();
+    for (String param : ctx.queryParams(FIELDS_KEY)) {
+      for (String field : param.split(",")) {
+        String trimmed = field.trim();
+        if (trimmed.isEmpty()) {
+          continue;
+        }
+        if (!allowed.contains(trimmed)) {
+          throw new BadRequestResponse("The field '" + trimmed + "' can't be requested; fields must be among "
+            + String.join(", ", new TreeSet<>(allowed)));
+        }
+        fields.add(trimmed);
+      }
+    }
+    if (fields.isEmpty()) {
+      throw new BadRequestResponse("The fields parameter must name at least one field");
+    }
+    return fields;
+  }
+}
@@ -0,0 +1,105 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The distinct values of a string field in an in-memory snapshot, each
+ * with a small `int` code, so that the snapshot can keep one `int` per
+ * document instead of a `String`, and so a `BitmapIndex` can be keyed
+ * on the codes.
+ *
+ * `null` is always `BitmapIndex.NO_VALUE`. Codes are handed out in the
+ * order values are first seen, and are never reused until `clear()`.
+ */
+public final class StringDictionary {
+
+  private final List<String> values = new ArrayList<>();
+  private final Map<String, Integer> codes = new HashMap<>();
+
+  /**
+   * Get the code for a value, giving it one if it's new.
+   *
+   * @param value the value (possibly `null`)
+   * @return its code
+   */
+  public int encode(String value) {
+    if (value == null) {
+      return BitmapIndex.NO_VALUE;
+    }
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = values.size();
+      values.add(value);
+      codes.put(value, code);
+    }
+    return code;
+  }
+
+  public String decode(int code) {
+    return code < 0 ? null : values.get(code);
+  }
+
+  /**
+   * @param value a value
+   * @return its code, or `BitmapIndex.NO_VALUE` if it hasn't been seen
+   */
+  public int codeOf(String value) {
+    return codes.getOrDefault(value, BitmapIndex.NO_VALUE);
+  }
+
+  public int size() {
+    return values.size();
+  }
+
+  public void clear() {
+    values.clear();
+    codes.clear();
+  }
+
+  /**
+   * Test every distinct value once.
+   *
+   * @param predicate the test
+   * @return whether each value passed, indexed by code
+   */
+  public boolean[] matching(Predicate<String> predicate) {
+    boolean[] matches = new boolean[values.size()];
+    for (int code = 0; code < matches.length; code++) {
+      matches[code] = predicate.test(values.get(code));
+    }
+    return matches;
+  }
+
+  /**
+   * Rank each code by its value's sort key, giving values with
+   * equal keys the same rank.
+   *
+   * @param sortKey what to sort each value by
+   * @return the rank of each value (from 0), indexed by code
+   */
+  public int[] ranks(UnaryOperator<String> sortKey) {
+    String[] keys = new String[values.size()];
+    Integer[] order = new Integer[values.size()];
+    for (int code = 0; code < keys.length; code++) {
+      keys[code] = sortKey.apply(values.get(code));
+      order[code] = code;
+    }
+    Arrays.sort(order, Comparator.comparing(code -> keys[code]));
+    int[] ranks = new int[keys.length];
+    int rank = 0;
+    for (int i = 0; i < order.length; i++) {
+      if (i > 0 && !keys[order[i]].equals(keys[order[i - 1]])) {
+        rank++;
+      }
+      ranks[order[i]] = rank;
+    }
+    return ranks;
+  }
+}
@@ -0,0 +1,12 @@
+package umm3601;
+
+/**
+ * One completion from a `PrefixTrie`: a value, and how many documents
+ * have it, as returned by the `.../suggest` endpoints.
+ */
+// As in `Todo`, these fields are public so that Jackson can get at them.
+@SuppressWarnings({"VisibilityModifier"})
+public class Suggestion {
+  public String value;
+  public long count;
+}
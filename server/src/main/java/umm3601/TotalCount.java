@@ -0,0 +1,85 @@
+package umm3601;
+
+import java.util.Map;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
+
+import org.bson.conversions.Bson;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Answers a list request with just the number of matching documents,
+ * for clients that want a total ("N todos match") without downloading
+ * the list itself.
+ *
+ * A client asks for a count in one of two ways:
+ *   - `?count=true`, which gets back `{"count": N}` (in whatever format
+ *     the `Accept` header asks for; see `ResponseFormat`)
+ *   - a `HEAD` request, which gets back no body at all
+ *
+ * Either way the count is also in the `X-Total-Count` header. Paging
+ * parameters (`limit`, `after`) are ignored, so the count is always the
+ * total across every page.
+ */
+public final class TotalCount {
+
+  public static final String COUNT_KEY = "count";
+  public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+  private TotalCount() {
+  }
+
+  /**
+   * Did the client ask for just the count, either with `?count=true`
+   * or with a `HEAD` request?
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if the response should only be the count
+   */
+  public static boolean isRequested(Context ctx) {
+    if (ctx.method() == HandlerType.HEAD) {
+      return true;
+    }
+    return ctx.queryParamMap().containsKey(COUNT_KEY) && "true".equalsIgnoreCase(ctx.queryParam(COUNT_KEY));
+  }
+
+  /**
+   * Count the documents in a collection that match a filter, without
+   * reading any of them.
+   *
+   * With no filter at all, this uses the collection's metadata
+   * (`estimatedDocumentCount()`) rather than scanning anything. Otherwise
+   * MongoDB counts the matches (`countDocuments()`), which it can do from
+   * an index alone when the filter is covered by one.
+   *
+   * @param collection the collection to count in
+   * @param filter the filter (an empty document for none)
+   * @param options the options for a filtered count (e.g., a time limit)
+   * @return the number of matching documents
+   */
+  public static long count(MongoCollection<?> collection, Bson filter, CountOptions options) {
+    if (filter.toBsonDocument().isEmpty()) {
+      return collection.estimatedDocumentCount();
+    }
+    return collection.countDocuments(filter, options);
+  }
+
+  /**
+   * Send the count: in the `X-Total-Count` header, and also in the body
+   * unless this is a `HEAD` request.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param count the number of matching documents
+   */
+  public static void respond(Context ctx, long count) {
+    ctx.header(TOTAL_COUNT_HEADER, Long.toString(count));
+    if (ctx.method() != HandlerType.HEAD) {
+      ResponseFormat.respond(ctx, Map.of(COUNT_KEY, count));
+    }
+    ctx.status(HttpStatus.OK);
+  }
+}
@@ -0,0 +1,124 @@
+package umm3601.todo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides whether a user-supplied regular expression is cheap enough
+ * to hand to MongoDB.
+ *
+ * MongoDB's regex engine backtracks, so a short pattern like `(a+)+$`
+ * can take exponential time on the wrong input and tie up a database
+ * core for every other request. Rather than trying to predict exactly
+ * how long a pattern will run, we only accept a small, easy-to-check
+ * subset of patterns:
+ *   - no longer than `MAX_LENGTH` characters, with no more than
+ *     `MAX_QUANTIFIERS` repetition operators
+ *   - no backreferences or lookaround
+ *   - no repeated group that itself contains repetition or alternation
+ *     (the `(a+)+` and `(a|aa)*` shapes behind most catastrophic
+ *     backtracking)
+ *
+ * Anything that gets past this is also run with a `maxTime` limit in
+ * `TodoController`, so a pattern we misjudge still can't run forever.
+ */
+final class PatternBudget {
+
+  static final int MAX_LENGTH = 64;
+  static final int MAX_QUANTIFIERS = 8;
+
+  private PatternBudget() {
+  }
+
+  /**
+   * Check whether a regex fits within our budget.
+   *
+   * @param pattern the regex the client sent
+   * @return true if the pattern is safe to send to MongoDB
+   */
+  static boolean isWithinBudget(String pattern) {
+    if (pattern.isEmpty() || pattern.length() > MAX_LENGTH) {
+      return false;
+    }
+    try {
+      Pattern.compile(pattern);
+    } catch (PatternSyntaxException e) {
+      return false;
+    }
+
+    // For each group we're currently inside of, whether it contains
+    // repetition or alternation (and so must not be repeated itself).
+    Deque<Boolean> groups = new ArrayDeque<>();
+    int quantifiers = 0;
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '\\') {
+        // Backreferences (`\1`, `\k<name>`) can't be matched efficiently.
+        char next = i + 1 < pattern.length() ? pattern.charAt(i + 1) : ' ';
+        if ((Character.isDigit(next) && next != '0') || next == 'k') {
+          return false;
+        }
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        i = skipCharacterClass(pattern, i);
+        continue;
+      }
+      if (c == '(') {
+        if (pattern.startsWith("(?=", i) || pattern.startsWith("(?!", i)
+            || pattern.startsWith("(?<=", i) || pattern.startsWith("(?<!", i)) {
+          return false;
+        }
+        groups.push(false);
+      } else if (c == ')') {
+        boolean risky = !groups.isEmpty() && groups.pop();
+        if (risky && i + 1 < pattern.length() && isQuantifier(pattern.charAt(i + 1))) {
+          return false;
+        }
+        if (risky && !groups.isEmpty()) {
+          groups.pop();
+          groups.push(true);
+        }
+      } else if (c == '|' || (isQuantifier(c) && !isGroupFlag(pattern, i))) {
+        if (c != '|') {
+          quantifiers++;
+        }
+        if (!groups.isEmpty()) {
+          groups.pop();
+          groups.push(true);
+        }
+      }
+      i++;
+    }
+    return quantifiers <= MAX_QUANTIFIERS;
+  }
+
+  private static boolean isQuantifier(char c) {
+    return c == '*' || c == '+' || c == '?' || c == '{';
+  }
+
+  // The `?` in `(?:`, `(?i)`, etc. marks a special group, not repetition.
+  private static boolean isGroupFlag(String pattern, int i) {
+    return pattern.charAt(i) == '?' && i > 0 && pattern.charAt(i - 1) == '(';
+  }
+
+  // Return the index just past the `]` that closes the class starting at `start`.
+  private static int skipCharacterClass(String pattern, int start) {
+    int i = start + 1;
+    if (i < pattern.length() && pattern.charAt(i) == '^') {
+      i++;
+    }
+    // A `]` right at the start of a class is a literal `]`.
+    if (i < pattern.length() && pattern.charAt(i) == ']') {
+      i++;
+    }
+    while (i < pattern.length() && pattern.charAt(i) != ']') {
+      i += pattern.charAt(i) == '\\' ? 2 : 1;
+    }
+    return i + 1;
+  }
+}
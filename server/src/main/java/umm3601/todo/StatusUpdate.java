@@ -0,0 +1,17 @@
+package umm3601.todo;
+
+import java.util.List;
+
+/**
+ * The body of a `PATCH /api/todos/status` request: the status to set, and
+ * which todos to set it on. The todos can be picked out by `ids`, or by
+ * `owner` and/or `category` (matched exactly, ignoring case for owners).
+ */
+// As in `Todo`, these fields are public so that Jackson can fill them in.
+@SuppressWarnings({"VisibilityModifier"})
+public class StatusUpdate {
+  public List<String> ids;
+  public String owner;
+  public String category;
+  public Boolean status;
+}
@@ -1,5 +1,9 @@
 package umm3601.todo;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import org.mongojack.Id;
 import org.mongojack.ObjectId;
 
@@ -18,7 +22,16 @@ import org.mongojack.ObjectId;
 // (https://checkstyle.sourceforge.io/config_design.html#VisibilityModifier)
 // check in CheckStyle so that we don't get a failed
 // build when Gradle runs CheckStyle.
+//
+// The database also holds some fields that are only there to make queries
+// faster (like `ownerLower`), so we tell Jackson to skip over any fields
+// that aren't in this class when it reads a todo.
+//
+// A client can ask for only some fields (with `?fields=`), so the fields
+// that weren't read are `null` and are left out of the JSON.
 @SuppressWarnings({"VisibilityModifier"})
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Todo {
   // By default Java field names shouldn't start with underscores.
   // Here, though, we *have* to use the name `_id` to match the
@@ -28,10 +41,25 @@ public class Todo {
   public String _id;
 
   public String owner;
-  public boolean status;
+  public Boolean status;
   public String body;
   public String category;
 
+  // How well this todo matched a search of todo bodies (higher is better).
+  // It's only filled in for search results, and is left out of the JSON
+  // (and the database) the rest of the time.
+  public Double score;
+
+  // The fields the database keeps to speed up queries (see
+  // `TodoController.ensureDerivedFields()`). They're only read when a page
+  // cursor needs one and the client didn't ask for the field it comes from,
+  // so a page sorted by `body` needn't fetch every body just for the cursor.
+  // They're never written out to clients.
+  @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+  public String ownerLower;
+  @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+  public Integer bodyLength;
+
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof Todo)) {
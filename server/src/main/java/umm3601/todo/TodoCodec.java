@@ -0,0 +1,116 @@
+package umm3601.todo;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+/**
+ * Reads and writes `Todo`s straight from and to BSON, without going
+ * through Jackson (as `JacksonMongoCollection` does).
+ *
+ * This is used instead of MongoJack when the server is started with
+ * `MONGO_CODECS=native` (see `Server`). It reads exactly the fields
+ * in `Todo`, skipping any others (like `ownerLower`), and writes those
+ * plus the extra fields `TodoController` keeps for its queries, leaving
+ * out `null` fields.
+ */
+public class TodoCodec implements CollectibleCodec<Todo> {
+
+  @Override
+  public Todo decode(BsonReader reader, DecoderContext decoderContext) {
+    Todo todo = new Todo();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      if (reader.getCurrentBsonType() == BsonType.NULL) {
+        reader.readNull();
+        continue;
+      }
+      switch (name) {
+        case "_id":
+          todo._id = reader.readObjectId().toHexString();
+          break;
+        case TodoController.OWNER_KEY:
+          todo.owner = reader.readString();
+          break;
+        case TodoController.STATUS_KEY:
+          todo.status = reader.readBoolean();
+          break;
+        case TodoController.BODY_KEY:
+          todo.body = reader.readString();
+          break;
+        case TodoController.CATEGORY_KEY:
+          todo.category = reader.readString();
+          break;
+        case TodoController.SCORE_KEY:
+          todo.score = reader.readDouble();
+          break;
+        case TodoController.OWNER_LOWER_KEY:
+          todo.ownerLower = reader.readString();
+          break;
+        case TodoController.BODY_LENGTH_KEY:
+          todo.bodyLength = reader.readInt32();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return todo;
+  }
+
+  @Override
+  public void encode(BsonWriter writer, Todo todo, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    if (todo._id != null) {
+      writer.writeObjectId("_id", new ObjectId(todo._id));
+    }
+    writeString(writer, TodoController.OWNER_KEY, todo.owner);
+    if (todo.status != null) {
+      writer.writeBoolean(TodoController.STATUS_KEY, todo.status);
+    }
+    writeString(writer, TodoController.BODY_KEY, todo.body);
+    writeString(writer, TodoController.CATEGORY_KEY, todo.category);
+    // The fields that only exist to speed up queries (see `TodoController.newTodoDocument()`)
+    if (todo.owner != null) {
+      writer.writeString(TodoController.OWNER_LOWER_KEY, TodoController.normalizeOwner(todo.owner));
+    }
+    writer.writeInt32(TodoController.BODY_LENGTH_KEY, TodoController.bodyLength(todo.body));
+    writer.writeEndDocument();
+  }
+
+  private static void writeString(BsonWriter writer, String name, String value) {
+    if (value != null) {
+      writer.writeString(name, value);
+    }
+  }
+
+  @Override
+  public Class<Todo> getEncoderClass() {
+    return Todo.class;
+  }
+
+  @Override
+  public Todo generateIdIfAbsentFromDocument(Todo todo) {
+    if (todo._id == null) {
+      todo._id = new ObjectId().toHexString();
+    }
+    return todo;
+  }
+
+  @Override
+  public boolean documentHasId(Todo todo) {
+    return todo._id != null;
+  }
+
+  @Override
+  public BsonValue getDocumentId(Todo todo) {
+    return new BsonObjectId(new ObjectId(todo._id));
+  }
+}
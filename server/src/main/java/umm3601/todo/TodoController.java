@@ -2,24 +2,52 @@ package umm3601.todo;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.or;
 import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Filters.text;
+import static com.mongodb.client.model.Updates.set;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-//import java.util.Map;
-//import java.util.Objects;
-//import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 //import javax.lang.model.util.ElementScanner14;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
-/*import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;*/
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.result.UpdateResult;
+//import com.mongodb.client.result.DeleteResult;
 
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
@@ -29,6 +57,17 @@ import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BulkReport;
+import umm3601.CachedValue;
+import umm3601.CollectionVersion;
+import umm3601.JsonStreamer;
+import umm3601.KeysetCursor;
+import umm3601.LruCache;
+import umm3601.PrefixTrie;
+import umm3601.ResponseFormat;
+import umm3601.ServerOptions;
+import umm3601.SparseFields;
+import umm3601.TotalCount;
 
 /**
  * Controller that manages requests for info about todos.
@@ -37,45 +76,332 @@ public class TodoController {
 
   static final String OWNER_KEY = "owner";
   static final String STATUS_KEY = "status";
+  // The `statuses` key in the summary for todos that have no status at all
+  static final String NO_STATUS = "none";
+  static final String OWNER_MATCH_KEY = "ownerMatch";
+  static final String BODY_KEY = "body";
+  static final String CATEGORY_KEY = "category";
+  static final String ORDER_BY_KEY = "orderBy";
+  static final String SORT_ORDER_KEY = "sortOrder";
+  static final String LIMIT_KEY = "limit";
+  static final String AFTER_KEY = "after";
 
-  private final JacksonMongoCollection<Todo> todoCollection;
+  // The response header that carries the cursor for the next page of todos.
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  // The largest page of todos we'll hand back in a single response, no
+  // matter what `limit` the client asks for.
+  static final int MAX_PAGE_SIZE = 1000;
+
+  // A lowercased copy of `owner` that we keep in the database (but not in
+  // the `Todo` class) so that case-insensitive owner lookups can use an
+  // ordinary index instead of scanning the whole collection.
+  static final String OWNER_LOWER_KEY = "ownerLower";
+
+  // Likewise, the length of `body` (in Unicode code points) is kept in the
+  // database so that sorting by body length can be done from an index.
+  static final String BODY_LENGTH_KEY = "bodyLength";
+
+  // The values `orderBy` may take, and the field in the database that each one
+  // sorts on. Only these are allowed, since each of them has indexes (built
+  // in `ensureIndexes()`) that let MongoDB return the todos already in order
+  // instead of sorting them in memory.
+  static final Map<String, String> SORT_FIELDS = Map.of(
+    OWNER_KEY, OWNER_LOWER_KEY,
+    CATEGORY_KEY, CATEGORY_KEY,
+    STATUS_KEY, STATUS_KEY,
+    BODY_KEY, BODY_LENGTH_KEY);
+
+  // Owner suggestions (see `suggestOwners()`) complete the `prefix` query
+  // parameter, and there are `limit` of them (at most `MAX_SUGGESTIONS`).
+  static final String PREFIX_KEY = "prefix";
+  static final int DEFAULT_SUGGESTIONS = 10;
+  static final int MAX_SUGGESTIONS = 100;
+
+  // The fields a client can ask for with `?fields=` (see `SparseFields`).
+  static final Set<String> TODO_FIELDS = Set.of(OWNER_KEY, STATUS_KEY, BODY_KEY, CATEGORY_KEY);
+
+  // The name of the relevance score MongoDB computes for each todo that
+  // matches a `body` search (see `Todo.score`).
+  static final String SCORE_KEY = "score";
+
+  // The ways the `owner` filter can be matched, selected with `ownerMatch`.
+  // `exact` and `prefix` are served from the `ownerLower` index; `contains`
+  // has to look at every todo, so it has to be asked for explicitly. All
+  // three match the owner literally. `pattern` treats the owner as a regex,
+  // which is only accepted if it fits within `PatternBudget`.
+  static final String MATCH_EXACT = "exact";
+  static final String MATCH_PREFIX = "prefix";
+  static final String MATCH_CONTAINS = "contains";
+  static final String MATCH_PATTERN = "pattern";
+  private static final String MATCH_REGEX = "^(exact|prefix|contains|pattern)$";
+
+  // How long MongoDB may spend on any one todo query before giving up. This
+  // keeps a single expensive request (e.g., a slow `pattern` or `contains`
+  // match) from tying up the database for everyone else.
+  static final long MAX_QUERY_TIME_MS = 2000;
+
+  // How long a computed todo summary is reused before we recount. Writes
+  // to todos throw the cached summary away straight away.
+  static final long SUMMARY_TTL_SECONDS = 10;
+
+  // Single todos looked up by id are kept in a bounded cache. Updates go
+  // through this controller and invalidate what they change, so the TTL
+  // is only a backstop for changes made to the database some other way.
+  static final int TODO_CACHE_SIZE = 10000;
+  static final long TODO_CACHE_TTL_SECONDS = 60;
+
+  // Bulk inserts are sent to MongoDB in batches of this many todos, unless
+  // the request asks for a different `batchSize` (up to `MAX_BATCH_SIZE`).
+  static final String BATCH_SIZE_KEY = "batchSize";
+  static final int DEFAULT_BATCH_SIZE = 1000;
+  static final int MAX_BATCH_SIZE = 10000;
+
+  // Reads the todos in a bulk request one at a time, as generic JSON trees,
+  // so that one bad todo can be reported without rejecting all the others.
+  private static final ObjectReader JSON_TREE_READER = new ObjectMapper().readerFor(JsonNode.class);
+
+  private final MongoCollection<Todo> todoCollection;
+  private final MongoCollection<Document> todoDocuments;
+  private final MongoCollection<RawBsonDocument> rawTodos;
+
+  // If true, plain (JSON) lists of todos are always copied straight from
+  // BSON to the response, as streamed lists are; see `getTodos()`.
+  private final boolean passthroughLists;
+
+  // An in-memory copy of the todos that answers filter queries, or `null`
+  // if the server wasn't asked to keep one (see `TodoSnapshot`).
+  private final TodoSnapshot snapshot;
+
+  // Every owner (matched the same way as `ownerLower`) and how many todos
+  // they have, for `suggestOwners()`.
+  private final PrefixTrie ownerTrie = new PrefixTrie(TodoController::normalizeOwner);
+
+  private final CachedValue<TodoSummary> summaryCache = new CachedValue<>(SUMMARY_TTL_SECONDS, TimeUnit.SECONDS);
+  private final LruCache<ObjectId, Todo> todoCache =
+    new LruCache<>(TODO_CACHE_SIZE, TODO_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+
+  // Bumped by `todosChanged()`; our ETags are made from it (see `CollectionVersion`).
+  private final CollectionVersion todoVersion = new CollectionVersion();
 
   /**
-   * Construct a controller for todos.
+   * Construct a controller for todos that reads and writes them through MongoJack.
    *
    * @param database the database containing todo data
    */
   public TodoController(MongoDatabase database) {
-    todoCollection = JacksonMongoCollection.builder().build(
-        database,
-        "todos",
-        Todo.class,
-        UuidRepresentation.STANDARD);
+    this(database, new ServerOptions());
+  }
+
+  /**
+   * Construct a controller for todos.
+   *
+   * @param database the database containing todo data (if `options` asks for
+   *   native codecs, `TodoCodec` must be in its codec registry; see `NativeCodecs`)
+   * @param options which of the optional ways of reading and sending todos to use
+   */
+  public TodoController(MongoDatabase database, ServerOptions options) {
+    this.passthroughLists = options.passthroughLists();
+    if (options.nativeCodecs()) {
+      todoCollection = database.getCollection("todos", Todo.class);
+    } else {
+      todoCollection = JacksonMongoCollection.builder().build(
+          database,
+          "todos",
+          Todo.class,
+          UuidRepresentation.STANDARD);
+    }
+    todoDocuments = database.getCollection("todos");
+    rawTodos = todoDocuments.withDocumentClass(RawBsonDocument.class);
+
+    ensureDerivedFields();
+    ensureIndexes();
+    loadOwners();
+
+    if (options.memorySnapshots()) {
+      snapshot = new TodoSnapshot();
+      snapshot.load(todoDocuments);
+    } else {
+      snapshot = null;
+    }
+  }
+
+  /**
+   * Make sure every todo has the extra fields we keep just to speed up queries
+   * (`ownerLower` and `bodyLength`).
+   *
+   * This is run once when the server starts. Todos that were put in the database
+   * some other way (e.g., by `mongoseed`) won't have these yet, so we fill them
+   * in, all in a single update on the database side.
+   */
+  private void ensureDerivedFields() {
+    todoDocuments.updateMany(
+      or(exists(OWNER_LOWER_KEY, false), exists(BODY_LENGTH_KEY, false)),
+      List.of(
+        set(OWNER_LOWER_KEY, new Document("$toLower", "$" + OWNER_KEY)),
+        set(BODY_LENGTH_KEY,
+          new Document("$strLenCP", new Document("$ifNull", List.of("$" + BODY_KEY, ""))))));
+  }
+
+  /**
+   * Fill in `ownerTrie` with every owner and how many todos they have,
+   * counted by MongoDB (with `$group`) so no todos are sent to us.
+   */
+  private void loadOwners() {
+    List<Bson> pipeline = List.of(Aggregates.group("$" + OWNER_KEY, Accumulators.sum("count", 1)));
+    for (Document group : todoDocuments.aggregate(pipeline)) {
+      if (group.get("_id") instanceof String) {
+        ownerTrie.add(group.getString("_id"), group.get("count", Number.class).longValue());
+      }
+    }
+  }
+
+  /**
+   * Create the indexes that our queries rely on. Creating an index that
+   * already exists does nothing, so this is cheap after the first time.
+   *
+   * Besides the text index (for body searches), each field in `SORT_FIELDS`
+   * gets an index both on its own and after `status`, since "complete/incomplete
+   * todos sorted by X" is the most common combination. `_id` is on the end of
+   * each so that it can break ties, which keeps the order stable for paging.
+   * The one that starts with `ownerLower` also serves owner filters, so the
+   * index on `ownerLower` alone that older versions built is dropped; every
+   * write would otherwise pay to keep up an index that's never the better choice.
+   */
+  private void ensureIndexes() {
+    for (Document index : todoDocuments.listIndexes()) {
+      if (new Document(OWNER_LOWER_KEY, 1).equals(index.get("key", Document.class))) {
+        todoDocuments.dropIndex(index.getString("name"));
+      }
+    }
+    todoDocuments.createIndex(Indexes.text(BODY_KEY));
+    for (String sortField : SORT_FIELDS.values()) {
+      todoDocuments.createIndex(Indexes.ascending(sortField, "_id"));
+      if (!sortField.equals(STATUS_KEY)) {
+        todoDocuments.createIndex(Indexes.ascending(STATUS_KEY, sortField, "_id"));
+      }
+    }
   }
 
   /**
    * Set the JSON body of the response to be the single todo
    * specified by the `id` parameter in the request
    *
+   * Todos are looked up through `todoCache`, so repeatedly asking for
+   * the same (popular) todo only goes to the database once.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getTodo(Context ctx) {
     String id = ctx.pathParam("id");
     Todo todo;
 
+    if (todoVersion.notModified(ctx)) {
+      return;
+    }
     try {
-      todo = todoCollection.find(eq("_id", new ObjectId(id))).first();
+      todo = todoCache.get(new ObjectId(id), key -> todoCollection.find(eq("_id", key)).first());
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested todo id wasn't a legal Mongo Object ID.");
     }
     if (todo == null) {
       throw new NotFoundResponse("The requested todo was not found");
     } else {
-      ctx.json(todo);
+      ResponseFormat.respond(ctx, todo);
       ctx.status(HttpStatus.OK);
     }
   }
 
+  /**
+   * Set the JSON body of the response to be a summary of the todos: how many
+   * there are in total, and how many there are for each owner, category, and status.
+   *
+   * The counting is done by MongoDB (with `$group`), so none of the todos
+   * themselves are sent to us. The result is cached for a few seconds, so a
+   * dashboard that refreshes often doesn't recount the whole collection each time.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoSummary(Context ctx) {
+    if (todoVersion.notModified(ctx)) {
+      return;
+    }
+    ResponseFormat.respond(ctx, summaryCache.get(this::computeSummary));
+    ctx.status(HttpStatus.OK);
+  }
+
+  private TodoSummary computeSummary() {
+    TodoSummary summary = new TodoSummary();
+    summary.owners = countBy(OWNER_KEY);
+    summary.categories = countBy(CATEGORY_KEY);
+
+    Map<String, Long> statuses = new LinkedHashMap<>();
+    statuses.put("complete", 0L);
+    statuses.put("incomplete", 0L);
+    for (Map.Entry<String, Long> count : countBy(STATUS_KEY).entrySet()) {
+      // Only an explicit `false` is "incomplete", as it is for the `status`
+      // filter; todos with no status (or a null one) are counted separately.
+      String status;
+      switch (count.getKey()) {
+        case "true":
+          status = "complete";
+          break;
+        case "false":
+          status = "incomplete";
+          break;
+        default:
+          status = NO_STATUS;
+          break;
+      }
+      statuses.merge(status, count.getValue(), Long::sum);
+      summary.total += count.getValue();
+    }
+    summary.statuses = statuses;
+    return summary;
+  }
+
+  /**
+   * Count the todos for each distinct value of a field.
+   *
+   * @param field the field to group the todos by
+   * @return a map from each value of the field (as a string) to the number
+   *   of todos with that value, in order of value
+   */
+  private Map<String, Long> countBy(String field) {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    List<Bson> pipeline = List.of(
+      Aggregates.group("$" + field, Accumulators.sum("count", 1)),
+      Aggregates.sort(Sorts.ascending("_id")));
+    for (Document group : todoDocuments.aggregate(pipeline).maxTime(MAX_QUERY_TIME_MS, TimeUnit.MILLISECONDS)) {
+      counts.put(String.valueOf(group.get("_id")), group.get("count", Number.class).longValue());
+    }
+    return counts;
+  }
+
+  /**
+   * Set the JSON body of the response to be the owners that start with the
+   * `prefix` query parameter (ignoring case, as the `owner` filter does),
+   * each with how many todos they have, most todos first.
+   *
+   * These come from `ownerTrie`, which is kept in memory and updated as
+   * todos are added, so a typeahead can ask on every keystroke without
+   * any of them reaching the database.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void suggestOwners(Context ctx) {
+    String prefix = Objects.requireNonNullElse(ctx.queryParam(PREFIX_KEY), "");
+    int limit = DEFAULT_SUGGESTIONS;
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      limit = ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+        .check(it -> it > 0, "The limit must be greater than zero")
+        .check(it -> it <= MAX_SUGGESTIONS, "The limit must be at most " + MAX_SUGGESTIONS)
+        .get();
+    }
+    ResponseFormat.respond(ctx, ownerTrie.complete(prefix, limit));
+    ctx.status(HttpStatus.OK);
+  }
+
   /**
    * Set the JSON body of the response to be a list of all the todos returned from the database
    * that match any requested filters and ordering
@@ -83,15 +409,61 @@ public class TodoController {
    * @param ctx a Javalin HTTP context
    */
   public void getTodos(Context ctx) {
-    Bson combinedFilter = constructFilter(ctx);
+    TodoFilter filter = parseFilter(ctx);
+    Bson combinedFilter = constructFilter(filter);
     Bson sortingOrder = constructSortingOrder(ctx);
+    Bson projection = SparseFields.projection(ctx, TODO_FIELDS);
+
+    // If the client already has the current version of this list, that's
+    // all we need to tell them; there's no need to ask the database.
+    if (todoVersion.notModified(ctx)) {
+      return;
+    }
+
+    // If the client only wants to know how many todos match (e.g., for
+    // "N todos match" or a page count), we count them without reading any.
+    if (TotalCount.isRequested(ctx)) {
+      TotalCount.respond(ctx, countTodos(ctx, filter, combinedFilter));
+      return;
+    }
+
+    // Searching todo bodies gives relevance-ranked pages, so it's handled separately.
+    if (ctx.queryParamMap().containsKey(BODY_KEY)) {
+      searchTodos(ctx, combinedFilter);
+      return;
+    }
+
+    // If we're keeping the todos in memory, we can answer from there
+    // without asking the database at all. Later pages (with an `after`
+    // cursor) are still fetched from the database, which can seek
+    // straight to them, as are owner patterns (see `TodoSnapshot.canMatch()`).
+    if (snapshot != null && TodoSnapshot.canMatch(filter)
+        && !JsonStreamer.isRequested(ctx) && !ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      getTodosFromSnapshot(ctx, filter);
+      return;
+    }
+
+    // If the client asked for a `limit` or handed us an `after` cursor then
+    // they want a single page of todos rather than the whole lot.
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY) || ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      getTodosPage(ctx, combinedFilter);
+      return;
+    }
+
+    // If the client asked for a streamed response, write the todos out as
+    // the database hands them to us instead of building up a list first.
+    // These are copied straight from BSON to JSON without making `Todo`s,
+    // which we also do for every JSON list if `passthroughLists` is set.
+    if (JsonStreamer.isRequested(ctx) || (passthroughLists && ResponseFormat.wantsJson(ctx))) {
+      JsonStreamer.stream(ctx, findRawTodos(combinedFilter, projection).sort(sortingOrder));
+      return;
+    }
 
     // All three of the find, sort, and into steps happen "in parallel" inside the
     // database system. So MongoDB is going to find the todos with the specified
     // properties, return those sorted in the specified manner, and put the
     // results into an initially empty ArrayList.
-    ArrayList<Todo> matchingTodos = todoCollection
-      .find(combinedFilter)
+    ArrayList<Todo> matchingTodos = findTodos(combinedFilter, projection)
       .sort(sortingOrder)
       // .into seems to be telling Mongo how it will format the data returned (as an
       // ArrayList<>)
@@ -100,21 +472,304 @@ public class TodoController {
     // Set the JSON body of the response to be the list of todos returned by the database.
     // According to the Javalin documentation (https://javalin.io/documentation#context),
     // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingTodos);
+    ResponseFormat.respond(ctx, matchingTodos);
 
     // Explicitly set the context status to OK
     ctx.status(HttpStatus.OK);
   }
 
-  private Bson constructFilter(Context ctx) {
-    List<Bson> filters = new ArrayList<>(); // start with a blank document
+  /**
+   * Set the JSON body of the response to be a single page of the todos that match
+   * the requested filters, and set the `X-Next-Cursor` header if there are more.
+   *
+   * Pages are sorted by `_id` and each new page is fetched with a range query
+   * starting just after the last `_id` of the previous page (that's what the
+   * `after` cursor holds). Unlike `skip()`, this lets MongoDB seek straight to
+   * the start of the page in the `_id` index, so page N is as cheap as page 1.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param combinedFilter the filter built from the request's query parameters
+   */
+  private void getTodosPage(Context ctx, Bson combinedFilter) {
+    int limit = pageSize(ctx);
+    String sortField = sortField(ctx);
+    boolean descending = sortDescending(ctx);
+
+    // The cursor is built from the last todo's sort field, so we need it
+    // even if the client didn't ask for it. That's the field as it's stored
+    // for sorting (e.g., `bodyLength` rather than the whole `body`), and
+    // it's taken back out before the page is sent (see `dropSortField()`).
+    Set<String> fields = SparseFields.requested(ctx, TODO_FIELDS);
+    Bson projection = sortField == null
+      ? SparseFields.projection(ctx, TODO_FIELDS)
+      : SparseFields.projection(ctx, TODO_FIELDS, sortField);
+
+    Bson pageFilter = combinedFilter;
+    KeysetCursor after = afterCursor(ctx);
+    if (after != null) {
+      pageFilter = and(combinedFilter, after.seekFilter(sortField, descending));
+    }
+
+    // Ask for one more todo than we need; if it shows up we know there's
+    // at least one more page and can hand out a cursor for it.
+    ArrayList<Todo> page = findTodos(pageFilter, projection)
+      .sort(sortingOrder(sortField, descending))
+      .limit(limit + 1)
+      .into(new ArrayList<>());
+
+    setNextCursor(ctx, page, limit, sortField);
+    dropSortField(page, fields, sortField);
+    ResponseFormat.respond(ctx, page);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Clear the sort field from a page of todos if it was only there to build
+   * the cursor, so clients only get the fields they asked for. (`ownerLower`
+   * and `bodyLength` are never sent, so only `status` and `category`, which
+   * are stored and sorted as they are, need clearing.)
+   *
+   * @param page the page
+   * @param fields the fields the client asked for, or `null` for all of them
+   * @param sortField the database field the page is sorted on, or `null` for `_id` alone
+   */
+  private static void dropSortField(List<Todo> page, Set<String> fields, String sortField) {
+    if (fields == null || sortField == null || fields.contains(sortField)) {
+      return;
+    }
+    for (Todo todo : page) {
+      if (sortField.equals(STATUS_KEY)) {
+        todo.status = null;
+      } else if (sortField.equals(CATEGORY_KEY)) {
+        todo.category = null;
+      }
+    }
+  }
+
+  /**
+   * If we fetched one more todo than the page holds, drop it and hand the
+   * client a cursor for the next page (see `getTodosPage()`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param page the page, with up to `limit + 1` todos in it
+   * @param limit the page size
+   * @param sortField the database field the page is sorted on, or `null` for `_id` alone
+   */
+  private void setNextCursor(Context ctx, List<Todo> page, int limit, String sortField) {
+    if (page.size() > limit) {
+      page.remove(limit);
+      Todo last = page.get(limit - 1);
+      Object lastValue = sortField == null ? null : sortValue(last, sortField);
+      ctx.header(NEXT_CURSOR_HEADER, new KeysetCursor(lastValue, new ObjectId(last._id)).encode());
+    }
+  }
+
+  /**
+   * Set the body of the response to be the todos that match the requested
+   * filters, answered from `snapshot`. If there's a `limit`, this is the
+   * first page, exactly as `getTodosPage()` would have it, and it's picked
+   * out with a bounded heap rather than by sorting every match.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param filter the filters from the request's query parameters
+   */
+  private void getTodosFromSnapshot(Context ctx, TodoFilter filter) {
+    String sortField = sortField(ctx);
+    boolean descending = sortDescending(ctx);
+    Set<String> fields = SparseFields.requested(ctx, TODO_FIELDS);
+
+    if (!ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      ResponseFormat.respond(ctx, snapshot.find(filter, sortField, descending, fields, 0));
+      ctx.status(HttpStatus.OK);
+      return;
+    }
+
+    int limit = pageSize(ctx);
+    // As in `getTodosPage()`, the cursor needs the sort field, as it's stored for sorting.
+    Set<String> withSortField = fields;
+    if (fields != null && sortField != null) {
+      withSortField = new HashSet<>(fields);
+      withSortField.add(sortField);
+    }
+    List<Todo> page = snapshot.find(
+      filter, sortField == null ? TodoSnapshot.ID_KEY : sortField, descending, withSortField, limit + 1);
+    setNextCursor(ctx, page, limit, sortField);
+    dropSortField(page, fields, sortField);
+    ResponseFormat.respond(ctx, page);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to be a single page of the todos whose
+   * bodies match the words in the `body` query parameter, most relevant first.
+   *
+   * This uses the text index on `body`, so MongoDB only ever looks at todos
+   * that contain at least one of the search words, and the cost of a search
+   * grows with the number of matches rather than the size of the collection.
+   * Each todo comes back with its relevance `score`, and pages are split up
+   * with the same sort of `after` cursor as `getTodosPage()`, only keyed on
+   * the score (and then `_id`) instead of just `_id`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param combinedFilter the filter built from the request's other query parameters
+   */
+  private void searchTodos(Context ctx, Bson combinedFilter) {
+    String search = searchWords(ctx);
+    int limit = pageSize(ctx);
+    KeysetCursor after = afterCursor(ctx);
+
+    // `$text` has to be in the first stage, and the score is only available
+    // after that, so the cursor gets its own `$match` once the score is added.
+    List<Bson> pipeline = new ArrayList<>();
+    pipeline.add(Aggregates.match(and(text(search), combinedFilter)));
+    pipeline.add(Aggregates.addFields(new Field<>(SCORE_KEY, new Document("$meta", "textScore"))));
+    pipeline.add(Aggregates.sort(Sorts.descending(SCORE_KEY, "_id")));
+    if (after != null) {
+      pipeline.add(Aggregates.match(after.seekFilter(SCORE_KEY, true)));
+    }
+    pipeline.add(Aggregates.limit(limit + 1));
+    Bson projection = SparseFields.projection(ctx, TODO_FIELDS, SCORE_KEY);
+    if (projection != null) {
+      pipeline.add(Aggregates.project(projection));
+    }
+
+    ArrayList<Todo> page = todoCollection
+      .aggregate(pipeline)
+      .maxTime(MAX_QUERY_TIME_MS, TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>());
+
+    if (page.size() > limit) {
+      page.remove(limit);
+      Todo last = page.get(limit - 1);
+      ctx.header(NEXT_CURSOR_HEADER, new KeysetCursor(last.score, new ObjectId(last._id)).encode());
+    }
+
+    ResponseFormat.respond(ctx, page);
+    ctx.status(HttpStatus.OK);
+  }
+
+  private String searchWords(Context ctx) {
+    return ctx.queryParamAsClass(BODY_KEY, String.class)
+      .check(it -> it.trim().length() > 0, "The body search must have some words in it")
+      .get();
+  }
+
+  /**
+   * Count the todos that match a request's filters (and body search, if
+   * there is one), across every page.
+   *
+   * The snapshot (if we have one, and it can match the filters) can count
+   * the matches with its bitmaps; otherwise MongoDB counts them, from the
+   * indexes where it can.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param filter the filters from the request
+   * @param combinedFilter the MongoDB query built from `filter`
+   * @return the number of matching todos
+   */
+  private long countTodos(Context ctx, TodoFilter filter, Bson combinedFilter) {
+    CountOptions options = new CountOptions().maxTime(MAX_QUERY_TIME_MS, TimeUnit.MILLISECONDS);
+    if (ctx.queryParamMap().containsKey(BODY_KEY)) {
+      return todoDocuments.countDocuments(and(text(searchWords(ctx)), combinedFilter), options);
+    }
+    if (snapshot != null && TodoSnapshot.canMatch(filter)) {
+      return snapshot.count(filter);
+    }
+    return TotalCount.count(todoDocuments, combinedFilter, options);
+  }
+
+  /**
+   * Get the number of todos the client wants on each page, from the `limit`
+   * query parameter. If there isn't one we use the largest allowed page size.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the page size
+   */
+  private int pageSize(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      return MAX_PAGE_SIZE;
+    }
+    return ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+      .check(it -> it > 0, "The limit must be greater than zero")
+      .check(it -> it <= MAX_PAGE_SIZE, "The limit must be at most " + MAX_PAGE_SIZE)
+      .get();
+  }
+
+  /**
+   * Get the cursor from the `after` query parameter, if there is one.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the decoded cursor, or `null` if the client didn't send one
+   */
+  private KeysetCursor afterCursor(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      return null;
+    }
+    return KeysetCursor.decode(ctx.queryParam(AFTER_KEY));
+  }
+
+  /**
+   * Start a query for the todos matching a filter, limited to
+   * `MAX_QUERY_TIME_MS` of work on the database side.
+   *
+   * @param filter the filter to apply
+   * @param projection the fields to return (from `SparseFields`), or `null` for all of them
+   * @return the (not yet executed) query
+   */
+  private FindIterable<Todo> findTodos(Bson filter, Bson projection) {
+    return todoCollection
+      .find(filter)
+      .projection(projection)
+      .maxTime(MAX_QUERY_TIME_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Start a query for the todos matching a filter, as raw BSON, limited to
+   * `MAX_QUERY_TIME_MS` of work on the database side.
+   *
+   * Unlike `findTodos()`, nothing here leaves out the fields that `Todo`
+   * doesn't have, so unless the client picked their own fields, the ones
+   * we only keep for our queries are projected away.
+   *
+   * @param filter the filter to apply
+   * @param projection the fields to return (from `SparseFields`), or `null` for all of them
+   * @return the (not yet executed) query
+   */
+  private FindIterable<RawBsonDocument> findRawTodos(Bson filter, Bson projection) {
+    return rawTodos
+      .find(filter)
+      .projection(projection != null ? projection : Projections.exclude(OWNER_LOWER_KEY, BODY_LENGTH_KEY))
+      .maxTime(MAX_QUERY_TIME_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Read and check the filters (owner, status, and category) in a request.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the filters the request asked for
+   */
+  private TodoFilter parseFilter(Context ctx) {
+    String owner = null;
+    String ownerMatch = MATCH_PREFIX;
+    Boolean status = null;
+    List<String> categories = null;
 
     // Filter for the owner parameter
     if (ctx.queryParamMap().containsKey(OWNER_KEY)) {
-      String targetOwner = ctx.queryParamAsClass(OWNER_KEY, String.class)
+      owner = ctx.queryParamAsClass(OWNER_KEY, String.class)
         .check(it -> it.length() > 0, "Todo's owner must have some value")
         .get();
-      filters.add(regex(OWNER_KEY, targetOwner, "i"));
+      if (ctx.queryParamMap().containsKey(OWNER_MATCH_KEY)) {
+        ownerMatch = ctx.queryParamAsClass(OWNER_MATCH_KEY, String.class)
+          .check(it -> it.matches(MATCH_REGEX), "ownerMatch must be one of exact, prefix, contains, or pattern")
+          .get();
+      }
+      if (ownerMatch.equals(MATCH_PATTERN)) {
+        // The client really does want a regex; make sure it's one we can afford.
+        owner = ctx.queryParamAsClass(OWNER_KEY, String.class)
+          .check(PatternBudget::isWithinBudget, "Todo's owner pattern is too long or too complex")
+          .get();
+      }
     }
     // Filter for the status parameter
     if (ctx.queryParamMap().containsKey(STATUS_KEY)) {
@@ -122,12 +777,47 @@ public class TodoController {
         .check(it -> it.equalsIgnoreCase("complete")
         || it.equalsIgnoreCase("incomplete"), "Status parameter must be either complete or incomplete")
         .get();
-      if (targetStatus.equalsIgnoreCase("complete")) {
-        filters.add(eq(STATUS_KEY, true));
-      } else {
-        filters.add(eq(STATUS_KEY, false));
+      status = targetStatus.equalsIgnoreCase("complete");
+    }
+    // Filter for the category parameter. This can be given more than once, or as a
+    // comma-separated list, to get todos in any of several categories.
+    if (ctx.queryParamMap().containsKey(CATEGORY_KEY)) {
+      categories = new ArrayList<>();
+      for (String param : ctx.queryParams(CATEGORY_KEY)) {
+        for (String category : param.split(",")) {
+          if (category.trim().length() > 0) {
+            categories.add(category.trim());
+          }
+        }
+      }
+      if (categories.isEmpty()) {
+        throw new BadRequestResponse("Todo's category must have some value");
       }
     }
+    return new TodoFilter(owner, ownerMatch, status, categories);
+  }
+
+  /**
+   * Turn the filters from a request into a MongoDB query.
+   *
+   * @param filter the filters the request asked for
+   * @return the query
+   */
+  private Bson constructFilter(TodoFilter filter) {
+    List<Bson> filters = new ArrayList<>(); // start with a blank document
+
+    if (filter.owner() != null) {
+      filters.add(constructOwnerFilter(filter.owner(), filter.ownerMatch()));
+    }
+    if (filter.status() != null) {
+      filters.add(eq(STATUS_KEY, filter.status()));
+    }
+    // Categories are matched exactly, so MongoDB can look them up in the category
+    // indexes (including the status+category one for "incomplete todos in category X").
+    if (filter.categories() != null) {
+      List<String> categories = filter.categories();
+      filters.add(categories.size() == 1 ? eq(CATEGORY_KEY, categories.get(0)) : in(CATEGORY_KEY, categories));
+    }
     // Combine the list of filters into a single filtering document.
     // if filters.isEmpty(), combinedFilter = new Document()
     // else, combinedFilter = and(filters);
@@ -137,16 +827,359 @@ public class TodoController {
     return combinedFilter;
   }
 
+  private Bson constructOwnerFilter(String targetOwner, String match) {
+    String lowerOwner = normalizeOwner(targetOwner);
+    switch (match) {
+      case MATCH_EXACT:
+        return eq(OWNER_LOWER_KEY, lowerOwner);
+      case MATCH_CONTAINS:
+        // This can't use an index, so it's only done when asked for by name.
+        return regex(OWNER_KEY, Pattern.quote(targetOwner), "i");
+      case MATCH_PATTERN:
+        return regex(OWNER_KEY, targetOwner, "i");
+      default:
+        // An anchored, case-sensitive regex lets MongoDB turn this into
+        // a range scan on the `ownerLower` index.
+        return regex(OWNER_LOWER_KEY, "^" + escapeRegex(lowerOwner));
+    }
+  }
+
+  /**
+   * Lowercase an owner name the same way MongoDB's `$toLower` does,
+   * which only changes the ASCII letters A-Z. We need to match it
+   * exactly since `ensureDerivedFields()` uses `$toLower` to fill in
+   * `ownerLower` for existing todos.
+   *
+   * @param owner the owner name to normalize
+   * @return the name with any ASCII capital letters lowercased
+   */
+  static String normalizeOwner(String owner) {
+    StringBuilder result = new StringBuilder(owner.length());
+    for (int i = 0; i < owner.length(); i++) {
+      char c = owner.charAt(i);
+      result.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+    }
+    return result.toString();
+  }
+
+  /**
+   * Escape every character in a string that isn't a letter or digit so
+   * that it's matched literally in a regex. We use backslashes here rather
+   * than `Pattern.quote()`, since MongoDB still recognizes a backslash-escaped
+   * string as a simple prefix it can look up in an index.
+   *
+   * @param str the string to escape
+   * @return a regex that matches exactly `str`
+   */
+  static String escapeRegex(String str) {
+    StringBuilder result = new StringBuilder(str.length());
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (!Character.isLetterOrDigit(c)) {
+        result.append('\\');
+      }
+      result.append(c);
+    }
+    return result.toString();
+  }
+
   private Bson constructSortingOrder(Context ctx) {
-    // Sort the results. Use the `sortby` query param (default "name")
-    // as the field to sort by, and the query param `sortOrder` (default
-    // "asc") to specify the sort order.
-    /*String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
-    // if the sortOrder is "desc" then sortingOrder (Bson) = Sorts.descending() and whatever
-    // we told Mongo to sort by (it'll be one of our HTTP parameters).
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);*/
-    return new Document();
+    // Sort the results. Use the `orderBy` query param (if there is one) to pick
+    // the field to sort by, and the query param `sortOrder` (default "asc") to
+    // specify the sort order. With no `orderBy` we leave the todos in whatever
+    // order MongoDB finds them in.
+    String sortField = sortField(ctx);
+    if (sortField == null) {
+      return new Document();
+    }
+    return sortingOrder(sortField, sortDescending(ctx));
+  }
+
+  /**
+   * Build the sort for a field, with `_id` as a tie-breaker so that
+   * the order is the same every time (which paging depends on).
+   *
+   * @param sortField the database field to sort on, or `null` to sort on `_id` alone
+   * @param descending whether to sort in descending order
+   * @return the sort document
+   */
+  private Bson sortingOrder(String sortField, boolean descending) {
+    if (sortField == null) {
+      return descending ? Sorts.descending("_id") : Sorts.ascending("_id");
+    }
+    return descending ? Sorts.descending(sortField, "_id") : Sorts.ascending(sortField, "_id");
+  }
+
+  /**
+   * Get the database field named by the `orderBy` query parameter.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the field to sort on, or `null` if there's no `orderBy`
+   */
+  private String sortField(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(ORDER_BY_KEY)) {
+      return null;
+    }
+    String orderBy = ctx.queryParamAsClass(ORDER_BY_KEY, String.class)
+      .check(SORT_FIELDS::containsKey, "orderBy must be one of " + String.join(", ", SORT_FIELDS.keySet()))
+      .get();
+    return SORT_FIELDS.get(orderBy);
+  }
+
+  private boolean sortDescending(Context ctx) {
+    return "desc".equals(Objects.requireNonNullElse(ctx.queryParam(SORT_ORDER_KEY), "asc"));
+  }
+
+  /**
+   * Get the value a todo has for one of the fields in `SORT_FIELDS`,
+   * exactly as it's stored in the database, for use in a page cursor.
+   *
+   * @param todo the todo
+   * @param sortField the database field
+   * @return the todo's value for that field
+   */
+  static Object sortValue(Todo todo, String sortField) {
+    switch (sortField) {
+      case OWNER_LOWER_KEY:
+        return todo.ownerLower != null ? todo.ownerLower : normalizeOwner(todo.owner);
+      case BODY_LENGTH_KEY:
+        return todo.bodyLength != null ? todo.bodyLength : bodyLength(todo.body);
+      case STATUS_KEY:
+        return todo.status;
+      default:
+        return todo.category;
+    }
+  }
+
+  /**
+   * Count the Unicode code points in a todo body, the same way
+   * MongoDB's `$strLenCP` does when `ensureDerivedFields()` fills
+   * in `bodyLength`.
+   *
+   * @param body the body of a todo (possibly `null`)
+   * @return the number of code points in the body
+   */
+  static int bodyLength(String body) {
+    return body == null ? 0 : body.codePointCount(0, body.length());
+  }
+
+  /**
+   * Add many todos at once. The body of the request is either a JSON array
+   * of todos, or a stream of todos in NDJSON (one JSON todo per line).
+   *
+   * The todos are read one at a time and checked, and the good ones are
+   * inserted in batches with unordered `insertMany` calls, so importing
+   * thousands of todos takes a handful of round trips to the database
+   * rather than one per todo. The response reports what happened to each
+   * todo, by its position in the request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addTodos(Context ctx) {
+    int batchSize = DEFAULT_BATCH_SIZE;
+    if (ctx.queryParamMap().containsKey(BATCH_SIZE_KEY)) {
+      batchSize = ctx.queryParamAsClass(BATCH_SIZE_KEY, Integer.class)
+        .check(it -> it > 0, "The batch size must be greater than zero")
+        .check(it -> it <= MAX_BATCH_SIZE, "The batch size must be at most " + MAX_BATCH_SIZE)
+        .get();
+    }
+
+    BulkReport report = new BulkReport();
+    List<Document> batch = new ArrayList<>();
+    // Where each todo in the batch was in the request
+    List<Integer> batchIndexes = new ArrayList<>();
+    int index = 0;
+
+    try {
+      // `readValues` works for both formats: given a JSON array it hands us
+      // the elements, and given NDJSON it hands us one line at a time.
+      try (MappingIterator<JsonNode> items = JSON_TREE_READER.readValues(ctx.bodyInputStream())) {
+        while (items.hasNextValue()) {
+          JsonNode item = items.nextValue();
+          String error = validateTodo(item);
+          if (error != null) {
+            report.failed(index, error);
+          } else {
+            batch.add(newTodoDocument(
+              item.get(OWNER_KEY).asText(),
+              item.get(STATUS_KEY).asBoolean(),
+              item.get(BODY_KEY).asText(),
+              item.get(CATEGORY_KEY).asText()));
+            batchIndexes.add(index);
+            if (batch.size() == batchSize) {
+              insertBatch(batch, batchIndexes, report);
+            }
+          }
+          index++;
+        }
+      } catch (IOException e) {
+        // We can't find where the next todo starts in broken JSON, so we stop
+        // here. Whatever was read before this point is still inserted.
+        report.failed(index, "The request body isn't valid JSON from this point on");
+      }
+      insertBatch(batch, batchIndexes, report);
+    } finally {
+      // If a later batch fails outright (e.g., the database times out), the
+      // request fails, but the earlier batches are already in the database,
+      // and the failed batch (which `insertBatch()` leaves in `batch`) may be
+      // partly there too. Either way, our ETags and summary are out of date.
+      if (report.inserted > 0 || !batch.isEmpty()) {
+        todosChanged();
+      }
+    }
+    report.results.sort(Comparator.comparingInt(item -> item.index));
+    ResponseFormat.respond(ctx, report);
+    ctx.status(report.inserted > 0 || report.failed == 0 ? HttpStatus.CREATED : HttpStatus.BAD_REQUEST);
+  }
+
+  /**
+   * Check that a todo from a bulk request has all its fields, with the right types.
+   *
+   * @param item the todo, as a JSON tree
+   * @return what's wrong with the todo, or `null` if it's fine
+   */
+  private static String validateTodo(JsonNode item) {
+    if (!item.isObject()) {
+      return "Todo must be a JSON object";
+    }
+    if (!item.path(OWNER_KEY).isTextual() || item.get(OWNER_KEY).asText().isEmpty()) {
+      return "Todo must have a non-empty owner";
+    }
+    if (!item.path(STATUS_KEY).isBoolean()) {
+      return "Todo's status must be true or false";
+    }
+    if (!item.path(BODY_KEY).isTextual()) {
+      return "Todo must have a body";
+    }
+    if (!item.path(CATEGORY_KEY).isTextual() || item.get(CATEGORY_KEY).asText().isEmpty()) {
+      return "Todo must have a non-empty category";
+    }
+    return null;
+  }
+
+  /**
+   * Insert a batch of todos (if there are any) and record the outcome for
+   * each of them. The batch is emptied afterwards, ready for reuse.
+   *
+   * The insert is unordered, so MongoDB carries on past a todo it can't
+   * insert and tells us afterwards which ones failed.
+   *
+   * @param batch the todos to insert
+   * @param batchIndexes the position of each todo in the original request
+   * @param report where to record the outcomes
+   */
+  private void insertBatch(List<Document> batch, List<Integer> batchIndexes, BulkReport report) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    Set<Integer> failedPositions = new HashSet<>();
+    try {
+      todoDocuments.insertMany(batch, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      for (BulkWriteError error : e.getWriteErrors()) {
+        failedPositions.add(error.getIndex());
+        report.failed(batchIndexes.get(error.getIndex()), error.getMessage());
+      }
+    }
+    List<Document> inserted = new ArrayList<>();
+    for (int i = 0; i < batch.size(); i++) {
+      if (!failedPositions.contains(i)) {
+        report.succeeded(batchIndexes.get(i), batch.get(i).getObjectId("_id").toHexString());
+        inserted.add(batch.get(i));
+        ownerTrie.add(batch.get(i).getString(OWNER_KEY));
+      }
+    }
+    if (snapshot != null) {
+      snapshot.refresh(inserted);
+    }
+    batch.clear();
+    batchIndexes.clear();
+  }
+
+  /**
+   * Set the status of many todos at once, picked out either by their ids or
+   * by owner and/or category (see `StatusUpdate`).
+   *
+   * However many todos are affected, this is a single `updateMany`, so it's
+   * one round trip and one write batch on the database side.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void updateTodoStatuses(Context ctx) {
+    StatusUpdate update = ctx.bodyValidator(StatusUpdate.class)
+      .check(upd -> upd.status != null, "The new status must be true or false")
+      .check(upd -> (upd.ids != null && !upd.ids.isEmpty()) || upd.owner != null || upd.category != null,
+        "Must give the ids, owner, or category of the todos to update")
+      .check(upd -> upd.ids == null || upd.ids.stream().allMatch(id -> id != null && ObjectId.isValid(id)),
+        "The todo ids must all be legal Mongo Object IDs")
+      .get();
+
+    List<Bson> filters = new ArrayList<>();
+    if (update.ids != null && !update.ids.isEmpty()) {
+      List<ObjectId> ids = new ArrayList<>();
+      for (String id : update.ids) {
+        ids.add(new ObjectId(id));
+      }
+      filters.add(in("_id", ids));
+    }
+    if (update.owner != null) {
+      filters.add(eq(OWNER_LOWER_KEY, normalizeOwner(update.owner)));
+    }
+    if (update.category != null) {
+      filters.add(eq(CATEGORY_KEY, update.category));
+    }
+
+    UpdateResult result = todoDocuments.updateMany(and(filters), set(STATUS_KEY, update.status));
+    if (result.getModifiedCount() > 0) {
+      todosChanged();
+      // When we know exactly which todos could have changed, only forget
+      // those; an update by owner or category could have changed any of them.
+      if (update.owner == null && update.category == null) {
+        for (String id : update.ids) {
+          todoCache.invalidate(new ObjectId(id));
+        }
+      } else {
+        todoCache.invalidateAll();
+      }
+      if (snapshot != null) {
+        // Read the changed todos before `refresh()` takes the snapshot's lock.
+        snapshot.refresh(todoDocuments.find(and(filters)).into(new ArrayList<>()));
+      }
+    }
+
+    ResponseFormat.respond(ctx, Map.of("matched", result.getMatchedCount(), "modified", result.getModifiedCount()));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Build the database document for a new todo, including the extra
+   * fields we keep to speed up queries (see `ensureDerivedFields()`).
+   * Anything that adds todos should build them with this, so that those
+   * fields are always there.
+   *
+   * @param owner the todo's owner
+   * @param status whether the todo is complete
+   * @param body the text of the todo
+   * @param category the todo's category
+   * @return the document to insert, with a newly generated `_id`
+   */
+  static Document newTodoDocument(String owner, boolean status, String body, String category) {
+    return new Document("_id", new ObjectId())
+      .append(OWNER_KEY, owner)
+      .append(STATUS_KEY, status)
+      .append(BODY_KEY, body)
+      .append(CATEGORY_KEY, category)
+      .append(OWNER_LOWER_KEY, normalizeOwner(owner))
+      .append(BODY_LENGTH_KEY, bodyLength(body));
+  }
+
+  /**
+   * Called after anything changes the todos in the database, to throw
+   * away anything we've cached that depended on them.
+   */
+  private void todosChanged() {
+    todoVersion.bump();
+    summaryCache.invalidate();
   }
 
   /**
@@ -0,0 +1,52 @@
+package umm3601.todo;
+
+import java.util.List;
+
+/**
+ * The filters a request for todos asked for (owner, status, and category),
+ * after they've been checked, but before they've been turned into a MongoDB
+ * query.
+ *
+ * `TodoController.constructFilter()` turns one of these into a query for
+ * MongoDB, and `TodoSnapshot` answers the same filters from memory, so the
+ * two always agree on what a request means.
+ */
+final class TodoFilter {
+
+  private final String owner;
+  private final String ownerMatch;
+  private final Boolean status;
+  private final List<String> categories;
+
+  /**
+   * Create a filter.
+   *
+   * @param owner the owner to look for, or `null` for any owner
+   * @param ownerMatch how to match `owner` (one of the `TodoController.MATCH_*` values)
+   * @param status the status to look for, or `null` for either
+   * @param categories the categories to look for (any of them will do),
+   *   or `null` for any category
+   */
+  TodoFilter(String owner, String ownerMatch, Boolean status, List<String> categories) {
+    this.owner = owner;
+    this.ownerMatch = ownerMatch;
+    this.status = status;
+    this.categories = categories;
+  }
+
+  String owner() {
+    return owner;
+  }
+
+  String ownerMatch() {
+    return ownerMatch;
+  }
+
+  Boolean status() {
+    return status;
+  }
+
+  List<String> categories() {
+    return categories;
+  }
+}
@@ -0,0 +1,580 @@
+package umm3601.todo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.mongodb.client.MongoCollection;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.roaringbitmap.RoaringBitmap;
+
+import umm3601.BitmapIndex;
+import umm3601.LongTopK;
+import umm3601.StringDictionary;
+
+/**
+ * An in-memory, column-by-column copy of the `todos` collection that can
+ * answer the same owner/status/category filters (and `orderBy` sorts) as
+ * `TodoController.getTodos()` without asking MongoDB. The one exception is
+ * owner patterns (see `canMatch()`).
+ *
+ * Each todo is given an ordinal (its position in the columns) and each
+ * field is kept in its own compact column:
+ *   - `_id`s are packed 12 bytes apiece into one array, with an
+ *     open-addressing hash table from id to ordinal
+ *   - `owner` and `category` are dictionary encoded: each distinct value
+ *     is kept once, and each todo just holds an `int` code for its value
+ *   - `status` is a bitmap of the incomplete todos and one of the complete ones
+ *   - every `body` is UTF-8 encoded into a single byte arena, with an
+ *     offset and length per todo
+ *
+ * So a todo costs a couple of dozen bytes plus its body, rather than a
+ * `Todo` and its four `String`s.
+ *
+ * `owner`, `category`, and `status` also each have a `BitmapIndex`, so a
+ * filter is an AND of (at most) three bitmaps, and counting the todos that
+ * match is just the size of the result. Filters on `owner` are worked out
+ * once per distinct owner, and the bitmaps of the owners that match are
+ * ORed together. All of this takes microseconds even for tens of thousands
+ * of todos.
+ *
+ * The snapshot is loaded once, and then kept up to date by calling
+ * `refresh()` with any todos that are added or changed. It only sees
+ * changes that are made through the server, so it's only turned on when
+ * asked for (see `ServerOptions`).
+ */
+final class TodoSnapshot {
+
+  // The number of bytes in an `ObjectId`
+  private static final int ID_BYTES = 12;
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int INITIAL_ARENA_BYTES = 64 * 1024;
+
+  // Bit masks for decoding UTF-8: continuation bytes look like 10xxxxxx.
+  private static final int CONTINUATION_MASK = 0xC0;
+  private static final int CONTINUATION_BITS = 0x80;
+  private static final int HASH_MULTIPLIER = 31;
+  private static final int RANK_SHIFT = 32;
+  private static final long ORDINAL_MASK = 0xFFFFFFFFL;
+
+  // Passed to `find()` as the sort field to sort by `_id` alone.
+  static final String ID_KEY = "_id";
+
+  // Scans, sorts, and so on over at least this many todos are split
+  // across all the cores; below it, the fork-join overhead isn't worth it.
+  static final int PARALLEL_THRESHOLD = 10000;
+
+  // The keys in `statuses` are these; a todo with no status isn't in either bitmap.
+  private static final int INCOMPLETE = 0;
+  private static final int COMPLETE = 1;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private int size;
+  private byte[] ids = new byte[INITIAL_CAPACITY * ID_BYTES];
+  // Slots hold an ordinal plus one, so that zero means "empty".
+  private int[] idTable = new int[INITIAL_CAPACITY * 2];
+
+  private final StringDictionary owners = new StringDictionary();
+  private final StringDictionary categories = new StringDictionary();
+  private int[] ownerCodes = new int[INITIAL_CAPACITY];
+  private int[] categoryCodes = new int[INITIAL_CAPACITY];
+
+  private final BitmapIndex ownerIndex = new BitmapIndex();
+  private final BitmapIndex categoryIndex = new BitmapIndex();
+  private final BitmapIndex statuses = new BitmapIndex();
+
+  private byte[] bodyArena = new byte[INITIAL_ARENA_BYTES];
+  private int arenaUsed;
+  private int[] bodyStarts = new int[INITIAL_CAPACITY];
+  // -1 for a todo with no body
+  private int[] bodyLengths = new int[INITIAL_CAPACITY];
+
+  // Each todo's position when sorted by `_id` (and the reverse), for
+  // breaking ties when sorting. A new `ObjectId` is almost always bigger
+  // than every one before it, so `append()` just gives it the next rank;
+  // only when one arrives out of order are they all re-ranked, once, at
+  // the end of the `refresh()`.
+  private int[] idRanks = new int[INITIAL_CAPACITY];
+  private int[] byIdRank = new int[INITIAL_CAPACITY];
+  private boolean ranksStale;
+
+  /**
+   * Throw away whatever's in the snapshot and read every todo from the database.
+   *
+   * @param todoDocuments the todos collection
+   */
+  void load(MongoCollection<Document> todoDocuments) {
+    // Read them all before taking the lock, so readers don't wait on MongoDB.
+    List<Document> documents = todoDocuments.find().into(new ArrayList<>());
+    lock.writeLock().lock();
+    try {
+      clear();
+      refresh(documents);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add todos to the snapshot, or replace the ones that are already there
+   * (matched by `_id`) with these versions of them.
+   *
+   * Readers are locked out until this is done, so `documents` should
+   * already be in memory (e.g., a `List`), not a query still to be run.
+   *
+   * @param documents the todos, as they are in the database
+   */
+  void refresh(Iterable<Document> documents) {
+    lock.writeLock().lock();
+    try {
+      for (Document document : documents) {
+        upsert(document);
+      }
+      if (ranksStale) {
+        rankIds();
+      }
+      ownerIndex.optimize();
+      categoryIndex.optimize();
+      statuses.optimize();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of todos in the snapshot
+   */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find the todos that match a filter, exactly as
+   * `TodoController.constructFilter()` would have MongoDB do.
+   *
+   * @param filter the filters to apply
+   * @param sortField one of the database fields in `TodoController.SORT_FIELDS`,
+   *   `_id` to sort by `_id` alone, or `null` to leave the todos in the order
+   *   they were added
+   * @param descending whether to sort in descending order
+   * @param fields the fields to fill in (from `SparseFields`), or `null` for all of them
+   * @param limit the most todos to return, or 0 for all of them
+   * @return the matching todos
+   */
+  List<Todo> find(TodoFilter filter, String sortField, boolean descending, Set<String> fields, int limit) {
+    lock.readLock().lock();
+    try {
+      int[] matches = match(filter).toArray();
+      if (sortField != null) {
+        matches = sort(matches, sortField, descending, limit);
+      } else if (limit > 0 && limit < matches.length) {
+        matches = Arrays.copyOf(matches, limit);
+      }
+      // The worker threads don't hold the lock themselves, but we hold it
+      // for them until they're all done.
+      int[] ordinals = matches;
+      return range(ordinals.length)
+        .mapToObj(i -> materialize(ordinals[i], fields))
+        .collect(Collectors.toCollection(ArrayList::new));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Count the todos that match a filter.
+   *
+   * @param filter the filters to apply
+   * @return the number of todos `find()` would return
+   */
+  int count(TodoFilter filter) {
+    lock.readLock().lock();
+    try {
+      return match(filter).getCardinality();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void clear() {
+    size = 0;
+    Arrays.fill(idTable, 0);
+    owners.clear();
+    categories.clear();
+    ownerIndex.clear();
+    categoryIndex.clear();
+    statuses.clear();
+    arenaUsed = 0;
+    ranksStale = false;
+  }
+
+  private void upsert(Document document) {
+    ObjectId id = document.getObjectId(ID_KEY);
+    int ordinal = ordinalOf(id.toByteArray());
+    int oldStatus = BitmapIndex.NO_VALUE;
+    if (ordinal < 0) {
+      ordinal = append(id);
+    } else {
+      oldStatus = statusOf(ordinal);
+    }
+    int ownerCode = owners.encode(document.getString(TodoController.OWNER_KEY));
+    ownerIndex.move(ordinal, ownerCodes[ordinal], ownerCode);
+    ownerCodes[ordinal] = ownerCode;
+    int categoryCode = categories.encode(document.getString(TodoController.CATEGORY_KEY));
+    categoryIndex.move(ordinal, categoryCodes[ordinal], categoryCode);
+    categoryCodes[ordinal] = categoryCode;
+    Boolean status = document.getBoolean(TodoController.STATUS_KEY);
+    statuses.move(ordinal, oldStatus, status == null ? BitmapIndex.NO_VALUE : status ? COMPLETE : INCOMPLETE);
+
+    // A changed body is added to the end of the arena; the old bytes are
+    // only reclaimed by the next `load()`, but status changes (by far the
+    // most common update) don't touch the body at all.
+    String body = document.getString(TodoController.BODY_KEY);
+    if (body == null) {
+      bodyLengths[ordinal] = -1;
+    } else if (!body.equals(bodyOf(ordinal))) {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      if (arenaUsed + bytes.length > bodyArena.length) {
+        bodyArena = Arrays.copyOf(bodyArena, Math.max(bodyArena.length * 2, arenaUsed + bytes.length));
+      }
+      System.arraycopy(bytes, 0, bodyArena, arenaUsed, bytes.length);
+      bodyStarts[ordinal] = arenaUsed;
+      bodyLengths[ordinal] = bytes.length;
+      arenaUsed += bytes.length;
+    }
+  }
+
+  private int append(ObjectId id) {
+    if (size == ownerCodes.length) {
+      int capacity = size * 2;
+      ids = Arrays.copyOf(ids, capacity * ID_BYTES);
+      ownerCodes = Arrays.copyOf(ownerCodes, capacity);
+      categoryCodes = Arrays.copyOf(categoryCodes, capacity);
+      bodyStarts = Arrays.copyOf(bodyStarts, capacity);
+      bodyLengths = Arrays.copyOf(bodyLengths, capacity);
+      idRanks = Arrays.copyOf(idRanks, capacity);
+      byIdRank = Arrays.copyOf(byIdRank, capacity);
+    }
+    int ordinal = size++;
+    id.putToByteBuffer(ByteBuffer.wrap(ids, ordinal * ID_BYTES, ID_BYTES));
+    if (!ranksStale && (ordinal == 0 || compareIds(ordinal, byIdRank[ordinal - 1]) > 0)) {
+      idRanks[ordinal] = ordinal;
+      byIdRank[ordinal] = ordinal;
+    } else {
+      ranksStale = true;
+    }
+    ownerCodes[ordinal] = BitmapIndex.NO_VALUE;
+    categoryCodes[ordinal] = BitmapIndex.NO_VALUE;
+    bodyLengths[ordinal] = -1;
+    if (size * 2 > idTable.length) {
+      // Keep the table at most half full, so probes stay short.
+      idTable = new int[idTable.length * 2];
+      for (int i = 0; i < size; i++) {
+        insertId(i);
+      }
+    } else {
+      insertId(ordinal);
+    }
+    return ordinal;
+  }
+
+  private void insertId(int ordinal) {
+    int mask = idTable.length - 1;
+    int slot = hashId(ids, ordinal * ID_BYTES) & mask;
+    while (idTable[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    idTable[slot] = ordinal + 1;
+  }
+
+  private int ordinalOf(byte[] id) {
+    int mask = idTable.length - 1;
+    int slot = hashId(id, 0) & mask;
+    while (idTable[slot] != 0) {
+      int ordinal = idTable[slot] - 1;
+      if (Arrays.equals(ids, ordinal * ID_BYTES, (ordinal + 1) * ID_BYTES, id, 0, ID_BYTES)) {
+        return ordinal;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private static int hashId(byte[] bytes, int offset) {
+    int hash = 0;
+    for (int i = offset; i < offset + ID_BYTES; i++) {
+      hash = hash * HASH_MULTIPLIER + bytes[i];
+    }
+    // Spread the bits, since the table is indexed by the low ones.
+    return hash ^ (hash >>> (Integer.SIZE / 2));
+  }
+
+  private int compareIds(int a, int b) {
+    return Arrays.compareUnsigned(ids, a * ID_BYTES, (a + 1) * ID_BYTES, ids, b * ID_BYTES, (b + 1) * ID_BYTES);
+  }
+
+  /**
+   * Rank every todo by `_id`, sorting only primitives. An `ObjectId` is
+   * 12 bytes, too many for one `long`, so the first 8 are ranked on their
+   * own; that rank (less than `size`) and the last 4 bytes then make a
+   * `long` key that sorts in `_id` order. The ids are all different, so
+   * each key is too, and a todo's rank is where its key ends up.
+   */
+  private void rankIds() {
+    long[] highs = new long[size];
+    for (int i = 0; i < size; i++) {
+      highs[i] = highBytes(i);
+    }
+    Arrays.sort(highs);
+    int distinct = 0;
+    for (int i = 0; i < size; i++) {
+      if (i == 0 || highs[i] != highs[distinct - 1]) {
+        highs[distinct++] = highs[i];
+      }
+    }
+
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = idKey(i, highs, distinct);
+    }
+    Arrays.sort(keys);
+    for (int i = 0; i < size; i++) {
+      int rank = Arrays.binarySearch(keys, idKey(i, highs, distinct));
+      idRanks[i] = rank;
+      byIdRank[rank] = i;
+    }
+    ranksStale = false;
+  }
+
+  // The first 8 bytes of a todo's id, with the sign bit flipped so that
+  // comparing them as signed `long`s compares the bytes unsigned.
+  private long highBytes(int ordinal) {
+    return ByteBuffer.wrap(ids, ordinal * ID_BYTES, Long.BYTES).getLong() ^ Long.MIN_VALUE;
+  }
+
+  private long idKey(int ordinal, long[] sortedHighs, int distinct) {
+    long highRank = Arrays.binarySearch(sortedHighs, 0, distinct, highBytes(ordinal));
+    int low = ByteBuffer.wrap(ids, ordinal * ID_BYTES + Long.BYTES, Integer.BYTES).getInt();
+    return (highRank << RANK_SHIFT) | (low & ORDINAL_MASK);
+  }
+
+  /**
+   * AND together the bitmaps for each of the filters.
+   *
+   * @return the ordinals of the matching todos (which may belong to an
+   *   index, so mustn't be changed)
+   */
+  private RoaringBitmap match(TodoFilter filter) {
+    List<RoaringBitmap> bitmaps = new ArrayList<>();
+    if (filter.owner() != null) {
+      bitmaps.add(ownerIndex.any(owners.matching(ownerPredicate(filter))));
+    }
+    if (filter.categories() != null) {
+      boolean[] wanted = new boolean[categories.size()];
+      for (String category : filter.categories()) {
+        int code = categories.codeOf(category);
+        if (code >= 0) {
+          wanted[code] = true;
+        }
+      }
+      bitmaps.add(categoryIndex.any(wanted));
+    }
+    if (filter.status() != null) {
+      bitmaps.add(statuses.get(filter.status() ? COMPLETE : INCOMPLETE));
+    }
+
+    if (bitmaps.isEmpty()) {
+      return RoaringBitmap.bitmapOfRange(0, size);
+    }
+    // Start from the smallest bitmap, so each AND has less to do.
+    bitmaps.sort((a, b) -> Integer.compare(a.getCardinality(), b.getCardinality()));
+    RoaringBitmap result = bitmaps.get(0);
+    for (int i = 1; i < bitmaps.size(); i++) {
+      result = RoaringBitmap.and(result, bitmaps.get(i));
+    }
+    return result;
+  }
+
+  private int statusOf(int ordinal) {
+    if (statuses.get(COMPLETE).contains(ordinal)) {
+      return COMPLETE;
+    }
+    return statuses.get(INCOMPLETE).contains(ordinal) ? INCOMPLETE : BitmapIndex.NO_VALUE;
+  }
+
+  /**
+   * Can the snapshot answer this filter? Owner patterns are left to MongoDB:
+   * there they run with a `maxTime` limit, but `java.util.regex` has no way
+   * to stop a pattern that backtracks badly on some owner name, and
+   * `PatternBudget` only rules out the usual shapes of those.
+   *
+   * @param filter the filters from a request
+   * @return true if `find()` and `count()` can be given this filter
+   */
+  static boolean canMatch(TodoFilter filter) {
+    return filter.owner() == null || !TodoController.MATCH_PATTERN.equals(filter.ownerMatch());
+  }
+
+  /**
+   * Build a test for owner names that matches the same owners as
+   * `TodoController.constructOwnerFilter()`.
+   */
+  private static Predicate<String> ownerPredicate(TodoFilter filter) {
+    String lowerOwner = TodoController.normalizeOwner(filter.owner());
+    switch (filter.ownerMatch()) {
+      case TodoController.MATCH_EXACT:
+        return owner -> TodoController.normalizeOwner(owner).equals(lowerOwner);
+      case TodoController.MATCH_CONTAINS:
+        Pattern literal = Pattern.compile(Pattern.quote(filter.owner()), Pattern.CASE_INSENSITIVE);
+        return owner -> literal.matcher(owner).find();
+      case TodoController.MATCH_PATTERN:
+        throw new IllegalArgumentException("Owner patterns can't be matched by the snapshot; see canMatch()");
+      default:
+        return owner -> TodoController.normalizeOwner(owner).startsWith(lowerOwner);
+    }
+  }
+
+  /**
+   * Sort the ordinals in the same order as `TodoController.sortingOrder()`
+   * has MongoDB sort them.
+   *
+   * Each todo's rank for the sort field and its rank by `_id` are packed
+   * into a `long` (bitwise negated for a descending sort), so the sort is
+   * a plain sort of primitives. If only the first `limit` todos are
+   * wanted, we keep the smallest keys in a bounded heap instead of sorting
+   * them all, which is O(n log k) rather than O(n log n). Large sorts are
+   * split across all the cores, either by `Arrays.parallelSort()` or by
+   * each fork-join task keeping its own heap and merging them at the end.
+   *
+   * @return the ordinals in order (only the first `limit`, if that's positive)
+   */
+  private int[] sort(int[] ordinals, String sortField, boolean descending, int limit) {
+    IntUnaryOperator rank = rankFunction(sortField);
+    long[] keys = new long[ordinals.length];
+    range(keys.length).forEach(i -> {
+      int ordinal = ordinals[i];
+      long key = ((long) rank.applyAsInt(ordinal) << RANK_SHIFT) | idRanks[ordinal];
+      keys[i] = descending ? ~key : key;
+    });
+
+    long[] sorted = keys;
+    if (limit > 0 && limit < keys.length) {
+      sorted = range(keys.length)
+        .collect(() -> new LongTopK(limit), (top, i) -> top.offer(keys[i]), LongTopK::addAll)
+        .toSortedArray();
+    } else if (keys.length >= PARALLEL_THRESHOLD) {
+      Arrays.parallelSort(sorted);
+    } else {
+      Arrays.sort(sorted);
+    }
+
+    int[] result = new int[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      long key = descending ? ~sorted[i] : sorted[i];
+      result[i] = byIdRank[(int) (key & ORDINAL_MASK)];
+    }
+    return result;
+  }
+
+  /**
+   * Get a function that gives each todo its rank for a sort field: todos
+   * with a lower rank sort first, and missing values sort before everything
+   * else, as in MongoDB. Sorting by `_id` alone gives every todo the same
+   * rank, leaving the order to the `_id` tie-breaker.
+   */
+  private IntUnaryOperator rankFunction(String sortField) {
+    switch (sortField) {
+      case ID_KEY:
+        return ordinal -> 0;
+      case TodoController.OWNER_LOWER_KEY:
+        return codeRanks(ownerCodes, owners.ranks(TodoController::normalizeOwner));
+      case TodoController.CATEGORY_KEY:
+        return codeRanks(categoryCodes, categories.ranks(value -> value));
+      case TodoController.STATUS_KEY:
+        // No status (-1) sorts first, then incomplete (0), then complete (1).
+        return ordinal -> statusOf(ordinal) + 1;
+      default:
+        return this::codePoints;
+    }
+  }
+
+  private static IntUnaryOperator codeRanks(int[] codes, int[] ranks) {
+    return ordinal -> codes[ordinal] < 0 ? 0 : ranks[codes[ordinal]] + 1;
+  }
+
+  /**
+   * Loop over `0` to `n - 1`, in parallel if `n` is big enough to be worth it.
+   */
+  private static IntStream range(int n) {
+    IntStream range = IntStream.range(0, n);
+    return n >= PARALLEL_THRESHOLD ? range.parallel() : range;
+  }
+
+  /**
+   * Count the code points in a todo's body (as `TodoController.bodyLength()`
+   * does), straight from its UTF-8 bytes: every byte except a continuation
+   * byte starts a new code point.
+   */
+  private int codePoints(int ordinal) {
+    int count = 0;
+    int start = bodyStarts[ordinal];
+    for (int i = start; i < start + bodyLengths[ordinal]; i++) {
+      if ((bodyArena[i] & CONTINUATION_MASK) != CONTINUATION_BITS) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private String bodyOf(int ordinal) {
+    if (bodyLengths[ordinal] < 0) {
+      return null;
+    }
+    return new String(bodyArena, bodyStarts[ordinal], bodyLengths[ordinal], StandardCharsets.UTF_8);
+  }
+
+  private Todo materialize(int ordinal, Set<String> fields) {
+    Todo todo = new Todo();
+    todo._id = new ObjectId(ByteBuffer.wrap(ids, ordinal * ID_BYTES, ID_BYTES)).toHexString();
+    if (fields == null || fields.contains(TodoController.OWNER_KEY)) {
+      todo.owner = owners.decode(ownerCodes[ordinal]);
+    }
+    if (fields == null || fields.contains(TodoController.STATUS_KEY)) {
+      int status = statusOf(ordinal);
+      todo.status = status == BitmapIndex.NO_VALUE ? null : status == COMPLETE;
+    }
+    if (fields == null || fields.contains(TodoController.BODY_KEY)) {
+      todo.body = bodyOf(ordinal);
+    }
+    if (fields == null || fields.contains(TodoController.CATEGORY_KEY)) {
+      todo.category = categories.decode(categoryCodes[ordinal]);
+    }
+    // Only asked for by name, for page cursors (see `TodoController.getTodosFromSnapshot()`)
+    if (fields != null && fields.contains(TodoController.OWNER_LOWER_KEY)) {
+      String owner = owners.decode(ownerCodes[ordinal]);
+      todo.ownerLower = owner == null ? null : TodoController.normalizeOwner(owner);
+    }
+    if (fields != null && fields.contains(TodoController.BODY_LENGTH_KEY)) {
+      todo.bodyLength = codePoints(ordinal);
+    }
+    return todo;
+  }
+}
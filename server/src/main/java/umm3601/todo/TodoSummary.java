@@ -0,0 +1,18 @@
+package umm3601.todo;
+
+import java.util.Map;
+
+/**
+ * Counts of todos, in total and broken down by owner, category, and status,
+ * as returned by `GET /api/todos/summary`.
+ */
+// As in `Todo`, these fields are public so that Jackson can get at them.
+@SuppressWarnings({"VisibilityModifier"})
+public class TodoSummary {
+  public long total;
+  public Map<String, Long> owners;
+  public Map<String, Long> categories;
+  // Keyed by "complete" and "incomplete", to match the `status` filter, plus
+  // "none" if any todos have no status (which neither filter matches).
+  public Map<String, Long> statuses;
+}
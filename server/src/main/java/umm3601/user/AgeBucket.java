@@ -0,0 +1,15 @@
+package umm3601.user;
+
+/**
+ * One bar of the age histogram returned by `GET /api/users/age-histogram`:
+ * how many users are at least `minAge` and younger than `maxAge`, the same
+ * range the `minAge` and `maxAge` filters would pick out. Users with no
+ * (reasonable) age are counted in a bucket with neither bound.
+ */
+// As in `User`, these fields are public so that Jackson can get at them.
+@SuppressWarnings({"VisibilityModifier"})
+public class AgeBucket {
+  public Integer minAge;
+  public Integer maxAge;
+  public long count;
+}
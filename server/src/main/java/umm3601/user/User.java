@@ -1,5 +1,7 @@
 package umm3601.user;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import org.mongojack.Id;
 import org.mongojack.ObjectId;
 
@@ -18,7 +20,11 @@ import org.mongojack.ObjectId;
 // (https://checkstyle.sourceforge.io/config_design.html#VisibilityModifier)
 // check in CheckStyle so that we don't get a failed
 // build when Gradle runs CheckStyle.
+//
+// A client can ask for only some fields (with `?fields=`), so the fields
+// that weren't read are `null` and are left out of the JSON.
 @SuppressWarnings({"VisibilityModifier"})
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class User {
   // By default Java field names shouldn't start with underscores.
   // Here, though, we *have* to use the name `_id` to match the
@@ -28,7 +34,7 @@ public class User {
   public String _id;
 
   public String name;
-  public int age;
+  public Integer age;
   public String company;
   public String email;
   public String avatar;
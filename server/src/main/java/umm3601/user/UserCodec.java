@@ -0,0 +1,122 @@
+package umm3601.user;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+/**
+ * Reads and writes `User`s straight from and to BSON, without going
+ * through Jackson (as `JacksonMongoCollection` does).
+ *
+ * This is used instead of MongoJack when the server is started with
+ * `MONGO_CODECS=native` (see `Server`). It reads exactly the fields
+ * in `User`, skipping any others, and leaves out `null` fields when
+ * writing.
+ */
+public class UserCodec implements CollectibleCodec<User> {
+
+  @Override
+  public User decode(BsonReader reader, DecoderContext decoderContext) {
+    User user = new User();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      if (reader.getCurrentBsonType() == BsonType.NULL) {
+        reader.readNull();
+        continue;
+      }
+      switch (name) {
+        case "_id":
+          user._id = reader.readObjectId().toHexString();
+          break;
+        case "name":
+          user.name = reader.readString();
+          break;
+        case UserController.AGE_KEY:
+          user.age = readInt(reader);
+          break;
+        case UserController.COMPANY_KEY:
+          user.company = reader.readString();
+          break;
+        case "email":
+          user.email = reader.readString();
+          break;
+        case "avatar":
+          user.avatar = reader.readString();
+          break;
+        case UserController.ROLE_KEY:
+          user.role = reader.readString();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return user;
+  }
+
+  // Ages we write are 32-bit ints, but users added some other way
+  // (e.g., by hand in the mongo shell) can have other kinds of number.
+  private static int readInt(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case INT64:
+        return (int) reader.readInt64();
+      case DOUBLE:
+        return (int) reader.readDouble();
+      default:
+        return reader.readInt32();
+    }
+  }
+
+  @Override
+  public void encode(BsonWriter writer, User user, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    if (user._id != null) {
+      writer.writeObjectId("_id", new ObjectId(user._id));
+    }
+    writeString(writer, "name", user.name);
+    if (user.age != null) {
+      writer.writeInt32(UserController.AGE_KEY, user.age);
+    }
+    writeString(writer, UserController.COMPANY_KEY, user.company);
+    writeString(writer, "email", user.email);
+    writeString(writer, "avatar", user.avatar);
+    writeString(writer, UserController.ROLE_KEY, user.role);
+    writer.writeEndDocument();
+  }
+
+  private static void writeString(BsonWriter writer, String name, String value) {
+    if (value != null) {
+      writer.writeString(name, value);
+    }
+  }
+
+  @Override
+  public Class<User> getEncoderClass() {
+    return User.class;
+  }
+
+  @Override
+  public User generateIdIfAbsentFromDocument(User user) {
+    if (user._id == null) {
+      user._id = new ObjectId().toHexString();
+    }
+    return user;
+  }
+
+  @Override
+  public boolean documentHasId(User user) {
+    return user._id != null;
+  }
+
+  @Override
+  public BsonValue getDocumentId(User user) {
+    return new BsonObjectId(new ObjectId(user._id));
+  }
+}
@@ -2,31 +2,74 @@ package umm3601.user;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
 import static com.mongodb.client.model.Filters.regex;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BucketOptions;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
 
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
 
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BloomFilter;
+import umm3601.BulkReport;
+import umm3601.CachedValue;
+import umm3601.CollectionVersion;
+import umm3601.JsonStreamer;
+import umm3601.KeysetCursor;
+import umm3601.LruCache;
+import umm3601.PrefixTrie;
+import umm3601.ResponseFormat;
+import umm3601.ServerOptions;
+import umm3601.SparseFields;
+import umm3601.TotalCount;
 
 /**
  * Controller that manages requests for info about users.
@@ -34,51 +77,329 @@ import io.javalin.http.NotFoundResponse;
 public class UserController {
 
   static final String AGE_KEY = "age";
+  static final String MIN_AGE_KEY = "minAge";
+  static final String MAX_AGE_KEY = "maxAge";
   static final String COMPANY_KEY = "company";
   static final String ROLE_KEY = "role";
 
-  private static final int REASONABLE_AGE_LIMIT = 150;
+  static final String SORT_BY_KEY = "sortby";
+  static final String SORT_ORDER_KEY = "sortorder";
+  static final String LIMIT_KEY = "limit";
+  static final String AFTER_KEY = "after";
+
+  // The response header that carries the cursor for the next page of users.
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  // The largest page of users we'll hand back in a single response, no
+  // matter what `limit` the client asks for.
+  static final int MAX_PAGE_SIZE = 1000;
+
+  // How long MongoDB may spend counting users before giving up, as for
+  // todos. A `company` filter is a case-insensitive regex, so counting with
+  // one has to look at every user that the rest of the filter lets through.
+  static final long MAX_QUERY_TIME_MS = 2000;
+
+  // The values `sortby` may take. Only these are allowed, since each of them
+  // has indexes (built in `ensureIndexes()`) that let MongoDB return the
+  // users already in order instead of sorting them in memory.
+  static final Set<String> SORT_FIELDS = Set.of("name", AGE_KEY, COMPANY_KEY, ROLE_KEY, "email");
+  static final String DEFAULT_SORT_FIELD = "name";
+
+  static final int REASONABLE_AGE_LIMIT = 150;
   private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
   public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
+  // Compiled once, rather than by every `String.matches()` call; a `Pattern`
+  // can be shared between threads (each match gets its own `Matcher`).
+  private static final Pattern ROLE_PATTERN = Pattern.compile(ROLE_REGEX);
+  private static final Pattern EMAIL_PATTERN = Pattern.compile(EMAIL_REGEX);
+
+  // Bulk imports are sent to MongoDB in batches of this many users, unless
+  // the request asks for a different `batchSize` (up to `MAX_BATCH_SIZE`).
+  static final String BATCH_SIZE_KEY = "batchSize";
+  static final int DEFAULT_BATCH_SIZE = 1000;
+  static final int MAX_BATCH_SIZE = 10000;
+
+  // Bulk imports are NDJSON (or a JSON array) unless they're sent with this
+  // content type, in which case the first line names the columns.
+  static final String CSV_CONTENT_TYPE = "text/csv";
+
+  // Read the users in a bulk import one at a time, as generic trees, so
+  // that one bad user can be reported without rejecting all the others.
+  // Every CSV value comes back as text.
+  private static final ObjectReader JSON_TREE_READER = new ObjectMapper().readerFor(JsonNode.class);
+  private static final ObjectReader CSV_TREE_READER = new CsvMapper()
+    .readerFor(JsonNode.class)
+    .with(CsvSchema.emptySchema().withHeader());
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final int NIBBLE_BITS = 4;
+  private static final int NIBBLE_MASK = 0xF;
+
+  // Company suggestions (see `suggestCompanies()`) complete the `prefix`
+  // query parameter, and there are `limit` of them (at most `MAX_SUGGESTIONS`).
+  static final String PREFIX_KEY = "prefix";
+  static final int DEFAULT_SUGGESTIONS = 10;
+  static final int MAX_SUGGESTIONS = 100;
+
+  // The fields a client can ask for with `?fields=` (see `SparseFields`).
+  static final Set<String> USER_FIELDS = Set.of("name", AGE_KEY, COMPANY_KEY, "email", "avatar", ROLE_KEY);
+
+  // The age histogram (see `getAgeHistogram()`) has buckets this many years
+  // wide, from zero up to `REASONABLE_AGE_LIMIT`.
+  static final int AGE_BUCKET_WIDTH = 10;
+  // What `$bucket` calls the bucket for users with no age (or an unreasonable one).
+  private static final String OTHER_AGES = "other";
+
+  // Emails are unique (see `ensureIndexes()`), and `emails` remembers the
+  // ones we've seen so most new emails needn't be looked up; see `takenEmails()`.
+  // It's sized for twice the users there were at startup, or `MIN_EXPECTED_EMAILS`.
+  static final String DUPLICATE_EMAIL = "There is already a user with that email";
+  static final long MIN_EXPECTED_EMAILS = 100000;
+  static final double EMAIL_FALSE_POSITIVE_RATE = 0.01;
+  private static final Bson EMAIL_ONLY = Projections.fields(Projections.include("email"), Projections.excludeId());
+
+  // Single users looked up by id are kept in a bounded cache; see `userChanged()`.
+  static final int USER_CACHE_SIZE = 10000;
+  static final long USER_CACHE_TTL_SECONDS = 60;
+
+  private final MongoCollection<User> userCollection;
+  private final MongoCollection<RawBsonDocument> rawUsers;
+
+  // If true, plain (JSON) lists of users are always copied straight from
+  // BSON to the response, as streamed lists are; see `getUsers()`.
+  private final boolean passthroughLists;
+
+  // An in-memory copy of the users that answers filter queries, or `null`
+  // if the server wasn't asked to keep one (see `UserSnapshot`).
+  private final UserSnapshot snapshot;
 
-  private final JacksonMongoCollection<User> userCollection;
+  // Every company (ignoring case) and how many users work there, for
+  // `suggestCompanies()`.
+  private final PrefixTrie companyTrie = new PrefixTrie(company -> company.toLowerCase(Locale.ROOT));
+
+  // Every email in the database (and, since it can't forget, some that
+  // used to be), for `takenEmails()`.
+  private final BloomFilter emails;
+
+  // Kept until the next write to users; see `userChanged()`.
+  private final CachedValue<List<AgeBucket>> ageHistogram = new CachedValue<>(0, TimeUnit.SECONDS);
+
+  private final LruCache<ObjectId, User> userCache =
+    new LruCache<>(USER_CACHE_SIZE, USER_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+
+  // Bumped by `userChanged()`; our ETags are made from it (see `CollectionVersion`).
+  private final CollectionVersion userVersion = new CollectionVersion();
 
   /**
-   * Construct a controller for users.
+   * Construct a controller for users that reads and writes them through MongoJack.
    *
    * @param database the database containing user data
    */
   public UserController(MongoDatabase database) {
-    userCollection = JacksonMongoCollection.builder().build(
-        database,
-        "users",
-        User.class,
-        UuidRepresentation.STANDARD);
+    this(database, new ServerOptions());
+  }
+
+  /**
+   * Construct a controller for users.
+   *
+   * @param database the database containing user data (if `options` asks for
+   *   native codecs, `UserCodec` must be in its codec registry; see `NativeCodecs`)
+   * @param options which of the optional ways of reading and sending users to use
+   */
+  public UserController(MongoDatabase database, ServerOptions options) {
+    this.passthroughLists = options.passthroughLists();
+    rawUsers = database.getCollection("users", RawBsonDocument.class);
+    if (options.nativeCodecs()) {
+      userCollection = database.getCollection("users", User.class);
+    } else {
+      userCollection = JacksonMongoCollection.builder().build(
+          database,
+          "users",
+          User.class,
+          UuidRepresentation.STANDARD);
+    }
+
+    ensureIndexes();
+    loadCompanies();
+    emails = new BloomFilter(
+      Math.max(2 * rawUsers.estimatedDocumentCount(), MIN_EXPECTED_EMAILS), EMAIL_FALSE_POSITIVE_RATE);
+    loadEmails();
+
+    if (options.memorySnapshots()) {
+      snapshot = new UserSnapshot();
+      snapshot.load(userCollection);
+    } else {
+      snapshot = null;
+    }
+  }
+
+  /**
+   * Fill in `companyTrie` with every company and how many users work
+   * there, counted by MongoDB (with `$group`) so no users are sent to us.
+   */
+  private void loadCompanies() {
+    List<Bson> pipeline = List.of(Aggregates.group("$" + COMPANY_KEY, Accumulators.sum("count", 1)));
+    for (Document group : rawUsers.aggregate(pipeline, Document.class)) {
+      if (group.get("_id") instanceof String) {
+        companyTrie.add(group.getString("_id"), group.get("count", Number.class).longValue());
+      }
+    }
+  }
+
+  /**
+   * Fill in `emails` with every user's email. Only the emails are sent to
+   * us, and they aren't turned into `User`s.
+   */
+  private void loadEmails() {
+    for (RawBsonDocument user : rawUsers.find().projection(EMAIL_ONLY)) {
+      if (user.isString("email")) {
+        emails.add(user.getString("email").getValue());
+      }
+    }
+  }
+
+  /**
+   * Which of these emails already belong to users?
+   *
+   * Most emails aren't in `emails`, and so are certainly new without asking
+   * MongoDB. Only those that probably are in it (because they're taken, or
+   * were once, or by chance) are looked up, all in one query that the
+   * index on `email` answers without reading any users.
+   *
+   * @param candidates the emails to check
+   * @return the ones that are taken
+   */
+  private Set<String> takenEmails(Collection<String> candidates) {
+    List<String> probable = new ArrayList<>();
+    for (String email : candidates) {
+      if (emails.mightContain(email)) {
+        probable.add(email);
+      }
+    }
+    Set<String> taken = new HashSet<>();
+    if (probable.isEmpty()) {
+      return taken;
+    }
+    for (RawBsonDocument user : rawUsers.find(in("email", probable)).projection(EMAIL_ONLY)) {
+      taken.add(user.getString("email").getValue());
+    }
+    return taken;
+  }
+
+  private static boolean isDuplicateKey(int code) {
+    return ErrorCategory.fromErrorCode(code) == ErrorCategory.DUPLICATE_KEY;
+  }
+
+  /**
+   * Create the indexes that our queries rely on. Creating an index that
+   * already exists does nothing, so this is cheap after the first time.
+   *
+   * The indexes follow the Equality, Sort, Range rule. For each field in
+   * `SORT_FIELDS`, there's an index that starts with the sort field, one
+   * that starts with `role` (for a role filter), and one that starts with
+   * `age` (for an exact age filter). Each has the sort field next, so a
+   * filtered, sorted list is a single index scan in the right order. `_id`
+   * follows, to break ties, which keeps the order stable for paging.
+   * `age` goes last, so a `minAge`/`maxAge` range is checked against the
+   * index keys as they're scanned. If `age` came first instead, MongoDB
+   * would have to sort every user in the range in memory. (The `company`
+   * filter looks for text anywhere in the name, so no index can narrow it
+   * down. It's checked against each user as the sorted index is scanned.)
+   *
+   * `email` also gets a unique index, which is what really keeps two users
+   * from having the same email (`takenEmails()` is just a quicker, friendlier
+   * first check). If the database already has duplicate emails, building it
+   * fails, and so does starting the server, until they're sorted out.
+   * Since emails are unique they need no tie-breaker (see `sortKeys()`),
+   * so that index is also the one for sorting by email. Another one
+   * starting with `email` would only slow down writes, so an age range
+   * sorted by email is checked against each user as the index is scanned.
+   */
+  private void ensureIndexes() {
+    rawUsers.createIndex(Indexes.ascending("email"), new IndexOptions().unique(true));
+    for (String sortField : SORT_FIELDS) {
+      List<String> sortThenRange = new ArrayList<>(sortKeys(sortField));
+      if (!sortField.equals(AGE_KEY)) {
+        sortThenRange.add(AGE_KEY);
+      }
+      if (!sortField.equals("email")) {
+        rawUsers.createIndex(Indexes.ascending(sortThenRange));
+      }
+      if (!sortField.equals(ROLE_KEY)) {
+        List<String> roleFirst = new ArrayList<>(List.of(ROLE_KEY));
+        roleFirst.addAll(sortThenRange);
+        rawUsers.createIndex(Indexes.ascending(roleFirst));
+      }
+      if (!sortField.equals(AGE_KEY)) {
+        List<String> ageFirst = new ArrayList<>(List.of(AGE_KEY));
+        ageFirst.addAll(sortKeys(sortField));
+        rawUsers.createIndex(Indexes.ascending(ageFirst));
+      }
+    }
+  }
+
+  /**
+   * The keys to sort by for one of `SORT_FIELDS`: the field, and then `_id`
+   * to break ties. Emails are unique, so there are no ties to break, and
+   * leaving off `_id` lets the unique index on `email` do the sorting.
+   */
+  private static List<String> sortKeys(String sortBy) {
+    return "email".equals(sortBy) ? List.of(sortBy) : List.of(sortBy, "_id");
   }
 
   /**
    * Set the JSON body of the response to be the single user
    * specified by the `id` parameter in the request
    *
+   * Users are looked up through `userCache`, so repeatedly asking for
+   * the same user only goes to the database once.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getUser(Context ctx) {
     String id = ctx.pathParam("id");
     User user;
 
+    if (userVersion.notModified(ctx)) {
+      return;
+    }
     try {
-      user = userCollection.find(eq("_id", new ObjectId(id))).first();
+      user = userCache.get(new ObjectId(id), key -> userCollection.find(eq("_id", key)).first());
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
     }
     if (user == null) {
       throw new NotFoundResponse("The requested user was not found");
     } else {
-      ctx.json(user);
+      ResponseFormat.respond(ctx, user);
       ctx.status(HttpStatus.OK);
     }
   }
 
+  /**
+   * Set the JSON body of the response to be the companies that start with
+   * the `prefix` query parameter (ignoring case), each with how many users
+   * work there, most users first.
+   *
+   * These come from `companyTrie`, which is kept in memory and updated as
+   * users are added and deleted, so a typeahead can ask on every keystroke
+   * without any of them reaching the database.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void suggestCompanies(Context ctx) {
+    String prefix = Objects.requireNonNullElse(ctx.queryParam(PREFIX_KEY), "");
+    int limit = DEFAULT_SUGGESTIONS;
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      limit = ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+        .check(it -> it > 0, "The limit must be greater than zero")
+        .check(it -> it <= MAX_SUGGESTIONS, "The limit must be at most " + MAX_SUGGESTIONS)
+        .get();
+    }
+    ResponseFormat.respond(ctx, companyTrie.complete(prefix, limit));
+    ctx.status(HttpStatus.OK);
+  }
+
   /**
    * Set the JSON body of the response to be a list of all the users returned from the database
    * that match any requested filters and ordering
@@ -86,8 +407,52 @@ public class UserController {
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
-    Bson combinedFilter = constructFilter(ctx);
+    UserFilter filter = parseFilter(ctx);
+    Bson combinedFilter = constructFilter(filter);
     Bson sortingOrder = constructSortingOrder(ctx);
+    Bson projection = SparseFields.projection(ctx, USER_FIELDS);
+
+    // If the client already has the current version of this list, that's
+    // all we need to tell them; there's no need to ask the database.
+    if (userVersion.notModified(ctx)) {
+      return;
+    }
+
+    // If the client only wants to know how many users match, we count
+    // them without reading any.
+    if (TotalCount.isRequested(ctx)) {
+      long count = snapshot != null
+        ? snapshot.count(filter)
+        : TotalCount.count(userCollection, combinedFilter,
+          new CountOptions().maxTime(MAX_QUERY_TIME_MS, TimeUnit.MILLISECONDS));
+      TotalCount.respond(ctx, count);
+      return;
+    }
+
+    // If we're keeping the users in memory, we can answer from there
+    // without asking the database at all. Later pages (with an `after`
+    // cursor) are still fetched from the database, which can seek
+    // straight to them.
+    if (snapshot != null && !JsonStreamer.isRequested(ctx) && !ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      getUsersFromSnapshot(ctx, filter);
+      return;
+    }
+
+    // If the client asked for a `limit` or handed us an `after` cursor then
+    // they want a single page of users rather than the whole lot.
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY) || ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      getUsersPage(ctx, combinedFilter);
+      return;
+    }
+
+    // If the client asked for a streamed response, write the users out as
+    // the database hands them to us instead of building up a list first.
+    // These are copied straight from BSON to JSON without making `User`s,
+    // which we also do for every JSON list if `passthroughLists` is set.
+    if (JsonStreamer.isRequested(ctx) || (passthroughLists && ResponseFormat.wantsJson(ctx))) {
+      JsonStreamer.stream(ctx, rawUsers.find(combinedFilter).projection(projection).sort(sortingOrder));
+      return;
+    }
 
     // All three of the find, sort, and into steps happen "in parallel" inside the
     // database system. So MongoDB is going to find the users with the specified
@@ -95,6 +460,7 @@ public class UserController {
     // results into an initially empty ArrayList.
     ArrayList<User> matchingUsers = userCollection
       .find(combinedFilter)
+      .projection(projection)
       .sort(sortingOrder)
       // .into seems to be telling Mongo how it will format the data returned (as an
       // ArrayList<>)
@@ -103,35 +469,294 @@ public class UserController {
     // Set the JSON body of the response to be the list of users returned by the database.
     // According to the Javalin documentation (https://javalin.io/documentation#context),
     // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingUsers);
+    ResponseFormat.respond(ctx, matchingUsers);
 
     // Explicitly set the context status to OK
     ctx.status(HttpStatus.OK);
   }
 
-  private Bson constructFilter(Context ctx) {
-    List<Bson> filters = new ArrayList<>(); // start with a blank document
+  /**
+   * Set the JSON body of the response to be a single page of the users that
+   * match the requested filters, and set the `X-Next-Cursor` header if there
+   * are more.
+   *
+   * Pages are sorted by `sortby` and then `_id`, and each new page is fetched
+   * with a range query starting just after the last user of the previous page
+   * (that's what the `after` cursor holds), as for todos. With the indexes
+   * from `ensureIndexes()`, MongoDB seeks straight to the start of the page,
+   * so page N is as cheap as page 1.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param combinedFilter the filter built from the request's query parameters
+   */
+  private void getUsersPage(Context ctx, Bson combinedFilter) {
+    int limit = pageSize(ctx);
+    String sortBy = sortBy(ctx);
+    boolean descending = sortDescending(ctx);
+
+    Bson pageFilter = combinedFilter;
+    KeysetCursor after = afterCursor(ctx);
+    if (after != null) {
+      pageFilter = and(combinedFilter, after.seekFilter(sortBy, descending));
+    }
+
+    // Ask for one more user than we need; if it shows up we know there's
+    // at least one more page and can hand out a cursor for it. The cursor
+    // is built from the last user's sort field, so we need that field even
+    // if the client didn't ask for it; it's taken back out before the page
+    // is sent (see `dropSortField()`).
+    ArrayList<User> page = userCollection
+      .find(pageFilter)
+      .projection(SparseFields.projection(ctx, USER_FIELDS, sortBy))
+      .sort(sortingOrder(sortBy, descending))
+      .limit(limit + 1)
+      .into(new ArrayList<>());
+
+    setNextCursor(ctx, page, limit, sortBy);
+    dropSortField(page, SparseFields.requested(ctx, USER_FIELDS), sortBy);
+    ResponseFormat.respond(ctx, page);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the body of the response to be the users that match the requested
+   * filters, answered from `snapshot`. If there's a `limit`, this is the
+   * first page, exactly as `getUsersPage()` would have it.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param filter the filters from the request's query parameters
+   */
+  private void getUsersFromSnapshot(Context ctx, UserFilter filter) {
+    String sortBy = sortBy(ctx);
+    Set<String> fields = SparseFields.requested(ctx, USER_FIELDS);
+
+    if (!ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      ResponseFormat.respond(ctx, snapshot.find(filter, sortBy, sortDescending(ctx), fields, 0));
+      ctx.status(HttpStatus.OK);
+      return;
+    }
+
+    int limit = pageSize(ctx);
+    // As in `getUsersPage()`, the cursor needs the sort field.
+    Set<String> withSortField = fields;
+    if (fields != null) {
+      withSortField = new HashSet<>(fields);
+      withSortField.add(sortBy);
+    }
+    List<User> page = snapshot.find(filter, sortBy, sortDescending(ctx), withSortField, limit + 1);
+    setNextCursor(ctx, page, limit, sortBy);
+    dropSortField(page, fields, sortBy);
+    ResponseFormat.respond(ctx, page);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Clear the sort field from a page of users if it was only there to build
+   * the cursor, so clients only get the fields they asked for.
+   *
+   * @param page the page
+   * @param fields the fields the client asked for, or `null` for all of them
+   * @param sortBy the field the page is sorted on
+   */
+  private static void dropSortField(List<User> page, Set<String> fields, String sortBy) {
+    if (fields == null || fields.contains(sortBy)) {
+      return;
+    }
+    for (User user : page) {
+      switch (sortBy) {
+        case AGE_KEY:
+          user.age = null;
+          break;
+        case COMPANY_KEY:
+          user.company = null;
+          break;
+        case ROLE_KEY:
+          user.role = null;
+          break;
+        case "email":
+          user.email = null;
+          break;
+        default:
+          user.name = null;
+          break;
+      }
+    }
+  }
+
+  /**
+   * If we fetched one more user than the page holds, drop it and hand the
+   * client a cursor for the next page (see `getUsersPage()`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param page the page, with up to `limit + 1` users in it
+   * @param limit the page size
+   * @param sortBy the field the page is sorted on
+   */
+  private void setNextCursor(Context ctx, List<User> page, int limit, String sortBy) {
+    if (page.size() > limit) {
+      page.remove(limit);
+      User last = page.get(limit - 1);
+      ctx.header(NEXT_CURSOR_HEADER, new KeysetCursor(sortValue(last, sortBy), new ObjectId(last._id)).encode());
+    }
+  }
+
+  /**
+   * Get the number of users the client wants on each page, from the `limit`
+   * query parameter (at most `MAX_PAGE_SIZE`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the page size
+   */
+  private int pageSize(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      return MAX_PAGE_SIZE;
+    }
+    return ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+      .check(it -> it > 0, "The limit must be greater than zero")
+      .check(it -> it <= MAX_PAGE_SIZE, "The limit must be at most " + MAX_PAGE_SIZE)
+      .get();
+  }
+
+  /**
+   * Get the cursor from the `after` query parameter, if there is one.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the decoded cursor, or `null` if the client didn't send one
+   */
+  private KeysetCursor afterCursor(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      return null;
+    }
+    return KeysetCursor.decode(ctx.queryParam(AFTER_KEY));
+  }
+
+  /**
+   * Set the JSON body of the response to be a histogram of users' ages:
+   * how many users there are in each `AGE_BUCKET_WIDTH`-year range, from
+   * zero up to `REASONABLE_AGE_LIMIT`, plus a last bucket for users with
+   * no age in that range.
+   *
+   * The counting is done by MongoDB (with `$bucket`), so none of the users
+   * themselves are sent to us, and the result is reused until a user is
+   * added or deleted.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getAgeHistogram(Context ctx) {
+    if (userVersion.notModified(ctx)) {
+      return;
+    }
+    ResponseFormat.respond(ctx, ageHistogram.get(this::computeAgeHistogram));
+    ctx.status(HttpStatus.OK);
+  }
+
+  private List<AgeBucket> computeAgeHistogram() {
+    List<Integer> boundaries = new ArrayList<>();
+    for (int age = 0; age <= REASONABLE_AGE_LIMIT; age += AGE_BUCKET_WIDTH) {
+      boundaries.add(age);
+    }
+    List<Bson> pipeline = List.of(Aggregates.bucket("$" + AGE_KEY, boundaries,
+      new BucketOptions().defaultBucket(OTHER_AGES).output(Accumulators.sum("count", 1))));
+
+    // `$bucket` leaves out empty buckets, but a histogram should have every bar.
+    List<AgeBucket> buckets = new ArrayList<>();
+    for (int i = 0; i + 1 < boundaries.size(); i++) {
+      AgeBucket bucket = new AgeBucket();
+      bucket.minAge = boundaries.get(i);
+      bucket.maxAge = boundaries.get(i + 1);
+      buckets.add(bucket);
+    }
+    AgeBucket others = new AgeBucket();
+    buckets.add(others);
+
+    for (Document group : rawUsers.aggregate(pipeline, Document.class)) {
+      long count = group.get("count", Number.class).longValue();
+      if (group.get("_id") instanceof Number) {
+        buckets.get(group.get("_id", Number.class).intValue() / AGE_BUCKET_WIDTH).count = count;
+      } else {
+        others.count = count;
+      }
+    }
+    return buckets;
+  }
+
+  /**
+   * Read and check the filters (age, company, and role) in a request.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the filters the request asked for
+   */
+  private UserFilter parseFilter(Context ctx) {
+    Integer age = null;
+    Integer minAge = null;
+    Integer maxAge = null;
+    String company = null;
+    String role = null;
 
     if (ctx.queryParamMap().containsKey(AGE_KEY)) /* .containsKey("age") */ {
-      int targetAge = ctx.queryParamAsClass(AGE_KEY, Integer.class)
+      age = ctx.queryParamAsClass(AGE_KEY, Integer.class)
         .check(it -> it > 0, "User's age must be greater than zero")
         .check(it -> it < REASONABLE_AGE_LIMIT, "User's age must be less than " + REASONABLE_AGE_LIMIT)
         .get();
-      filters.add(eq(AGE_KEY, targetAge));
+    }
+    // An age range includes `minAge` but not `maxAge`, so 25 to 40 is `minAge=25&maxAge=40`.
+    if (ctx.queryParamMap().containsKey(MIN_AGE_KEY)) {
+      minAge = ctx.queryParamAsClass(MIN_AGE_KEY, Integer.class)
+        .check(it -> it >= 0, "minAge must not be negative")
+        .check(it -> it < REASONABLE_AGE_LIMIT, "minAge must be less than " + REASONABLE_AGE_LIMIT)
+        .get();
+    }
+    if (ctx.queryParamMap().containsKey(MAX_AGE_KEY)) {
+      maxAge = ctx.queryParamAsClass(MAX_AGE_KEY, Integer.class)
+        .check(it -> it > 0, "maxAge must be greater than zero")
+        .check(it -> it <= REASONABLE_AGE_LIMIT, "maxAge must be at most " + REASONABLE_AGE_LIMIT)
+        .get();
+    }
+    if (minAge != null && maxAge != null && minAge >= maxAge) {
+      throw new BadRequestResponse("minAge must be less than maxAge");
     }
     if (ctx.queryParamMap().containsKey(COMPANY_KEY)) {
+      company = ctx.queryParam(COMPANY_KEY);
+    }
+    if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
+      role = ctx.queryParamAsClass(ROLE_KEY, String.class)
+        .check(it -> ROLE_PATTERN.matcher(it).matches(), "User must have a legal user role")
+        .get();
+    }
+    return new UserFilter(age, minAge, maxAge, company, role);
+  }
+
+  /**
+   * Turn the filters from a request into a MongoDB query.
+   *
+   * @param filter the filters the request asked for
+   * @return the query
+   */
+  private Bson constructFilter(UserFilter filter) {
+    List<Bson> filters = new ArrayList<>(); // start with a blank document
+
+    if (filter.age() != null) {
+      filters.add(eq(AGE_KEY, filter.age()));
+    }
+    // MongoDB merges these into one range on `age`, which comes after the
+    // sort field in our indexes (see `ensureIndexes()`), so it's checked as
+    // the index is scanned in order, and the users never need sorting.
+    if (filter.minAge() != null) {
+      filters.add(gte(AGE_KEY, filter.minAge()));
+    }
+    if (filter.maxAge() != null) {
+      filters.add(lt(AGE_KEY, filter.maxAge()));
+    }
+    if (filter.company() != null) {
       // options: "i" ignores the case, we're using regex() as the filter to
       // compare the string parameter "company" and match part of the string,
       // not the entire thing, we may need this for other string queries
-      filters.add(regex(COMPANY_KEY,  Pattern.quote(ctx.queryParam(COMPANY_KEY)), "i"));
+      filters.add(regex(COMPANY_KEY,  Pattern.quote(filter.company()), "i"));
     }
-    if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
-      String role = ctx.queryParamAsClass(ROLE_KEY, String.class)
-        .check(it -> it.matches(ROLE_REGEX), "User must have a legal user role")
-        .get();
+    if (filter.role() != null) {
       // this filter only has to be eq() [equals] because we use a drop down to select
       // from one of the three role options
-      filters.add(eq(ROLE_KEY, role));
+      filters.add(eq(ROLE_KEY, filter.role()));
     }
 
     // Combine the list of filters into a single filtering document.
@@ -146,12 +771,57 @@ public class UserController {
     // Sort the results. Use the `sortby` query param (default "name")
     // as the field to sort by, and the query param `sortorder` (default
     // "asc") to specify the sort order.
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
+    return sortingOrder(sortBy(ctx), sortDescending(ctx));
+  }
+
+  /**
+   * Build the sort for a field, with `_id` as a tie-breaker so that
+   * the order is the same every time (which paging depends on).
+   *
+   * @param sortBy the field to sort on (one of `SORT_FIELDS`)
+   * @param descending whether to sort in descending order
+   * @return the sort document
+   */
+  private Bson sortingOrder(String sortBy, boolean descending) {
     // if the sortOrder is "desc" then sortingOrder (Bson) = Sorts.descending() and whatever
     // we told Mongo to sort by (it'll be one of our HTTP parameters).
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    return sortingOrder;
+    return descending ? Sorts.descending(sortKeys(sortBy)) : Sorts.ascending(sortKeys(sortBy));
+  }
+
+  private String sortBy(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(SORT_BY_KEY)) {
+      return DEFAULT_SORT_FIELD;
+    }
+    return ctx.queryParamAsClass(SORT_BY_KEY, String.class)
+      .check(SORT_FIELDS::contains, "sortby must be one of " + String.join(", ", SORT_FIELDS))
+      .get();
+  }
+
+  private boolean sortDescending(Context ctx) {
+    return "desc".equals(Objects.requireNonNullElse(ctx.queryParam(SORT_ORDER_KEY), "asc"));
+  }
+
+  /**
+   * Get the value a user has for one of the fields in `SORT_FIELDS`,
+   * for use in a page cursor.
+   *
+   * @param user the user
+   * @param sortBy the field
+   * @return the user's value for that field
+   */
+  static Object sortValue(User user, String sortBy) {
+    switch (sortBy) {
+      case AGE_KEY:
+        return user.age;
+      case COMPANY_KEY:
+        return user.company;
+      case ROLE_KEY:
+        return user.role;
+      case "email":
+        return user.email;
+      default:
+        return user.name;
+    }
   }
 
   /**
@@ -171,20 +841,38 @@ public class UserController {
      *    - The provided age is > 0
      *    - The provided role is valid (one of "admin", "editor", or "viewer")
      *    - A non-blank company is provided
+     * and then, that no other user has the same email.
      */
     User newUser = ctx.bodyValidator(User.class)
       .check(usr -> usr.name != null && usr.name.length() > 0, "User must have a non-empty user name")
-      .check(usr -> usr.email.matches(EMAIL_REGEX), "User must have a legal email")
-      .check(usr -> usr.age > 0, "User's age must be greater than zero")
+      .check(usr -> EMAIL_PATTERN.matcher(usr.email).matches(), "User must have a legal email")
+      .check(usr -> usr.age != null && usr.age > 0, "User's age must be greater than zero")
       .check(usr -> usr.age < REASONABLE_AGE_LIMIT, "User's age must be less than " + REASONABLE_AGE_LIMIT)
-      .check(usr -> usr.role.matches(ROLE_REGEX), "User must have a legal user role")
+      .check(usr -> ROLE_PATTERN.matcher(usr.role).matches(), "User must have a legal user role")
       .check(usr -> usr.company != null && usr.company.length() > 0, "User must have a non-empty company name")
       .get();
 
+    if (!takenEmails(List.of(newUser.email)).isEmpty()) {
+      ctx.status(HttpStatus.CONFLICT);
+      throw new ConflictResponse(DUPLICATE_EMAIL);
+    }
+
     // Generate a user avatar (you won't need this part for todos)
     newUser.avatar = generateAvatar(newUser.email);
 
-    userCollection.insertOne(newUser);
+    try {
+      userCollection.insertOne(newUser);
+    } catch (MongoWriteException e) {
+      // Someone else added a user with this email since we checked.
+      if (isDuplicateKey(e.getError().getCode())) {
+        ctx.status(HttpStatus.CONFLICT);
+        throw new ConflictResponse(DUPLICATE_EMAIL);
+      }
+      throw e;
+    }
+    emails.add(newUser.email);
+    companyTrie.add(newUser.company);
+    userChanged(new ObjectId(newUser._id));
 
     ctx.json(Map.of("id", newUser._id));
     // 201 is the HTTP code for when we successfully
@@ -194,6 +882,200 @@ public class UserController {
     ctx.status(HttpStatus.CREATED);
   }
 
+  /**
+   * Add many users at once. The body of the request is either a stream of
+   * users in NDJSON (one JSON user per line) or a JSON array, or, if it's
+   * sent as `text/csv`, a CSV file whose first line names the columns
+   * (`name`, `age`, `company`, `email`, and `role`).
+   *
+   * The users are read as they arrive, a batch at a time. Each batch is
+   * checked, and given avatars, in parallel (on the common fork-join pool,
+   * so with one thread per core), and then the good users are inserted
+   * with a single unordered `insertMany`. So importing a whole company
+   * takes a handful of round trips to the database rather than one per
+   * user, and never holds more than a batch in memory. The response
+   * reports what happened to each user, by its position in the request.
+   * A user whose email is already taken (by an existing user, or by an
+   * earlier one in the import) fails with `DUPLICATE_EMAIL`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void importUsers(Context ctx) {
+    int batchSize = DEFAULT_BATCH_SIZE;
+    if (ctx.queryParamMap().containsKey(BATCH_SIZE_KEY)) {
+      batchSize = ctx.queryParamAsClass(BATCH_SIZE_KEY, Integer.class)
+        .check(it -> it > 0, "The batch size must be greater than zero")
+        .check(it -> it <= MAX_BATCH_SIZE, "The batch size must be at most " + MAX_BATCH_SIZE)
+        .get();
+    }
+    boolean csv = ctx.contentType() != null && ctx.contentType().startsWith(CSV_CONTENT_TYPE);
+
+    BulkReport report = new BulkReport();
+    List<JsonNode> batch = new ArrayList<>();
+    // Where the first user in the batch was in the request
+    int firstIndex = 0;
+
+    try (MappingIterator<JsonNode> items = (csv ? CSV_TREE_READER : JSON_TREE_READER)
+        .readValues(ctx.bodyInputStream())) {
+      while (items.hasNextValue()) {
+        batch.add(items.nextValue());
+        if (batch.size() == batchSize) {
+          importBatch(batch, firstIndex, report);
+          firstIndex += batchSize;
+          batch.clear();
+        }
+      }
+    } catch (IOException e) {
+      // We can't find where the next user starts in a broken body, so we
+      // stop here. Whatever was read before this point is still inserted.
+      report.failed(firstIndex + batch.size(),
+        "The request body isn't valid " + (csv ? "CSV" : "JSON") + " from this point on");
+    }
+    importBatch(batch, firstIndex, report);
+
+    report.results.sort(Comparator.comparingInt(item -> item.index));
+    ResponseFormat.respond(ctx, report);
+    ctx.status(report.inserted > 0 || report.failed == 0 ? HttpStatus.CREATED : HttpStatus.BAD_REQUEST);
+  }
+
+  /**
+   * Check a batch of users from a bulk import, insert the good ones, and
+   * record the outcome for each of them.
+   *
+   * @param batch the users, as trees
+   * @param firstIndex the position of the first of them in the request
+   * @param report where to record the outcomes
+   */
+  private void importBatch(List<JsonNode> batch, int firstIndex, BulkReport report) {
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    // Checking each user, and hashing its email for the avatar, doesn't
+    // depend on any of the others, so they're spread across all the cores.
+    String[] errors = new String[batch.size()];
+    User[] users = new User[batch.size()];
+    IntStream.range(0, batch.size()).parallel().forEach(i -> {
+      errors[i] = validateUser(batch.get(i));
+      if (errors[i] == null) {
+        users[i] = newUser(batch.get(i));
+      }
+    });
+
+    // One lookup for the whole batch, of just the emails that might be taken
+    List<String> batchEmails = new ArrayList<>();
+    for (User user : users) {
+      if (user != null) {
+        batchEmails.add(user.email);
+      }
+    }
+    Set<String> taken = takenEmails(batchEmails);
+
+    List<User> toInsert = new ArrayList<>();
+    // Where each user in `toInsert` was in the request
+    List<Integer> insertIndexes = new ArrayList<>();
+    for (int i = 0; i < batch.size(); i++) {
+      if (errors[i] != null) {
+        report.failed(firstIndex + i, errors[i]);
+      } else if (taken.contains(users[i].email)) {
+        report.failed(firstIndex + i, DUPLICATE_EMAIL);
+      } else {
+        toInsert.add(users[i]);
+        insertIndexes.add(firstIndex + i);
+      }
+    }
+    if (toInsert.isEmpty()) {
+      return;
+    }
+
+    // The insert is unordered, so MongoDB carries on past a user it can't
+    // insert and tells us afterwards which ones failed.
+    Set<Integer> failedPositions = new HashSet<>();
+    try {
+      userCollection.insertMany(toInsert, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      for (BulkWriteError error : e.getWriteErrors()) {
+        failedPositions.add(error.getIndex());
+        report.failed(insertIndexes.get(error.getIndex()),
+          isDuplicateKey(error.getCode()) ? DUPLICATE_EMAIL : error.getMessage());
+      }
+    }
+    List<User> inserted = new ArrayList<>();
+    for (int i = 0; i < toInsert.size(); i++) {
+      if (!failedPositions.contains(i)) {
+        report.succeeded(insertIndexes.get(i), toInsert.get(i)._id);
+        inserted.add(toInsert.get(i));
+      }
+    }
+    usersAdded(inserted);
+  }
+
+  /**
+   * Check that a user from a bulk import has all its fields, with legal
+   * values (the same checks as `addNewUser()` makes).
+   *
+   * @param item the user, as a tree
+   * @return what's wrong with the user, or `null` if it's fine
+   */
+  private static String validateUser(JsonNode item) {
+    if (!item.isObject()) {
+      return "User must be a JSON object";
+    }
+    if (!item.path("name").isTextual() || item.get("name").asText().isEmpty()) {
+      return "User must have a non-empty user name";
+    }
+    if (!item.path("email").isTextual() || !EMAIL_PATTERN.matcher(item.get("email").asText()).matches()) {
+      return "User must have a legal email";
+    }
+    Integer age = importedAge(item);
+    if (age == null || age <= 0) {
+      return "User's age must be greater than zero";
+    }
+    if (age >= REASONABLE_AGE_LIMIT) {
+      return "User's age must be less than " + REASONABLE_AGE_LIMIT;
+    }
+    if (!item.path(ROLE_KEY).isTextual() || !ROLE_PATTERN.matcher(item.get(ROLE_KEY).asText()).matches()) {
+      return "User must have a legal user role";
+    }
+    if (!item.path(COMPANY_KEY).isTextual() || item.get(COMPANY_KEY).asText().isEmpty()) {
+      return "User must have a non-empty company name";
+    }
+    return null;
+  }
+
+  /**
+   * Get the age of a user from a bulk import: a JSON integer, or (since
+   * everything in a CSV file is text) a string holding one.
+   *
+   * @param item the user, as a tree
+   * @return the age, or `null` if there isn't one
+   */
+  private static Integer importedAge(JsonNode item) {
+    JsonNode age = item.path(AGE_KEY);
+    if (age.isInt()) {
+      return age.intValue();
+    }
+    if (age.isTextual()) {
+      try {
+        return Integer.valueOf(age.asText().trim());
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private User newUser(JsonNode item) {
+    User user = new User();
+    user.name = item.get("name").asText();
+    user.age = importedAge(item);
+    user.company = item.get(COMPANY_KEY).asText();
+    user.email = item.get("email").asText();
+    user.role = item.get(ROLE_KEY).asText();
+    user.avatar = generateAvatar(user.email);
+    return user;
+  }
+
   /**
    * Delete the user specified by the `id` parameter in the request.
    *
@@ -201,17 +1083,57 @@ public class UserController {
    */
   public void deleteUser(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = userCollection.deleteOne(eq("_id", new ObjectId(id)));
-    if (deleteResult.getDeletedCount() != 1) {
+    ObjectId objectId = new ObjectId(id);
+    // We need the deleted user's company to take it out of `companyTrie`.
+    User deleted = userCollection.findOneAndDelete(eq("_id", objectId));
+    if (deleted == null) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
           + id
           + "; perhaps illegal ID or an ID for an item not in the system?");
     }
+    userChanged(objectId);
+    companyTrie.remove(deleted.company);
     ctx.status(HttpStatus.OK);
   }
 
+  /**
+   * Called after a user is added, changed, or deleted, to throw away
+   * anything we've cached that depended on it.
+   *
+   * @param id the id of the user that changed
+   */
+  private void userChanged(ObjectId id) {
+    userVersion.bump();
+    userCache.invalidate(id);
+    ageHistogram.invalidate();
+    if (snapshot != null) {
+      snapshot.put(id, userCollection.find(eq("_id", id)).first());
+    }
+  }
+
+  /**
+   * Called after a bulk import adds users. We already have every new user,
+   * so unlike `userChanged()` this doesn't read any of them back.
+   *
+   * @param users the users that were added
+   */
+  private void usersAdded(List<User> users) {
+    if (users.isEmpty()) {
+      return;
+    }
+    userVersion.bump();
+    ageHistogram.invalidate();
+    for (User user : users) {
+      emails.add(user.email);
+      companyTrie.add(user.company);
+      if (snapshot != null) {
+        snapshot.put(new ObjectId(user._id), user);
+      }
+    }
+  }
+
   /**
    * Utility function to generate an URI that points
    * at a unique avatar image based on a user's email.
@@ -245,10 +1167,12 @@ public class UserController {
     MessageDigest md = MessageDigest.getInstance("MD5");
     byte[] hashInBytes = md.digest(str.toLowerCase().getBytes(StandardCharsets.UTF_8));
 
-    StringBuilder result = new StringBuilder();
-    for (byte b : hashInBytes) {
-      result.append(String.format("%02x", b));
+    // Two hex digits per byte, looked up rather than `String.format`ted
+    char[] hex = new char[2 * hashInBytes.length];
+    for (int i = 0; i < hashInBytes.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(hashInBytes[i] >> NIBBLE_BITS) & NIBBLE_MASK];
+      hex[2 * i + 1] = HEX_DIGITS[hashInBytes[i] & NIBBLE_MASK];
     }
-    return result.toString();
+    return new String(hex);
   }
 }
@@ -0,0 +1,57 @@
+package umm3601.user;
+
+/**
+ * The filters a request for users asked for (age, company, and role),
+ * after they've been checked, but before they've been turned into a
+ * MongoDB query.
+ *
+ * `UserController.constructFilter()` turns one of these into a query for
+ * MongoDB, and `UserSnapshot` answers the same filters from memory.
+ */
+final class UserFilter {
+
+  private final Integer age;
+  private final Integer minAge;
+  private final Integer maxAge;
+  private final String company;
+  private final String role;
+
+  /**
+   * Create a filter.
+   *
+   * @param age the age to look for, or `null` for any age
+   * @param minAge the youngest age to look for, or `null` for no lower limit
+   * @param maxAge the age to look for users younger than, or `null` for no
+   *   upper limit
+   * @param company text to look for in the company name (ignoring case),
+   *   or `null` for any company
+   * @param role the role to look for, or `null` for any role
+   */
+  UserFilter(Integer age, Integer minAge, Integer maxAge, String company, String role) {
+    this.age = age;
+    this.minAge = minAge;
+    this.maxAge = maxAge;
+    this.company = company;
+    this.role = role;
+  }
+
+  Integer age() {
+    return age;
+  }
+
+  Integer minAge() {
+    return minAge;
+  }
+
+  Integer maxAge() {
+    return maxAge;
+  }
+
+  String company() {
+    return company;
+  }
+
+  String role() {
+    return role;
+  }
+}
@@ -0,0 +1,305 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import com.mongodb.client.MongoCollection;
+
+import org.bson.types.ObjectId;
+import org.roaringbitmap.RoaringBitmap;
+
+import umm3601.BitmapIndex;
+import umm3601.StringDictionary;
+
+/**
+ * An in-memory copy of the `users` collection, with a `BitmapIndex` on each
+ * of the fields `UserController.getUsers()` can filter on (`role`, `age`,
+ * and `company`), so that those filters are answered with a few bitmap
+ * ANDs instead of a query to MongoDB.
+ *
+ * Users are numbered with dense ordinals in the order they're added, and
+ * a user that's deleted just leaves a gap (it's dropped from every bitmap,
+ * including `live`). Like `TodoSnapshot`, this only sees changes that are
+ * made through the server, so it's only used when asked for (see
+ * `ServerOptions`).
+ */
+final class UserSnapshot {
+
+  // How to order users by each of `UserController.SORT_FIELDS`.
+  private static final Map<String, Comparator<User>> SORT_KEYS = Map.of(
+    "name", by(user -> user.name),
+    UserController.AGE_KEY, by(user -> user.age),
+    UserController.COMPANY_KEY, by(user -> user.company),
+    "email", by(user -> user.email),
+    UserController.ROLE_KEY, by(user -> user.role));
+
+  // Sorts of at least this many users are split across all the cores
+  // (as in `TodoSnapshot`); below it, the fork-join overhead isn't worth it.
+  static final int PARALLEL_THRESHOLD = 10000;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final List<User> users = new ArrayList<>();
+  private final Map<String, Integer> ordinals = new HashMap<>();
+  private final RoaringBitmap live = new RoaringBitmap();
+
+  private final StringDictionary roles = new StringDictionary();
+  private final StringDictionary companies = new StringDictionary();
+  private final BitmapIndex roleIndex = new BitmapIndex();
+  private final BitmapIndex companyIndex = new BitmapIndex();
+  // Keyed by the age itself, since there are only a few reasonable ones.
+  private final BitmapIndex ageIndex = new BitmapIndex();
+
+  /**
+   * Throw away whatever's in the snapshot and read every user from the database.
+   *
+   * @param userCollection the users collection
+   */
+  void load(MongoCollection<User> userCollection) {
+    lock.writeLock().lock();
+    try {
+      users.clear();
+      ordinals.clear();
+      live.clear();
+      roles.clear();
+      companies.clear();
+      roleIndex.clear();
+      companyIndex.clear();
+      ageIndex.clear();
+      for (User user : userCollection.find()) {
+        put(new ObjectId(user._id), user);
+      }
+      live.runOptimize();
+      roleIndex.optimize();
+      companyIndex.optimize();
+      ageIndex.optimize();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add, replace, or remove a user.
+   *
+   * @param id the user's id
+   * @param user the user as it now is in the database, or `null` if it's been deleted
+   */
+  void put(ObjectId id, User user) {
+    lock.writeLock().lock();
+    try {
+      String key = id.toHexString();
+      Integer ordinal = ordinals.get(key);
+      User old = null;
+      if (ordinal == null) {
+        if (user == null) {
+          return;
+        }
+        ordinal = users.size();
+        users.add(null);
+        ordinals.put(key, ordinal);
+      } else {
+        old = users.get(ordinal);
+      }
+
+      users.set(ordinal, user);
+      if (user == null) {
+        live.remove(ordinal);
+      } else {
+        live.add(ordinal);
+      }
+      roleIndex.move(ordinal, roleOf(old), roleOf(user));
+      companyIndex.move(ordinal, companyOf(old), companyOf(user));
+      ageIndex.move(ordinal, ageOf(old), ageOf(user));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private int roleOf(User user) {
+    return user == null ? BitmapIndex.NO_VALUE : roles.encode(user.role);
+  }
+
+  private int companyOf(User user) {
+    return user == null ? BitmapIndex.NO_VALUE : companies.encode(user.company);
+  }
+
+  private static int ageOf(User user) {
+    if (user == null || user.age == null || user.age <= 0 || user.age >= UserController.REASONABLE_AGE_LIMIT) {
+      // No request can ask for an age outside of these limits anyway.
+      return BitmapIndex.NO_VALUE;
+    }
+    return user.age;
+  }
+
+  /**
+   * Find the users that match a filter, as `UserController.constructFilter()`
+   * would have MongoDB do.
+   *
+   * @param filter the filters to apply
+   * @param sortBy the field to sort by (one of `UserController.SORT_FIELDS`)
+   * @param descending whether to sort in descending order
+   * @param fields the fields to fill in (from `SparseFields`), or `null` for all of them
+   * @param limit the most users to return, or 0 for all of them
+   * @return the matching users
+   */
+  List<User> find(UserFilter filter, String sortBy, boolean descending, Set<String> fields, int limit) {
+    lock.readLock().lock();
+    try {
+      RoaringBitmap matching = match(filter);
+      User[] matches = new User[matching.getCardinality()];
+      int count = 0;
+      for (int ordinal : matching) {
+        matches[count++] = users.get(ordinal);
+      }
+      Comparator<User> order = comparator(sortBy, descending);
+      User[] sorted = matches;
+      if (limit > 0 && limit < matches.length) {
+        // Only the first page is wanted, so keep just the first `limit` in
+        // a bounded heap rather than sorting them all (as `TodoSnapshot`
+        // does with `LongTopK`); big ones are split across all the cores.
+        IntStream range = IntStream.range(0, matches.length);
+        sorted = (matches.length >= PARALLEL_THRESHOLD ? range.parallel() : range)
+          .collect(() -> new FirstUsers(order, limit), (first, i) -> first.offer(matches[i]), FirstUsers::addAll)
+          .toSortedArray();
+      } else if (matches.length >= PARALLEL_THRESHOLD) {
+        // Big sorts are split across all the cores.
+        Arrays.parallelSort(sorted, order);
+      } else {
+        Arrays.sort(sorted, order);
+      }
+      List<User> result = new ArrayList<>(sorted.length);
+      for (User user : sorted) {
+        result.add(copy(user, fields));
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Count the users that match a filter.
+   *
+   * @param filter the filters to apply
+   * @return the number of users `find()` would return
+   */
+  int count(UserFilter filter) {
+    lock.readLock().lock();
+    try {
+      return match(filter).getCardinality();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private RoaringBitmap match(UserFilter filter) {
+    RoaringBitmap result = live;
+    if (filter.role() != null) {
+      result = RoaringBitmap.and(result, roleIndex.get(roles.codeOf(filter.role())));
+    }
+    if (filter.age() != null) {
+      result = RoaringBitmap.and(result, ageIndex.get(filter.age()));
+    }
+    if (filter.minAge() != null || filter.maxAge() != null) {
+      // There are only `REASONABLE_AGE_LIMIT` ages, so a range is just the
+      // union of the bitmaps for the ages in it.
+      int from = filter.minAge() == null ? 0 : Math.max(0, filter.minAge());
+      int to = filter.maxAge() == null ? UserController.REASONABLE_AGE_LIMIT
+        : Math.min(UserController.REASONABLE_AGE_LIMIT, filter.maxAge());
+      boolean[] ages = new boolean[UserController.REASONABLE_AGE_LIMIT];
+      for (int age = from; age < to; age++) {
+        ages[age] = true;
+      }
+      result = RoaringBitmap.and(result, ageIndex.any(ages));
+    }
+    if (filter.company() != null) {
+      // Like the regex we give MongoDB, this looks for the text anywhere in
+      // the company name, ignoring case; but it's only tried once per company.
+      Pattern company = Pattern.compile(Pattern.quote(filter.company()), Pattern.CASE_INSENSITIVE);
+      result = RoaringBitmap.and(result, companyIndex.any(companies.matching(name -> company.matcher(name).find())));
+    }
+    return result;
+  }
+
+  /**
+   * Order users by a field the way MongoDB does, with missing values first.
+   */
+  private static <T extends Comparable<T>> Comparator<User> by(Function<User, T> field) {
+    return Comparator.comparing(field, Comparator.nullsFirst(Comparator.naturalOrder()));
+  }
+
+  /**
+   * Since MongoDB doesn't promise anything about the order of ties, we
+   * break them by `_id` so the order is at least the same every time.
+   * Descending puts missing values last, as MongoDB does.
+   */
+  private static Comparator<User> comparator(String sortBy, boolean descending) {
+    Comparator<User> comparator = SORT_KEYS.get(sortBy).thenComparing(user -> user._id);
+    return descending ? comparator.reversed() : comparator;
+  }
+
+  /**
+   * The first `limit` users offered, in a given order, kept in a bounded
+   * heap with the last of them on top, ready to be pushed out by anything
+   * that comes before it. Like `LongTopK`, it isn't thread-safe, but
+   * several can be filled in parallel and then combined with `addAll()`.
+   */
+  private static final class FirstUsers {
+    private final Comparator<User> order;
+    private final int limit;
+    private final PriorityQueue<User> heap;
+
+    FirstUsers(Comparator<User> order, int limit) {
+      this.order = order;
+      this.limit = limit;
+      this.heap = new PriorityQueue<>(limit, order.reversed());
+    }
+
+    void offer(User user) {
+      if (heap.size() < limit) {
+        heap.add(user);
+      } else if (order.compare(user, heap.peek()) < 0) {
+        heap.poll();
+        heap.add(user);
+      }
+    }
+
+    void addAll(FirstUsers other) {
+      for (User user : other.heap) {
+        offer(user);
+      }
+    }
+
+    User[] toSortedArray() {
+      User[] users = heap.toArray(new User[0]);
+      Arrays.sort(users, order);
+      return users;
+    }
+  }
+
+  private static User copy(User user, Set<String> fields) {
+    User copy = new User();
+    copy._id = user._id;
+    copy.name = wanted(fields, "name") ? user.name : null;
+    copy.age = wanted(fields, UserController.AGE_KEY) ? user.age : null;
+    copy.company = wanted(fields, UserController.COMPANY_KEY) ? user.company : null;
+    copy.email = wanted(fields, "email") ? user.email : null;
+    copy.avatar = wanted(fields, "avatar") ? user.avatar : null;
+    copy.role = wanted(fields, UserController.ROLE_KEY) ? user.role : null;
+    return copy;
+  }
+
+  private static boolean wanted(Set<String> fields, String field) {
+    return fields == null || fields.contains(field);
+  }
+}
@@ -0,0 +1,62 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a BitmapIndex keeps track of which documents have each value.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class BitmapIndexSpec {
+
+  private BitmapIndex index;
+
+  @BeforeEach
+  public void setupEach() {
+    index = new BitmapIndex();
+    // Documents 0-3 have value 0, 4-5 have value 2, and 6 has none.
+    for (int ordinal = 0; ordinal < 4; ordinal++) {
+      index.move(ordinal, BitmapIndex.NO_VALUE, 0);
+    }
+    index.move(4, BitmapIndex.NO_VALUE, 2);
+    index.move(5, BitmapIndex.NO_VALUE, 2);
+    index.move(6, BitmapIndex.NO_VALUE, BitmapIndex.NO_VALUE);
+  }
+
+  @Test
+  public void findsDocumentsWithAValue() {
+    assertArrayEquals(new int[] {0, 1, 2, 3}, index.get(0).toArray());
+    assertArrayEquals(new int[] {4, 5}, index.get(2).toArray());
+    assertEquals(2, index.count(2));
+  }
+
+  @Test
+  public void unknownValuesHaveNoDocuments() {
+    assertTrue(index.get(1).isEmpty());
+    assertTrue(index.get(7).isEmpty());
+    assertTrue(index.get(BitmapIndex.NO_VALUE).isEmpty());
+  }
+
+  @Test
+  public void findsDocumentsWithAnyOfSeveralValues() {
+    assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5}, index.any(new boolean[] {true, false, true}).toArray());
+    assertArrayEquals(new int[] {4, 5}, index.any(new boolean[] {false, true, true, true}).toArray());
+    assertTrue(index.any(new boolean[] {}).isEmpty());
+  }
+
+  @Test
+  public void movesDocumentsBetweenValues() {
+    index.move(3, 0, 2);
+    index.move(4, 2, BitmapIndex.NO_VALUE);
+    index.move(6, BitmapIndex.NO_VALUE, 1);
+    index.optimize();
+
+    assertArrayEquals(new int[] {0, 1, 2}, index.get(0).toArray());
+    assertArrayEquals(new int[] {6}, index.get(1).toArray());
+    assertArrayEquals(new int[] {3, 5}, index.get(2).toArray());
+  }
+}
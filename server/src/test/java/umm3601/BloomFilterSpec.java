@@ -0,0 +1,79 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that BloomFilter never forgets a value it's been given, and
+ * rarely claims one it hasn't.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class BloomFilterSpec {
+
+  @Test
+  public void remembersEverythingAdded() {
+    BloomFilter filter = new BloomFilter(1000, 0.01);
+    for (int i = 0; i < 1000; i++) {
+      filter.add("user" + i + "@example.com");
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(filter.mightContain("user" + i + "@example.com"));
+    }
+  }
+
+  @Test
+  public void emptyFilterContainsNothing() {
+    BloomFilter filter = new BloomFilter(10, 0.01);
+
+    assertFalse(filter.mightContain("anyone@example.com"));
+    assertFalse(filter.mightContain(""));
+    assertFalse(filter.mightContain(null));
+    filter.add(null);
+    assertFalse(filter.mightContain(null));
+  }
+
+  @Test
+  public void falsePositivesAreAboutAsRareAsAskedFor() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.add("user" + i + "@example.com");
+    }
+
+    long falsePositives = IntStream.range(0, 100000)
+      .filter(i -> filter.mightContain("stranger" + i + "@example.com"))
+      .count();
+    // 1% of 100,000 is 1,000; allow plenty of slack for chance
+    assertTrue(falsePositives < 2000, "Too many false positives: " + falsePositives);
+  }
+
+  @Test
+  public void isSizedForTheExpectedValues() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+
+    // About 9.6 bits and 7 hashes per value for a 1% false-positive rate
+    assertTrue(filter.bitCount() >= 95851);
+    assertEquals(7, filter.hashCount());
+  }
+
+  @Test
+  public void canBeFilledFromManyThreads() {
+    BloomFilter filter = new BloomFilter(50000, 0.01);
+    IntStream.range(0, 50000).parallel().forEach(i -> filter.add("user" + i));
+
+    assertTrue(IntStream.range(0, 50000).allMatch(i -> filter.mightContain("user" + i)));
+  }
+
+  @Test
+  public void rejectsImpossibleSizes() {
+    assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 0.01));
+    assertThrows(IllegalArgumentException.class, () -> new BloomFilter(10, 0));
+    assertThrows(IllegalArgumentException.class, () -> new BloomFilter(10, 1));
+  }
+}
@@ -0,0 +1,76 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests when a CachedValue reuses its value and when it recomputes it.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class CachedValueSpec {
+
+  // A fake clock (in nanoseconds) that the tests move forward by hand.
+  private AtomicLong now;
+  // How many times the value has been computed.
+  private AtomicInteger loads;
+
+  @BeforeEach
+  public void setupEach() {
+    now = new AtomicLong();
+    loads = new AtomicInteger();
+  }
+
+  private Integer load() {
+    return loads.incrementAndGet();
+  }
+
+  @Test
+  public void reusesValueUntilItExpires() {
+    CachedValue<Integer> cache = new CachedValue<>(10, TimeUnit.SECONDS, now::get);
+
+    assertEquals(1, cache.get(this::load));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(9));
+    assertEquals(1, cache.get(this::load));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals(2, cache.get(this::load));
+  }
+
+  @Test
+  public void invalidateForcesRecompute() {
+    CachedValue<Integer> cache = new CachedValue<>(10, TimeUnit.SECONDS, now::get);
+
+    assertEquals(1, cache.get(this::load));
+    cache.invalidate();
+    assertEquals(2, cache.get(this::load));
+    assertEquals(2, cache.get(this::load));
+  }
+
+  @Test
+  public void zeroTtlNeverExpires() {
+    CachedValue<Integer> cache = new CachedValue<>(0, TimeUnit.SECONDS, now::get);
+
+    assertEquals(1, cache.get(this::load));
+    now.addAndGet(TimeUnit.DAYS.toNanos(365));
+    assertEquals(1, cache.get(this::load));
+    cache.invalidate();
+    assertEquals(2, cache.get(this::load));
+  }
+
+  @Test
+  public void valueComputedDuringInvalidateIsNotReused() {
+    CachedValue<Integer> cache = new CachedValue<>(10, TimeUnit.SECONDS, now::get);
+
+    // The data changes (and the cache is invalidated) while the value is being computed
+    assertEquals(1, cache.get(() -> {
+      cache.invalidate();
+      return load();
+    }));
+    assertEquals(2, cache.get(this::load));
+  }
+}
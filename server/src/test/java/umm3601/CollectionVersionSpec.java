@@ -0,0 +1,114 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+import jakarta.servlet.http.HttpServletResponse;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests the ETags a CollectionVersion hands out, and when it
+ * answers a conditional GET with `304 Not Modified`.
+ */
+public class CollectionVersionSpec {
+
+  private CollectionVersion version;
+
+  @BeforeEach
+  public void setupEach() {
+    version = new CollectionVersion();
+  }
+
+  private Context request(String path, String queryString, String ifNoneMatch) {
+    Context ctx = mock(Context.class);
+    when(ctx.path()).thenReturn(path);
+    when(ctx.queryString()).thenReturn(queryString);
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(ifNoneMatch);
+    return ctx;
+  }
+
+  @Test
+  public void etagChangesWhenVersionIsBumped() {
+    Context ctx = request("/api/todos", "owner=Fry", null);
+
+    String before = version.etag(ctx);
+    assertEquals(before, version.etag(ctx));
+    version.bump();
+    assertNotEquals(before, version.etag(ctx));
+  }
+
+  @Test
+  public void etagDependsOnRequest() {
+    assertNotEquals(
+      version.etag(request("/api/todos", "owner=Fry", null)),
+      version.etag(request("/api/todos", "owner=Sam", null)));
+  }
+
+  @Test
+  public void matchingTagIsNotModified() {
+    String etag = version.etag(request("/api/todos", null, null));
+    Context ctx = request("/api/todos", null, etag);
+
+    assertTrue(version.notModified(ctx));
+    verify(ctx).header(Header.ETAG, etag);
+    verify(ctx).header(Header.VARY, Header.ACCEPT);
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+  }
+
+  @Test
+  public void failedResponsesLoseTheirETag() {
+    for (HttpStatus status : new HttpStatus[] {HttpStatus.BAD_REQUEST, HttpStatus.NOT_FOUND}) {
+      Context ctx = request("/api/todos", null, null);
+      HttpServletResponse res = mock(HttpServletResponse.class);
+      when(ctx.res()).thenReturn(res);
+      when(ctx.statusCode()).thenReturn(status.getCode());
+
+      CollectionVersion.dropUnlessSuccessful(ctx);
+      verify(res).setHeader(Header.ETAG, null);
+    }
+  }
+
+  @Test
+  public void successfulResponsesKeepTheirETag() {
+    for (HttpStatus status : new HttpStatus[] {HttpStatus.OK, HttpStatus.NOT_MODIFIED}) {
+      Context ctx = request("/api/todos", null, null);
+      HttpServletResponse res = mock(HttpServletResponse.class);
+      when(ctx.res()).thenReturn(res);
+      when(ctx.statusCode()).thenReturn(status.getCode());
+
+      CollectionVersion.dropUnlessSuccessful(ctx);
+      verify(res, never()).setHeader(Header.ETAG, null);
+    }
+  }
+
+  @Test
+  public void weakAndListedTagsMatch() {
+    String etag = version.etag(request("/api/todos", null, null));
+
+    assertTrue(version.notModified(request("/api/todos", null, "W/" + etag)));
+    assertTrue(version.notModified(request("/api/todos", null, "\"other\", " + etag)));
+    assertTrue(version.notModified(request("/api/todos", null, "*")));
+  }
+
+  @Test
+  public void staleOrMissingTagIsModified() {
+    String etag = version.etag(request("/api/todos", null, null));
+    version.bump();
+
+    Context stale = request("/api/todos", null, etag);
+    assertFalse(version.notModified(stale));
+    verify(stale, never()).status(HttpStatus.NOT_MODIFIED);
+    assertFalse(version.notModified(request("/api/todos", null, null)));
+  }
+}
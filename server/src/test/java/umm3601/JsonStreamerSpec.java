@@ -0,0 +1,58 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the output of the JsonStreamer in both of its formats.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class JsonStreamerSpec {
+
+  private final List<Map<String, Object>> documents = List.of(
+    Map.of("owner", "Fry"),
+    Map.of("owner", "Egg"),
+    Map.of("owner", "Sam"));
+
+  @Test
+  public void writesOneDocumentPerLineForNdjson() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    long count = JsonStreamer.write(documents.iterator(), out, true);
+
+    assertEquals(3, count);
+    assertEquals(
+      "{\"owner\":\"Fry\"}\n{\"owner\":\"Egg\"}\n{\"owner\":\"Sam\"}\n",
+      out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void writesJsonArrayWhenNotNdjson() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    long count = JsonStreamer.write(documents.iterator(), out, false);
+
+    assertEquals(3, count);
+    assertEquals(
+      "[{\"owner\":\"Fry\"},{\"owner\":\"Egg\"},{\"owner\":\"Sam\"}]",
+      out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void writesEmptyArrayForNoDocuments() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    long count = JsonStreamer.write(Collections.emptyIterator(), out, false);
+
+    assertEquals(0, count);
+    assertEquals("[]", out.toString(StandardCharsets.UTF_8));
+  }
+}
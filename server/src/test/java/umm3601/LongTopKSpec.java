@@ -0,0 +1,50 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that LongTopK keeps exactly the smallest values it's offered.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class LongTopKSpec {
+
+  @Test
+  public void keepsTheSmallestValues() {
+    LongTopK top = new LongTopK(3);
+    for (long value : new long[] {5, 1, 9, -4, 7, 1, 3}) {
+      top.offer(value);
+    }
+
+    assertEquals(3, top.size());
+    assertArrayEquals(new long[] {-4, 1, 1}, top.toSortedArray());
+  }
+
+  @Test
+  public void keepsEverythingWhenOfferedFewerThanK() {
+    LongTopK top = new LongTopK(10);
+    top.offer(2);
+    top.offer(1);
+
+    assertArrayEquals(new long[] {1, 2}, top.toSortedArray());
+    assertArrayEquals(new long[] {}, new LongTopK(0).toSortedArray());
+  }
+
+  @Test
+  public void parallelHeapsCombineToTheSameAnswer() {
+    long[] values = new Random(3601).longs(100000).toArray();
+    long[] expected = values.clone();
+    Arrays.sort(expected);
+
+    LongTopK top = IntStream.range(0, values.length).parallel()
+      .collect(() -> new LongTopK(25), (heap, i) -> heap.offer(values[i]), LongTopK::addAll);
+
+    assertArrayEquals(Arrays.copyOf(expected, 25), top.toSortedArray());
+  }
+}
@@ -0,0 +1,105 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests when an LruCache answers from memory, when it goes back to
+ * the loader, and which entries it throws out when it's full.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class LruCacheSpec {
+
+  // A fake clock (in nanoseconds) that the tests move forward by hand.
+  private AtomicLong now;
+  // How many times the loader has been called.
+  private AtomicInteger loads;
+
+  @BeforeEach
+  public void setupEach() {
+    now = new AtomicLong();
+    loads = new AtomicInteger();
+  }
+
+  private String load(String key) {
+    loads.incrementAndGet();
+    return key.toUpperCase();
+  }
+
+  @Test
+  public void reusesValueUntilItExpires() {
+    LruCache<String, String> cache = new LruCache<>(10, 60, TimeUnit.SECONDS, now::get);
+
+    assertEquals("A", cache.get("a", this::load));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    assertEquals("A", cache.get("a", this::load));
+    assertEquals(1, loads.get());
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals("A", cache.get("a", this::load));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    LruCache<String, String> cache = new LruCache<>(2, 60, TimeUnit.SECONDS, now::get);
+
+    cache.get("a", this::load);
+    cache.get("b", this::load);
+    // Using "a" again makes "b" the least recently used
+    cache.get("a", this::load);
+    cache.get("c", this::load);
+    assertEquals(2, cache.size());
+    assertEquals(3, loads.get());
+
+    cache.get("a", this::load);
+    assertEquals(3, loads.get());
+    cache.get("b", this::load);
+    assertEquals(4, loads.get());
+  }
+
+  @Test
+  public void invalidateForcesReload() {
+    LruCache<String, String> cache = new LruCache<>(10, 60, TimeUnit.SECONDS, now::get);
+
+    cache.get("a", this::load);
+    cache.get("b", this::load);
+    cache.invalidate("a");
+    cache.get("a", this::load);
+    cache.get("b", this::load);
+    assertEquals(3, loads.get());
+
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+    cache.get("b", this::load);
+    assertEquals(4, loads.get());
+  }
+
+  @Test
+  public void missingValuesAreNotCached() {
+    LruCache<String, String> cache = new LruCache<>(10, 60, TimeUnit.SECONDS, now::get);
+
+    assertNull(cache.get("a", key -> null));
+    assertEquals(0, cache.size());
+    assertEquals("A", cache.get("a", this::load));
+  }
+
+  @Test
+  public void valueLoadedDuringInvalidateIsNotKept() {
+    LruCache<String, String> cache = new LruCache<>(10, 60, TimeUnit.SECONDS, now::get);
+
+    // The document changes (and is invalidated) while it's being loaded
+    assertEquals("A", cache.get("a", key -> {
+      cache.invalidate(key);
+      return load(key);
+    }));
+    assertEquals(0, cache.size());
+  }
+}
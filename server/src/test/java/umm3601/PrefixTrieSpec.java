@@ -0,0 +1,100 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that PrefixTrie suggests the most common values for a prefix,
+ * and keeps doing so as values are added and removed.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class PrefixTrieSpec {
+
+  private PrefixTrie trie;
+
+  @BeforeEach
+  public void setupEach() {
+    trie = new PrefixTrie(value -> value.toLowerCase(Locale.ROOT));
+    trie.add("OHMNET", 2);
+    trie.add("Ohio Widgets");
+    trie.add("IBM", 3);
+    trie.add("UMM");
+    trie.add("Ohm");
+  }
+
+  private static List<String> values(List<Suggestion> suggestions) {
+    return suggestions.stream().map(suggestion -> suggestion.value).collect(Collectors.toList());
+  }
+
+  private static List<Long> counts(List<Suggestion> suggestions) {
+    return suggestions.stream().map(suggestion -> suggestion.count).collect(Collectors.toList());
+  }
+
+  @Test
+  public void suggestsMostCommonFirstIgnoringCase() {
+    List<Suggestion> suggestions = trie.complete("oh", 10);
+
+    assertEquals(List.of("OHMNET", "Ohio Widgets", "Ohm"), values(suggestions));
+    assertEquals(List.of(2L, 1L, 1L), counts(suggestions));
+    assertEquals(List.of("OHMNET", "Ohm"), values(trie.complete("OHM", 10)));
+    assertEquals(List.of("OHMNET"), values(trie.complete("ohmn", 10)));
+    assertEquals(List.of(), values(trie.complete("ohx", 10)));
+    assertEquals(List.of(), values(trie.complete("ohmnetwork", 10)));
+  }
+
+  @Test
+  public void emptyPrefixSuggestsEverythingUpToTheLimit() {
+    assertEquals(List.of("IBM", "OHMNET", "Ohio Widgets"), values(trie.complete("", 3)));
+    assertEquals(5, trie.complete("", 10).size());
+  }
+
+  @Test
+  public void keepsUpWithAddsAndRemoves() {
+    trie.add("ohm", 4);
+    trie.remove("OHMNET");
+    trie.remove("OHMNET");
+    trie.remove("Nobody");
+    trie.add(null);
+
+    // "ohm" is counted along with "Ohm", under the first spelling we saw
+    assertEquals(List.of("Ohm", "Ohio Widgets"), values(trie.complete("o", 10)));
+    assertEquals(List.of(5L, 1L), counts(trie.complete("o", 10)));
+
+    trie.clear();
+    assertEquals(List.of(), values(trie.complete("", 10)));
+  }
+
+  @Test
+  public void agreesWithSortingEverything() {
+    PrefixTrie numbers = new PrefixTrie(UnaryOperator.identity());
+    Random random = new Random(3601);
+    Map<String, Long> expected = new TreeMap<>();
+    for (int i = 0; i < 5000; i++) {
+      String value = Integer.toString(random.nextInt(2000), 4);
+      long delta = random.nextInt(4) == 0 ? -1 : 1;
+      numbers.add(value, delta);
+      expected.put(value, Math.max(0, expected.getOrDefault(value, 0L) + delta));
+    }
+
+    for (String prefix : List.of("", "1", "23", "302", "1111")) {
+      List<String> sorted = new ArrayList<>();
+      expected.entrySet().stream()
+        .filter(entry -> entry.getKey().startsWith(prefix) && entry.getValue() > 0)
+        .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+        .limit(20)
+        .forEach(entry -> sorted.add(entry.getKey()));
+      assertEquals(sorted, values(numbers.complete(prefix, 20)), prefix);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that RawBsonJson writes the same JSON Jackson would for our POJOs.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class RawBsonJsonSpec {
+
+  private static RawBsonDocument raw(Document document) {
+    return new RawBsonDocument(document, new DocumentCodec());
+  }
+
+  private static String json(RawBsonDocument... documents) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonStreamer.write(List.of(documents).iterator(), out, false);
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void writesObjectIdsAsHexStrings() throws IOException {
+    ObjectId id = new ObjectId();
+
+    assertEquals(
+      "[{\"_id\":\"" + id.toHexString() + "\",\"owner\":\"Fry\",\"status\":true}]",
+      json(raw(new Document("_id", id).append("owner", "Fry").append("status", true))));
+  }
+
+  @Test
+  public void leavesOutNullFields() throws IOException {
+    assertEquals(
+      "[{\"owner\":\"Fry\"}]",
+      json(raw(new Document("owner", "Fry").append("body", null))));
+  }
+
+  @Test
+  public void writesNumbersAndNestedValues() throws IOException {
+    Document document = new Document("age", 25)
+      .append("count", 3_000_000_000L)
+      .append("score", 1.5)
+      .append("tags", List.of("a", "b"))
+      .append("nested", new Document("ok", false));
+
+    assertEquals(
+      "[{\"age\":25,\"count\":3000000000,\"score\":1.5,\"tags\":[\"a\",\"b\"],\"nested\":{\"ok\":false}}]",
+      json(raw(document)));
+  }
+
+  @Test
+  public void writesSeveralDocuments() throws IOException {
+    assertEquals(
+      "[{\"owner\":\"Fry\"},{\"owner\":\"Egg\"}]",
+      json(raw(new Document("owner", "Fry")), raw(new Document("owner", "Egg"))));
+  }
+}
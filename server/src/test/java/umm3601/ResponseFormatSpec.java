@@ -0,0 +1,86 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+/**
+ * Tests which format ResponseFormat picks for an `Accept` header,
+ * and that what it sends can be read back.
+ */
+public class ResponseFormatSpec {
+
+  @Test
+  public void jsonUnlessBinaryFormatIsAskedFor() {
+    assertNull(ResponseFormat.negotiate(null));
+    assertNull(ResponseFormat.negotiate("application/json"));
+    assertNull(ResponseFormat.negotiate("text/html,application/xhtml+xml,*/*;q=0.8"));
+    assertNull(ResponseFormat.negotiate("application/x-ndjson"));
+  }
+
+  @Test
+  public void picksBinaryFormats() {
+    ResponseFormat cbor = ResponseFormat.negotiate(ResponseFormat.CBOR_CONTENT_TYPE);
+    ResponseFormat smile = ResponseFormat.negotiate(ResponseFormat.SMILE_CONTENT_TYPE);
+    ResponseFormat msgpack = ResponseFormat.negotiate(ResponseFormat.MSGPACK_CONTENT_TYPE);
+    assertNotNull(cbor);
+    assertNotNull(smile);
+    assertNotNull(msgpack);
+    assertNotSame(cbor, smile);
+
+    assertSame(smile, ResponseFormat.negotiate("application/x-jackson-smile, application/json;q=0.9"));
+    assertSame(msgpack, ResponseFormat.negotiate("application/msgpack"));
+  }
+
+  @Test
+  public void honorsQualityValues() {
+    assertNull(ResponseFormat.negotiate("application/cbor;q=0.5, application/json"));
+    assertNull(ResponseFormat.negotiate("application/json, application/cbor"));
+    assertSame(ResponseFormat.negotiate("application/cbor"),
+      ResponseFormat.negotiate("application/json;q=0.1, application/cbor"));
+  }
+
+  @Test
+  public void respondSendsJsonByDefault() {
+    Context ctx = mock(Context.class);
+    Map<String, String> value = Map.of("id", "abc");
+
+    ResponseFormat.respond(ctx, value);
+
+    verify(ctx).json(value);
+    verify(ctx, never()).result(any(byte[].class));
+  }
+
+  @Test
+  public void respondSendsCborWhenAskedFor() throws IOException {
+    Context ctx = mock(Context.class);
+    when(ctx.header(Header.ACCEPT)).thenReturn(ResponseFormat.CBOR_CONTENT_TYPE);
+    ArgumentCaptor<byte[]> bytesCaptor = ArgumentCaptor.forClass(byte[].class);
+
+    ResponseFormat.respond(ctx, Map.of("id", "abc"));
+
+    verify(ctx).contentType(ResponseFormat.CBOR_CONTENT_TYPE);
+    verify(ctx).result(bytesCaptor.capture());
+    verify(ctx, never()).json(any());
+    ObjectMapper cbor = ResponseFormat.mapperFor(ResponseFormat.CBOR_CONTENT_TYPE);
+    assertEquals("abc", cbor.readTree(bytesCaptor.getValue()).get("id").asText());
+  }
+}
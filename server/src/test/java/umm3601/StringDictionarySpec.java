@@ -0,0 +1,43 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a StringDictionary gives each distinct value its own code.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class StringDictionarySpec {
+
+  @Test
+  public void givesEachDistinctValueOneCode() {
+    StringDictionary dictionary = new StringDictionary();
+
+    assertEquals(0, dictionary.encode("viewer"));
+    assertEquals(1, dictionary.encode("admin"));
+    assertEquals(0, dictionary.encode("viewer"));
+    assertEquals(BitmapIndex.NO_VALUE, dictionary.encode(null));
+
+    assertEquals(2, dictionary.size());
+    assertEquals("admin", dictionary.decode(1));
+    assertNull(dictionary.decode(BitmapIndex.NO_VALUE));
+    assertEquals(1, dictionary.codeOf("admin"));
+    assertEquals(BitmapIndex.NO_VALUE, dictionary.codeOf("editor"));
+  }
+
+  @Test
+  public void testsAndRanksEachValueOnce() {
+    StringDictionary dictionary = new StringDictionary();
+    dictionary.encode("Fry");
+    dictionary.encode("egg");
+    dictionary.encode("Egg");
+
+    assertArrayEquals(new boolean[] {false, true, true}, dictionary.matching(value -> value.equalsIgnoreCase("egg")));
+    // Ranked case-insensitively, the two eggs tie
+    assertArrayEquals(new int[] {1, 0, 0}, dictionary.ranks(String::toLowerCase));
+    assertArrayEquals(new int[] {1, 2, 0}, dictionary.ranks(value -> value));
+  }
+}
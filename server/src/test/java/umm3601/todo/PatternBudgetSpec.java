@@ -0,0 +1,45 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests which owner patterns PatternBudget lets through to MongoDB.
+ */
+public class PatternBudgetSpec {
+
+  @Test
+  public void acceptsSimplePatterns() {
+    assertTrue(PatternBudget.isWithinBudget("^fry$"));
+    assertTrue(PatternBudget.isWithinBudget("^(fr|sa)"));
+    assertTrue(PatternBudget.isWithinBudget("w[a-z]+on"));
+    assertTrue(PatternBudget.isWithinBudget("(?:ab)+"));
+    assertTrue(PatternBudget.isWithinBudget("[(+*)]+"));
+  }
+
+  @Test
+  public void rejectsNestedRepetition() {
+    assertFalse(PatternBudget.isWithinBudget("(a+)+$"));
+    assertFalse(PatternBudget.isWithinBudget("(a|aa)*b"));
+    assertFalse(PatternBudget.isWithinBudget("((a*))+"));
+    assertFalse(PatternBudget.isWithinBudget("(.*a){10}"));
+    assertFalse(PatternBudget.isWithinBudget("(\\d+)*x"));
+  }
+
+  @Test
+  public void rejectsBackreferencesAndLookaround() {
+    assertFalse(PatternBudget.isWithinBudget("(a)\\1"));
+    assertFalse(PatternBudget.isWithinBudget("fry(?=x)"));
+    assertFalse(PatternBudget.isWithinBudget("(?<!x)fry"));
+  }
+
+  @Test
+  public void rejectsLongAndInvalidPatterns() {
+    assertFalse(PatternBudget.isWithinBudget(""));
+    assertFalse(PatternBudget.isWithinBudget("a".repeat(PatternBudget.MAX_LENGTH + 1)));
+    assertFalse(PatternBudget.isWithinBudget("a*".repeat(PatternBudget.MAX_QUANTIFIERS + 1)));
+    assertFalse(PatternBudget.isWithinBudget("(unclosed"));
+  }
+}
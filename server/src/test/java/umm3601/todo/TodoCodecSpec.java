@@ -0,0 +1,80 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that TodoCodec reads and writes todos the way MongoJack does.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoCodecSpec {
+
+  private final TodoCodec codec = new TodoCodec();
+
+  private Todo decode(BsonDocument document) {
+    return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+  }
+
+  private BsonDocument encode(Todo todo) {
+    BsonDocument document = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(document), todo, EncoderContext.builder().build());
+    return document;
+  }
+
+  @Test
+  public void decodesStoredTodo() {
+    ObjectId id = new ObjectId();
+    Todo todo = decode(BsonDocument.parse("{"
+      + "_id: {$oid: '" + id.toHexString() + "'},"
+      + "owner: 'Fry', status: true, body: 'Lorem ipsum', category: 'video games',"
+      + "ownerLower: 'fry', bodyLength: 11, extra: {nested: [1, 2, 3]}}"));
+
+    assertEquals(id.toHexString(), todo._id);
+    assertEquals("Fry", todo.owner);
+    assertEquals(true, todo.status);
+    assertEquals("Lorem ipsum", todo.body);
+    assertEquals("video games", todo.category);
+    assertNull(todo.score);
+  }
+
+  @Test
+  public void decodesProjectedTodo() {
+    Todo todo = decode(BsonDocument.parse("{_id: {$oid: '" + new ObjectId().toHexString() + "'},"
+      + "owner: 'Fry', body: null, score: 1.5}"));
+
+    assertEquals("Fry", todo.owner);
+    assertNull(todo.status);
+    assertNull(todo.body);
+    assertEquals(1.5, todo.score);
+  }
+
+  @Test
+  public void encodesTodoWithQueryFields() {
+    Todo todo = new Todo();
+    todo.owner = "Fry";
+    todo.status = false;
+    todo.body = "Lorem";
+    codec.generateIdIfAbsentFromDocument(todo);
+
+    BsonDocument document = encode(todo);
+
+    assertNotNull(todo._id);
+    assertEquals(todo._id, document.getObjectId("_id").getValue().toHexString());
+    assertEquals("Fry", document.getString("owner").getValue());
+    assertFalse(document.getBoolean("status").getValue());
+    assertFalse(document.containsKey("category"));
+    assertEquals("fry", document.getString(TodoController.OWNER_LOWER_KEY).getValue());
+    assertEquals(5, document.getInt32(TodoController.BODY_LENGTH_KEY).getValue());
+    assertEquals(todo.owner, decode(document).owner);
+  }
+}
@@ -1,31 +1,51 @@
 package umm3601.todo;
 
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.ArgumentMatchers.argThat;
 //import static com.mongodb.client.model.Filters.eq;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 //import static org.junit.jupiter.api.Assertions.assertNotEquals;
-//import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoTimeoutException;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -35,21 +55,34 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import org.mockito.ArgumentMatcher;
+import org.mockito.ArgumentMatchers;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-//import io.javalin.validation.BodyValidator;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+import io.javalin.validation.BodyValidator;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
 //import umm3601.todo.Todo;
 //import umm3601.todo.TodoController;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Header;
+import umm3601.BulkReport;
+import umm3601.NativeCodecs;
+import umm3601.ResponseFormat;
+import umm3601.ServerOptions;
+import umm3601.SparseFields;
+import umm3601.Suggestion;
+import umm3601.TotalCount;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
-//import io.javalin.json.JavalinJackson;
+import io.javalin.json.JavalinJackson;
 
 /**
  * Tests the logic of the TodoController
@@ -76,7 +109,7 @@ public class TodoControllerSpec {
   private static MongoDatabase db;
 
   // Used to translate between JSON and POJOs.
-  //private static JavalinJackson javalinJackson = new JavalinJackson();
+  private static JavalinJackson javalinJackson = new JavalinJackson();
 
   @Mock
   private Context ctx;
@@ -359,6 +392,47 @@ public class TodoControllerSpec {
     assertEquals(samsId.toHexString(), todoCaptor.getValue()._id);
   }
 
+  @Test
+  public void getTodoAsCbor() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.header(Header.ACCEPT)).thenReturn(ResponseFormat.CBOR_CONTENT_TYPE);
+    ArgumentCaptor<byte[]> bytesCaptor = ArgumentCaptor.forClass(byte[].class);
+
+    todoController.getTodo(ctx);
+
+    verify(ctx).contentType(ResponseFormat.CBOR_CONTENT_TYPE);
+    verify(ctx).result(bytesCaptor.capture());
+    Todo todo = ResponseFormat.mapperFor(ResponseFormat.CBOR_CONTENT_TYPE)
+      .readValue(bytesCaptor.getValue(), Todo.class);
+    assertEquals("Sam", todo.owner);
+    assertEquals(samsId.toHexString(), todo._id);
+  }
+
+  @Test
+  public void nativeCodecsReadTheSameTodos() throws IOException {
+    MongoDatabase nativeDb = db.withCodecRegistry(NativeCodecs.withNativeCodecs(db.getCodecRegistry()));
+    TodoController nativeController = new TodoController(nativeDb, new ServerOptions().nativeCodecs(true));
+
+    todoController.getTodos(ctx);
+    Context nativeCtx = mock(Context.class);
+    when(nativeCtx.queryParamMap()).thenReturn(Collections.emptyMap());
+    nativeController.getTodos(nativeCtx);
+
+    verify(ctx).json(todoArrayListCaptor.capture());
+    verify(nativeCtx).json(todoArrayListCaptor.capture());
+    List<ArrayList<Todo>> results = todoArrayListCaptor.getAllValues();
+    assertEquals(results.get(0).size(), results.get(1).size());
+    for (int i = 0; i < results.get(0).size(); i++) {
+      Todo jackson = results.get(0).get(i);
+      Todo bson = results.get(1).get(i);
+      assertEquals(jackson._id, bson._id);
+      assertEquals(jackson.owner, bson.owner);
+      assertEquals(jackson.status, bson.status);
+      assertEquals(jackson.body, bson.body);
+      assertEquals(jackson.category, bson.category);
+    }
+  }
+
   @Test
   public void getTodoWithBadId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("bad");
@@ -382,6 +456,1158 @@ public class TodoControllerSpec {
     assertEquals("The requested todo was not found", exception.getMessage());
   }
 
+  /**
+   * Build a fresh mock context for a `?limit=...&after=...` request
+   * so that we can walk through several pages in a single test.
+   */
+  private Context pageContext(String limit, String after) {
+    Context pageCtx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.LIMIT_KEY, Arrays.asList(new String[] {limit}));
+    if (after != null) {
+      queryParams.put(TodoController.AFTER_KEY, Arrays.asList(new String[] {after}));
+      when(pageCtx.queryParam(TodoController.AFTER_KEY)).thenReturn(after);
+    }
+    when(pageCtx.queryParamMap()).thenReturn(queryParams);
+    when(pageCtx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, limit, TodoController.LIMIT_KEY));
+    return pageCtx;
+  }
+
+  @Test
+  public void canGetFirstPageOfTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.LIMIT_KEY, Arrays.asList(new String[] {"2"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, "2", TodoController.LIMIT_KEY));
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    // There are five todos, so a page of two should tell us where the next page starts
+    verify(ctx).header(ArgumentMatchers.eq(TodoController.NEXT_CURSOR_HEADER), ArgumentMatchers.anyString());
+    assertEquals(2, todoArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  public void canPageThroughAllTodos() throws IOException {
+    Set<String> seenIds = new HashSet<>();
+    List<Integer> pageSizes = new ArrayList<>();
+    String cursor = null;
+
+    do {
+      Context pageCtx = pageContext("2", cursor);
+      todoController.getTodos(pageCtx);
+
+      verify(pageCtx).json(todoArrayListCaptor.capture());
+      pageSizes.add(todoArrayListCaptor.getValue().size());
+      for (Todo todo : todoArrayListCaptor.getValue()) {
+        seenIds.add(todo._id);
+      }
+
+      ArgumentCaptor<String> cursorCaptor = ArgumentCaptor.forClass(String.class);
+      verify(pageCtx, atMost(1)).header(ArgumentMatchers.eq(TodoController.NEXT_CURSOR_HEADER), cursorCaptor.capture());
+      cursor = cursorCaptor.getAllValues().isEmpty() ? null : cursorCaptor.getValue();
+    } while (cursor != null);
+
+    // Five todos in pages of two, with no todo showing up twice
+    assertEquals(List.of(2, 2, 1), pageSizes);
+    assertEquals(5, seenIds.size());
+    assertNull(cursor);
+  }
+
+  @Test
+  public void respondsAppropriatelyToBadCursor() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.AFTER_KEY, Arrays.asList(new String[] {"not-a-cursor"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.AFTER_KEY)).thenReturn("not-a-cursor");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
+  @Test
+  public void respondsAppropriatelyToTooLargeLimit() {
+    String tooBig = Integer.toString(TodoController.MAX_PAGE_SIZE + 1);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.LIMIT_KEY, Arrays.asList(new String[] {tooBig}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, tooBig, TodoController.LIMIT_KEY));
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
+  /**
+   * Wrap a `ByteArrayOutputStream` so that it can stand in for the
+   * servlet output stream of our mock context.
+   */
+  private ServletOutputStream servletOutputStream(ByteArrayOutputStream out) {
+    return new ServletOutputStream() {
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+      }
+
+      @Override
+      public void write(int b) {
+        out.write(b);
+      }
+    };
+  }
+
+  @Test
+  public void canStreamTodosAsNdjson() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.header(Header.ACCEPT)).thenReturn("application/x-ndjson");
+    when(ctx.outputStream()).thenReturn(servletOutputStream(out));
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).contentType("application/x-ndjson");
+    // One line per todo, and nothing handed to `ctx.json()`
+    String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+    assertEquals(db.getCollection("todos").countDocuments(), lines.length);
+    verify(ctx, never()).json(ArgumentMatchers.any());
+  }
+
+  @Test
+  public void canStreamTodosAsJsonArray() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("stream", Arrays.asList(new String[] {"true"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam("stream")).thenReturn("true");
+    when(ctx.outputStream()).thenReturn(servletOutputStream(out));
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).contentType("application/json");
+    String json = out.toString(StandardCharsets.UTF_8);
+    assertEquals('[', json.charAt(0));
+    assertEquals(']', json.charAt(json.length() - 1));
+  }
+
+  @Test
+  public void passthroughListsMatchTodoJson() throws IOException {
+    TodoController passthroughController = new TodoController(db, new ServerOptions().passthroughLists(true));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Context passthroughCtx = mock(Context.class);
+    when(passthroughCtx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(passthroughCtx.outputStream()).thenReturn(servletOutputStream(out));
+
+    todoController.getTodos(ctx);
+    passthroughController.getTodos(passthroughCtx);
+
+    verify(ctx).json(todoArrayListCaptor.capture());
+    verify(passthroughCtx, never()).json(ArgumentMatchers.any());
+    verify(passthroughCtx).contentType("application/json");
+    String json = out.toString(StandardCharsets.UTF_8);
+    // None of the fields we only keep for our queries are sent
+    assertTrue(!json.contains(TodoController.OWNER_LOWER_KEY) && !json.contains(TodoController.BODY_LENGTH_KEY));
+    Todo[] passedThrough = new ObjectMapper().readValue(json, Todo[].class);
+    assertEquals(todoArrayListCaptor.getValue().size(), passedThrough.length);
+    for (int i = 0; i < passedThrough.length; i++) {
+      Todo expected = todoArrayListCaptor.getValue().get(i);
+      assertEquals(expected._id, passedThrough[i]._id);
+      assertEquals(expected.owner, passedThrough[i].owner);
+      assertEquals(expected.status, passedThrough[i].status);
+      assertEquals(expected.body, passedThrough[i].body);
+      assertEquals(expected.category, passedThrough[i].category);
+    }
+  }
+
+  /**
+   * Ask a controller for todos with the given query parameters, and get back
+   * the list it responded with.
+   */
+  private List<Todo> getTodos(TodoController controller, Map<String, String> params) throws IOException {
+    Context queryCtx = queryContext(params);
+    controller.getTodos(queryCtx);
+    verify(queryCtx).json(todoArrayListCaptor.capture());
+    return todoArrayListCaptor.getValue();
+  }
+
+  private List<String> todoIds(List<Todo> todos) {
+    List<String> ids = new ArrayList<>();
+    for (Todo todo : todos) {
+      ids.add(todo._id);
+    }
+    return ids;
+  }
+
+  @Test
+  public void memorySnapshotAnswersFiltersLikeMongo() throws IOException {
+    TodoController snapshotController = new TodoController(db, new ServerOptions().memorySnapshots(true));
+    List<Map<String, String>> queries = List.of(
+      Map.of(TodoController.OWNER_KEY, "egg"),
+      Map.of(TodoController.OWNER_KEY, "a", TodoController.OWNER_MATCH_KEY, TodoController.MATCH_CONTAINS),
+      Map.of(TodoController.STATUS_KEY, "incomplete", TodoController.ORDER_BY_KEY, "owner"),
+      Map.of(TodoController.CATEGORY_KEY, "video games,Food", TodoController.ORDER_BY_KEY, "category"),
+      Map.of(TodoController.ORDER_BY_KEY, "body", TodoController.SORT_ORDER_KEY, "desc"),
+      Map.of(TodoController.ORDER_BY_KEY, "status"));
+
+    for (Map<String, String> query : queries) {
+      List<Todo> fromMongo = getTodos(todoController, query);
+      List<Todo> fromSnapshot = getTodos(snapshotController, query);
+      assertEquals(todoIds(fromMongo), todoIds(fromSnapshot), query.toString());
+      for (int i = 0; i < fromMongo.size(); i++) {
+        assertEquals(fromMongo.get(i).owner, fromSnapshot.get(i).owner);
+        assertEquals(fromMongo.get(i).status, fromSnapshot.get(i).status);
+        assertEquals(fromMongo.get(i).body, fromSnapshot.get(i).body);
+        assertEquals(fromMongo.get(i).category, fromSnapshot.get(i).category);
+      }
+    }
+  }
+
+  @Test
+  public void memorySnapshotFirstPageMatchesMongo() throws IOException {
+    TodoController snapshotController = new TodoController(db, new ServerOptions().memorySnapshots(true));
+    List<Map<String, String>> queries = List.of(
+      Map.of(TodoController.LIMIT_KEY, "2"),
+      Map.of(TodoController.LIMIT_KEY, "3", TodoController.ORDER_BY_KEY, "owner"),
+      Map.of(TodoController.LIMIT_KEY, "2", TodoController.ORDER_BY_KEY, "owner",
+        TodoController.SORT_ORDER_KEY, "desc", SparseFields.FIELDS_KEY, "body"),
+      Map.of(TodoController.LIMIT_KEY, "2", TodoController.ORDER_BY_KEY, "body", SparseFields.FIELDS_KEY, "owner"),
+      Map.of(TodoController.LIMIT_KEY, "10", TodoController.STATUS_KEY, "complete"));
+
+    for (Map<String, String> query : queries) {
+      Context mongoCtx = queryContext(query);
+      todoController.getTodos(mongoCtx);
+      Context snapshotCtx = queryContext(query);
+      snapshotController.getTodos(snapshotCtx);
+
+      verify(mongoCtx).json(todoArrayListCaptor.capture());
+      List<Todo> fromMongo = todoArrayListCaptor.getValue();
+      verify(snapshotCtx).json(todoArrayListCaptor.capture());
+      List<Todo> fromSnapshot = todoArrayListCaptor.getValue();
+      assertEquals(todoIds(fromMongo), todoIds(fromSnapshot), query.toString());
+
+      // Both hand out the same cursor (or none), so the rest of the pages
+      // can come from MongoDB either way.
+      ArgumentCaptor<String> mongoCursor = ArgumentCaptor.forClass(String.class);
+      verify(mongoCtx, atMost(1)).header(ArgumentMatchers.eq(TodoController.NEXT_CURSOR_HEADER), mongoCursor.capture());
+      ArgumentCaptor<String> snapshotCursor = ArgumentCaptor.forClass(String.class);
+      verify(snapshotCtx, atMost(1))
+        .header(ArgumentMatchers.eq(TodoController.NEXT_CURSOR_HEADER), snapshotCursor.capture());
+      assertEquals(mongoCursor.getAllValues(), snapshotCursor.getAllValues(), query.toString());
+    }
+  }
+
+  @Test
+  public void canCountTodosWithoutListingThem() throws IOException {
+    TodoController snapshotController = new TodoController(db, new ServerOptions().memorySnapshots(true));
+    Map<Map<String, String>, Long> expectedCounts = Map.of(
+      Map.of(), 5L,
+      Map.of(TodoController.OWNER_KEY, "egg"), 2L,
+      Map.of(TodoController.STATUS_KEY, "complete", TodoController.CATEGORY_KEY, "video games"), 2L,
+      // Paging doesn't change the total
+      Map.of(TodoController.LIMIT_KEY, "1", TodoController.OWNER_KEY, "egg"), 2L);
+
+    for (Map.Entry<Map<String, String>, Long> expected : expectedCounts.entrySet()) {
+      Map<String, String> query = new HashMap<>(expected.getKey());
+      query.put(TotalCount.COUNT_KEY, "true");
+      for (TodoController controller : List.of(todoController, snapshotController)) {
+        Context countCtx = queryContext(query);
+        controller.getTodos(countCtx);
+
+        verify(countCtx).header(TotalCount.TOTAL_COUNT_HEADER, expected.getValue().toString());
+        verify(countCtx).json(Map.of(TotalCount.COUNT_KEY, expected.getValue()));
+        verify(countCtx).status(HttpStatus.OK);
+      }
+    }
+  }
+
+  @Test
+  public void canCountBodySearchResults() throws IOException {
+    Context countCtx = queryContext(Map.of(TodoController.BODY_KEY, "walter", TotalCount.COUNT_KEY, "true"));
+
+    todoController.getTodos(countCtx);
+
+    verify(countCtx).header(TotalCount.TOTAL_COUNT_HEADER, "1");
+  }
+
+  @Test
+  public void headRequestOnlySendsTheCount() throws IOException {
+    Context headCtx = queryContext(Map.of(TodoController.STATUS_KEY, "incomplete"));
+    when(headCtx.method()).thenReturn(HandlerType.HEAD);
+
+    todoController.getTodos(headCtx);
+
+    verify(headCtx).header(TotalCount.TOTAL_COUNT_HEADER, "2");
+    verify(headCtx, never()).json(ArgumentMatchers.any());
+    verify(headCtx).status(HttpStatus.OK);
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Suggestion> suggestions(Context suggestCtx) {
+    ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+    verify(suggestCtx).json(captor.capture());
+    return (List<Suggestion>) captor.getValue();
+  }
+
+  @Test
+  public void suggestsOwnersAsTodosAreAdded() throws IOException {
+    Context suggestCtx = queryContext(Map.of(TodoController.PREFIX_KEY, "e"));
+    todoController.suggestOwners(suggestCtx);
+
+    List<Suggestion> owners = suggestions(suggestCtx);
+    assertEquals(1, owners.size());
+    assertEquals("Egg", owners.get(0).value);
+    assertEquals(2, owners.get(0).count);
+    verify(suggestCtx).status(HttpStatus.OK);
+
+    String body = "{\"owner\": \"Eve\", \"status\": false, \"body\": \"First\", \"category\": \"imports\"}";
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    todoController.addTodos(ctx);
+
+    Context afterCtx = queryContext(Map.of(TodoController.PREFIX_KEY, "E", TodoController.LIMIT_KEY, "5"));
+    todoController.suggestOwners(afterCtx);
+    owners = suggestions(afterCtx);
+    assertEquals(2, owners.size());
+    assertEquals("Eve", owners.get(1).value);
+    assertEquals(1, owners.get(1).count);
+  }
+
+  @Test
+  public void suggestingWithNoPrefixGivesTheBusiestOwners() throws IOException {
+    Context suggestCtx = queryContext(Map.of(TodoController.LIMIT_KEY, "2"));
+    todoController.suggestOwners(suggestCtx);
+
+    List<Suggestion> owners = suggestions(suggestCtx);
+    assertEquals(2, owners.size());
+    assertEquals("Egg", owners.get(0).value);
+    assertEquals("Fry", owners.get(1).value);
+  }
+
+  @Test
+  public void respondsAppropriatelyToTooManySuggestions() {
+    Context suggestCtx = queryContext(Map.of(TodoController.PREFIX_KEY, "e", TodoController.LIMIT_KEY, "1000"));
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.suggestOwners(suggestCtx);
+    });
+  }
+
+  @Test
+  public void memorySnapshotSeesWritesThroughTheController() throws IOException {
+    TodoController snapshotController = new TodoController(db, new ServerOptions().memorySnapshots(true));
+    String body = "{\"owner\": \"Bulk\", \"status\": false, \"body\": \"First\", \"category\": \"imports\"}";
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    snapshotController.addTodos(ctx);
+
+    assertEquals(1, getTodos(snapshotController, Map.of(TodoController.OWNER_KEY, "bulk")).size());
+
+    Context updateCtx = mock(Context.class);
+    when(updateCtx.bodyValidator(StatusUpdate.class))
+      .then(value -> new BodyValidator<StatusUpdate>("{\"owner\": \"bulk\", \"status\": true}",
+        StatusUpdate.class, javalinJackson));
+    snapshotController.updateTodoStatuses(updateCtx);
+
+    List<Todo> bulkTodos = getTodos(snapshotController, Map.of(TodoController.OWNER_KEY, "bulk"));
+    assertEquals(1, bulkTodos.size());
+    assertEquals(true, bulkTodos.get(0).status);
+    assertEquals(6, getTodos(snapshotController, Map.of()).size());
+  }
+
+  /**
+   * Set up our mock context for an `?owner=...&ownerMatch=...` request.
+   * If `match` is `null` then `ownerMatch` is left out of the request.
+   */
+  private void mockOwnerQuery(String owner, String match) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.OWNER_KEY, Arrays.asList(new String[] {owner}));
+    if (match != null) {
+      queryParams.put(TodoController.OWNER_MATCH_KEY, Arrays.asList(new String[] {match}));
+      when(ctx.queryParamAsClass(TodoController.OWNER_MATCH_KEY, String.class))
+        .thenReturn(Validator.create(String.class, match, TodoController.OWNER_MATCH_KEY));
+    }
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(TodoController.OWNER_KEY, String.class))
+      .thenReturn(Validator.create(String.class, owner, TodoController.OWNER_KEY));
+  }
+
+  @Test
+  public void canGetTodosWithExactOwnerIgnoringCase() throws IOException {
+    mockOwnerQuery("EGG", TodoController.MATCH_EXACT);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayListCaptor.capture());
+    assertEquals(2, todoArrayListCaptor.getValue().size());
+    for (Todo todo : todoArrayListCaptor.getValue()) {
+      assertEquals("Egg", todo.owner);
+    }
+  }
+
+  @Test
+  public void exactOwnerDoesNotMatchPrefix() throws IOException {
+    mockOwnerQuery("eg", TodoController.MATCH_EXACT);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayListCaptor.capture());
+    assertEquals(0, todoArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  public void ownerDefaultsToPrefixMatch() throws IOException {
+    mockOwnerQuery("wAt", null);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayListCaptor.capture());
+    assertEquals(1, todoArrayListCaptor.getValue().size());
+    assertEquals("Watson", todoArrayListCaptor.getValue().get(0).owner);
+  }
+
+  @Test
+  public void canGetTodosWithOwnerContaining() throws IOException {
+    mockOwnerQuery("a", TodoController.MATCH_CONTAINS);
+
+    todoController.getTodos(ctx);
+
+    // "Watson" and "Sam"
+    verify(ctx).json(todoArrayListCaptor.capture());
+    assertEquals(2, todoArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  public void ownerPrefixIsMatchedLiterally() throws IOException {
+    mockOwnerQuery(".*", TodoController.MATCH_PREFIX);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayListCaptor.capture());
+    assertEquals(0, todoArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  public void respondsAppropriatelyToInvalidOwnerMatch() {
+    mockOwnerQuery("fry", "fuzzy");
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
+  @Test
+  public void canGetTodosWithOwnerPattern() throws IOException {
+    mockOwnerQuery("^(fr|sa)", TodoController.MATCH_PATTERN);
+
+    todoController.getTodos(ctx);
+
+    // "Fry" and "Sam"
+    verify(ctx).json(todoArrayListCaptor.capture());
+    assertEquals(2, todoArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  public void ownerPatternsAreMatchedByMongoEvenWithSnapshots() throws IOException {
+    TodoController snapshotController = new TodoController(db, new ServerOptions().memorySnapshots(true));
+    mockOwnerQuery("^(fr|sa)", TodoController.MATCH_PATTERN);
+
+    snapshotController.getTodos(ctx);
+
+    // "Fry" and "Sam"
+    verify(ctx).json(todoArrayListCaptor.capture());
+    assertEquals(2, todoArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  public void rejectsExpensiveOwnerPattern() {
+    mockOwnerQuery("(a+)+$", TodoController.MATCH_PATTERN);
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
+  /**
+   * Set up our mock context for a `?body=...&limit=...&after=...` search.
+   * `limit` and `after` are left out of the request if they're `null`.
+   */
+  private Context searchContext(String body, String limit, String after) {
+    Context searchCtx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.BODY_KEY, Arrays.asList(new String[] {body}));
+    when(searchCtx.queryParamAsClass(TodoController.BODY_KEY, String.class))
+      .thenReturn(Validator.create(String.class, body, TodoController.BODY_KEY));
+    if (limit != null) {
+      queryParams.put(TodoController.LIMIT_KEY, Arrays.asList(new String[] {limit}));
+      when(searchCtx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+        .thenReturn(Validator.create(Integer.class, limit, TodoController.LIMIT_KEY));
+    }
+    if (after != null) {
+      queryParams.put(TodoController.AFTER_KEY, Arrays.asList(new String[] {after}));
+      when(searchCtx.queryParam(TodoController.AFTER_KEY)).thenReturn(after);
+    }
+    when(searchCtx.queryParamMap()).thenReturn(queryParams);
+    return searchCtx;
+  }
+
+  @Test
+  public void canSearchTodoBodies() throws IOException {
+    Context searchCtx = searchContext("walter", null, null);
+
+    todoController.getTodos(searchCtx);
+
+    verify(searchCtx).json(todoArrayListCaptor.capture());
+    verify(searchCtx).status(HttpStatus.OK);
+    assertEquals(1, todoArrayListCaptor.getValue().size());
+    assertEquals("Watson", todoArrayListCaptor.getValue().get(0).owner);
+    assertNotNull(todoArrayListCaptor.getValue().get(0).score);
+  }
+
+  @Test
+  public void searchResultsAreRankedByRelevance() throws IOException {
+    // "Lorem ipsum" matches two of the words, "Walter" only matches one
+    Context searchCtx = searchContext("ipsum lorem walter", null, null);
+
+    todoController.getTodos(searchCtx);
+
+    verify(searchCtx).json(todoArrayListCaptor.capture());
+    List<Todo> results = todoArrayListCaptor.getValue();
+    assertEquals(3, results.size());
+    for (int i = 1; i < results.size(); i++) {
+      assertTrue(results.get(i - 1).score >= results.get(i).score);
+    }
+    assertEquals("Walter", results.get(2).body);
+  }
+
+  @Test
+  public void canPageThroughSearchResults() throws IOException {
+    Set<String> seenIds = new HashSet<>();
+    String cursor = null;
+    int pages = 0;
+
+    do {
+      Context searchCtx = searchContext("lorem", "1", cursor);
+      todoController.getTodos(searchCtx);
+
+      verify(searchCtx).json(todoArrayListCaptor.capture());
+      for (Todo todo : todoArrayListCaptor.getValue()) {
+        seenIds.add(todo._id);
+      }
+      pages++;
+
+      ArgumentCaptor<String> cursorCaptor = ArgumentCaptor.forClass(String.class);
+      verify(searchCtx, atMost(1))
+        .header(ArgumentMatchers.eq(TodoController.NEXT_CURSOR_HEADER), cursorCaptor.capture());
+      cursor = cursorCaptor.getAllValues().isEmpty() ? null : cursorCaptor.getValue();
+    } while (cursor != null);
+
+    // Fry's and Sam's todos both say "Lorem ipsum"
+    assertEquals(2, pages);
+    assertEquals(2, seenIds.size());
+  }
+
+  @Test
+  public void respondsAppropriatelyToBlankSearch() {
+    Context searchCtx = searchContext("   ", null, null);
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.getTodos(searchCtx);
+    });
+  }
+
+  /**
+   * Build a fresh mock context for a request with the given query parameters.
+   * `limit` is handed out as an `Integer`; everything else as a `String`.
+   */
+  private Context queryContext(Map<String, String> params) {
+    Context queryCtx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (Map.Entry<String, String> param : params.entrySet()) {
+      String key = param.getKey();
+      String value = param.getValue();
+      queryParams.put(key, Arrays.asList(new String[] {value}));
+      when(queryCtx.queryParam(key)).thenReturn(value);
+      when(queryCtx.queryParams(key)).thenReturn(List.of(value));
+      if (key.equals(TodoController.LIMIT_KEY)) {
+        when(queryCtx.queryParamAsClass(key, Integer.class)).thenReturn(Validator.create(Integer.class, value, key));
+      } else {
+        when(queryCtx.queryParamAsClass(key, String.class)).thenReturn(Validator.create(String.class, value, key));
+      }
+    }
+    when(queryCtx.queryParamMap()).thenReturn(queryParams);
+    return queryCtx;
+  }
+
+  @Test
+  public void canGetOnlySomeFieldsOfTodos() throws IOException {
+    Context fieldsCtx = queryContext(Map.of(SparseFields.FIELDS_KEY, "owner, status"));
+
+    todoController.getTodos(fieldsCtx);
+
+    verify(fieldsCtx).json(todoArrayListCaptor.capture());
+    assertEquals(db.getCollection("todos").countDocuments(), todoArrayListCaptor.getValue().size());
+    for (Todo todo : todoArrayListCaptor.getValue()) {
+      assertNotNull(todo._id);
+      assertNotNull(todo.owner);
+      assertNotNull(todo.status);
+      assertNull(todo.body);
+      assertNull(todo.category);
+    }
+  }
+
+  @Test
+  public void pagesWithSomeFieldsOnlyIncludeThoseFields() throws IOException {
+    TodoController snapshotController = new TodoController(db, new ServerOptions().memorySnapshots(true));
+    for (String orderBy : List.of("category", "body", "owner")) {
+      for (TodoController controller : List.of(todoController, snapshotController)) {
+        Context fieldsCtx = queryContext(Map.of(
+          SparseFields.FIELDS_KEY, "status",
+          TodoController.ORDER_BY_KEY, orderBy,
+          TodoController.LIMIT_KEY, "2"));
+
+        controller.getTodos(fieldsCtx);
+
+        // The cursor is still built from the sort field, but the field isn't sent
+        verify(fieldsCtx).json(todoArrayListCaptor.capture());
+        verify(fieldsCtx).header(ArgumentMatchers.eq(TodoController.NEXT_CURSOR_HEADER), ArgumentMatchers.anyString());
+        for (Todo todo : todoArrayListCaptor.getValue()) {
+          assertNotNull(todo.status);
+          assertNull(todo.owner, orderBy);
+          assertNull(todo.category, orderBy);
+          assertNull(todo.body, orderBy);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void derivedSortFieldsAreNeverSentToClients() throws IOException {
+    Todo todo = new Todo();
+    todo._id = new ObjectId().toHexString();
+    todo.owner = "Fry";
+    todo.ownerLower = "fry";
+    todo.bodyLength = 3;
+
+    String json = javalinJackson.toJsonString(todo, Todo.class);
+
+    assertTrue(json.contains("\"owner\""));
+    assertFalse(json.contains(TodoController.OWNER_LOWER_KEY));
+    assertFalse(json.contains(TodoController.BODY_LENGTH_KEY));
+  }
+
+  @Test
+  public void cantAskForUnknownFields() throws IOException {
+    Context fieldsCtx = queryContext(Map.of(SparseFields.FIELDS_KEY, "owner,ownerLower"));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(fieldsCtx);
+    });
+  }
+
+  @Test
+  public void getTodosIsNotModifiedUntilTodosChange() throws IOException {
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    todoController.getTodos(ctx);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+
+    // Asking again with the same tag doesn't send (or look up) the todos again
+    Context pollCtx = mock(Context.class);
+    when(pollCtx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(pollCtx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    todoController.getTodos(pollCtx);
+    verify(pollCtx).status(HttpStatus.NOT_MODIFIED);
+    verify(pollCtx, never()).json(ArgumentMatchers.any());
+
+    // Once a todo changes, the old tag no longer matches
+    mockStatusUpdate("{\"ids\": [\"" + samsId.toHexString() + "\"], \"status\": false}");
+    todoController.updateTodoStatuses(ctx);
+    todoController.getTodos(pollCtx);
+    verify(pollCtx).json(todoArrayListCaptor.capture());
+    verify(pollCtx).status(HttpStatus.OK);
+  }
+
+  @Test
+  public void canSortTodosByOwner() throws IOException {
+    Context sortCtx = queryContext(Map.of(TodoController.ORDER_BY_KEY, "owner"));
+
+    todoController.getTodos(sortCtx);
+
+    verify(sortCtx).json(todoArrayListCaptor.capture());
+    List<String> owners = new ArrayList<>();
+    for (Todo todo : todoArrayListCaptor.getValue()) {
+      owners.add(todo.owner);
+    }
+    assertEquals(List.of("Egg", "Egg", "Fry", "Sam", "Watson"), owners);
+  }
+
+  @Test
+  public void canSortTodosByBodyLengthDescending() throws IOException {
+    Context sortCtx = queryContext(Map.of(
+      TodoController.ORDER_BY_KEY, "body",
+      TodoController.SORT_ORDER_KEY, "desc"));
+
+    todoController.getTodos(sortCtx);
+
+    verify(sortCtx).json(todoArrayListCaptor.capture());
+    List<String> bodies = new ArrayList<>();
+    for (Todo todo : todoArrayListCaptor.getValue()) {
+      bodies.add(todo.body);
+    }
+    assertEquals(List.of("Lorem ipsum", "Lorem ipsum", "Aaaaaaaaa", "Bob Har", "Walter"), bodies);
+  }
+
+  @Test
+  public void canSortTodosByStatusWithinFilter() throws IOException {
+    Context sortCtx = queryContext(Map.of(
+      TodoController.OWNER_KEY, "egg",
+      TodoController.ORDER_BY_KEY, "status"));
+
+    todoController.getTodos(sortCtx);
+
+    verify(sortCtx).json(todoArrayListCaptor.capture());
+    assertEquals(2, todoArrayListCaptor.getValue().size());
+    assertEquals(false, todoArrayListCaptor.getValue().get(0).status);
+    assertEquals(true, todoArrayListCaptor.getValue().get(1).status);
+  }
+
+  @Test
+  public void canPageThroughSortedTodos() throws IOException {
+    List<String> owners = new ArrayList<>();
+    String cursor = null;
+
+    do {
+      Map<String, String> params = new HashMap<>();
+      params.put(TodoController.ORDER_BY_KEY, "owner");
+      params.put(TodoController.SORT_ORDER_KEY, "desc");
+      params.put(TodoController.LIMIT_KEY, "2");
+      if (cursor != null) {
+        params.put(TodoController.AFTER_KEY, cursor);
+      }
+      Context pageCtx = queryContext(params);
+      todoController.getTodos(pageCtx);
+
+      verify(pageCtx).json(todoArrayListCaptor.capture());
+      for (Todo todo : todoArrayListCaptor.getValue()) {
+        owners.add(todo.owner);
+      }
+
+      ArgumentCaptor<String> cursorCaptor = ArgumentCaptor.forClass(String.class);
+      verify(pageCtx, atMost(1))
+        .header(ArgumentMatchers.eq(TodoController.NEXT_CURSOR_HEADER), cursorCaptor.capture());
+      cursor = cursorCaptor.getAllValues().isEmpty() ? null : cursorCaptor.getValue();
+    } while (cursor != null);
+
+    // The page boundary falls between the two "Egg" todos, which the `_id`
+    // tie-breaker in the cursor has to sort out.
+    assertEquals(List.of("Watson", "Sam", "Fry", "Egg", "Egg"), owners);
+  }
+
+  @Test
+  public void canPageThroughTodosWithNoStatus() throws IOException {
+    db.getCollection("todos").insertOne(new Document("owner", "Zoe"));
+    db.getCollection("todos").insertOne(new Document("owner", "Zoe").append("status", null));
+
+    for (String sortOrder : List.of("asc", "desc")) {
+      List<Boolean> statuses = new ArrayList<>();
+      Set<String> ids = new HashSet<>();
+      String cursor = null;
+
+      // One todo per page, so pages start and end on each of the todos with no status
+      do {
+        Map<String, String> params = new HashMap<>();
+        params.put(TodoController.ORDER_BY_KEY, "status");
+        params.put(TodoController.SORT_ORDER_KEY, sortOrder);
+        params.put(TodoController.LIMIT_KEY, "1");
+        if (cursor != null) {
+          params.put(TodoController.AFTER_KEY, cursor);
+        }
+        Context pageCtx = queryContext(params);
+        todoController.getTodos(pageCtx);
+
+        verify(pageCtx).json(todoArrayListCaptor.capture());
+        for (Todo todo : todoArrayListCaptor.getValue()) {
+          statuses.add(todo.status);
+          ids.add(todo._id);
+        }
+
+        ArgumentCaptor<String> cursorCaptor = ArgumentCaptor.forClass(String.class);
+        verify(pageCtx, atMost(1))
+          .header(ArgumentMatchers.eq(TodoController.NEXT_CURSOR_HEADER), cursorCaptor.capture());
+        cursor = cursorCaptor.getAllValues().isEmpty() ? null : cursorCaptor.getValue();
+      } while (cursor != null);
+
+      // No status sorts before either status, as it does in MongoDB
+      List<Boolean> ascending = Arrays.asList(null, null, false, false, true, true, true);
+      List<Boolean> expected = new ArrayList<>(ascending);
+      if (sortOrder.equals("desc")) {
+        Collections.reverse(expected);
+      }
+      assertEquals(expected, statuses, sortOrder);
+      assertEquals(7, ids.size(), sortOrder);
+    }
+  }
+
+  @Test
+  public void rejectsSortedPageCursorWithNoSortValue() {
+    // A well-formed cursor, but only from a page sorted by `_id` alone
+    String idOnly = Base64.getUrlEncoder().withoutPadding().encodeToString(
+      new Document("id", new ObjectId()).toJson().getBytes(StandardCharsets.UTF_8));
+    Context pageCtx = queryContext(Map.of(
+      TodoController.ORDER_BY_KEY, "owner", TodoController.LIMIT_KEY, "2", TodoController.AFTER_KEY, idOnly));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(pageCtx);
+    });
+  }
+
+  @Test
+  public void respondsAppropriatelyToUnsortableField() {
+    Context sortCtx = queryContext(Map.of(TodoController.ORDER_BY_KEY, "_id"));
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.getTodos(sortCtx);
+    });
+  }
+
+  @Test
+  public void canGetTodosInCategory() throws IOException {
+    Context categoryCtx = queryContext(Map.of(TodoController.CATEGORY_KEY, "video games"));
+
+    todoController.getTodos(categoryCtx);
+
+    verify(categoryCtx).json(todoArrayListCaptor.capture());
+    assertEquals(2, todoArrayListCaptor.getValue().size());
+    for (Todo todo : todoArrayListCaptor.getValue()) {
+      assertEquals("video games", todo.category);
+    }
+  }
+
+  @Test
+  public void canGetTodosInSeveralCategories() throws IOException {
+    Context categoryCtx = mock(Context.class);
+    when(categoryCtx.queryParamMap())
+      .thenReturn(Map.of(TodoController.CATEGORY_KEY, List.of("Food,dog toys", "cool gaming")));
+    when(categoryCtx.queryParams(TodoController.CATEGORY_KEY)).thenReturn(List.of("Food,dog toys", "cool gaming"));
+
+    todoController.getTodos(categoryCtx);
+
+    verify(categoryCtx).json(todoArrayListCaptor.capture());
+    assertEquals(3, todoArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  public void canGetIncompleteTodosInCategory() throws IOException {
+    Context categoryCtx = queryContext(Map.of(
+      TodoController.CATEGORY_KEY, "dog toys",
+      TodoController.STATUS_KEY, "incomplete"));
+
+    todoController.getTodos(categoryCtx);
+
+    verify(categoryCtx).json(todoArrayListCaptor.capture());
+    assertEquals(1, todoArrayListCaptor.getValue().size());
+    assertEquals("Watson", todoArrayListCaptor.getValue().get(0).owner);
+  }
+
+  @Test
+  public void respondsAppropriatelyToEmptyCategory() {
+    Context categoryCtx = queryContext(Map.of(TodoController.CATEGORY_KEY, " , "));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(categoryCtx);
+    });
+  }
+
+  @Test
+  public void canGetTodoSummary() throws IOException {
+    todoController.getTodoSummary(ctx);
+
+    ArgumentCaptor<TodoSummary> summaryCaptor = ArgumentCaptor.forClass(TodoSummary.class);
+    verify(ctx).json(summaryCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+
+    TodoSummary summary = summaryCaptor.getValue();
+    assertEquals(5, summary.total);
+    assertEquals(Map.of("Egg", 2L, "Fry", 1L, "Sam", 1L, "Watson", 1L), summary.owners);
+    assertEquals(Map.of("video games", 2L, "Food", 1L, "dog toys", 1L, "cool gaming", 1L), summary.categories);
+    assertEquals(Map.of("complete", 3L, "incomplete", 2L), summary.statuses);
+  }
+
+  @Test
+  public void todosWithNoStatusAreNotCountedAsIncomplete() throws IOException {
+    db.getCollection("todos").insertOne(new Document("owner", "Zoe"));
+    db.getCollection("todos").insertOne(new Document("owner", "Zoe").append("status", null));
+    todoController.getTodoSummary(ctx);
+
+    ArgumentCaptor<TodoSummary> summaryCaptor = ArgumentCaptor.forClass(TodoSummary.class);
+    verify(ctx).json(summaryCaptor.capture());
+
+    TodoSummary summary = summaryCaptor.getValue();
+    assertEquals(7, summary.total);
+    assertEquals(Map.of("complete", 3L, "incomplete", 2L, "none", 2L), summary.statuses);
+  }
+
+  @Test
+  public void todoSummaryIsCached() throws IOException {
+    todoController.getTodoSummary(ctx);
+
+    // A todo added behind the controller's back won't show up until the summary expires
+    db.getCollection("todos").insertOne(new Document("owner", "Zoe").append("status", false));
+    todoController.getTodoSummary(ctx);
+
+    ArgumentCaptor<TodoSummary> summaryCaptor = ArgumentCaptor.forClass(TodoSummary.class);
+    verify(ctx, times(2)).json(summaryCaptor.capture());
+    assertEquals(5, summaryCaptor.getAllValues().get(1).total);
+  }
+
+  @Test
+  public void canAddTodosInBulkFromJsonArray() throws IOException {
+    String body = "["
+      + "{\"owner\": \"Bulk\", \"status\": false, \"body\": \"First\", \"category\": \"imports\"},"
+      + "{\"owner\": \"Bulk\", \"status\": \"nope\", \"body\": \"Bad status\", \"category\": \"imports\"},"
+      + "{\"owner\": \"Bulk\", \"status\": true, \"body\": \"Third\", \"category\": \"imports\"}"
+      + "]";
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+    todoController.addTodos(ctx);
+
+    ArgumentCaptor<BulkReport> reportCaptor = ArgumentCaptor.forClass(BulkReport.class);
+    verify(ctx).json(reportCaptor.capture());
+    verify(ctx).status(HttpStatus.CREATED);
+
+    BulkReport report = reportCaptor.getValue();
+    assertEquals(2, report.inserted);
+    assertEquals(1, report.failed);
+    assertEquals(3, report.results.size());
+    assertNotNull(report.results.get(0).id);
+    assertNotNull(report.results.get(1).error);
+    assertNotNull(report.results.get(2).id);
+
+    // The new todos are in the database, along with their `ownerLower`
+    Document added = db.getCollection("todos")
+      .find(new Document("_id", new ObjectId(report.results.get(2).id))).first();
+    assertEquals("Third", added.get("body"));
+    assertEquals("bulk", added.get(TodoController.OWNER_LOWER_KEY));
+    assertEquals(5, added.get(TodoController.BODY_LENGTH_KEY));
+  }
+
+  @Test
+  public void canAddTodosInBulkFromNdjsonInSmallBatches() throws IOException {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 7; i++) {
+      body.append("{\"owner\": \"Bulk\", \"status\": false, \"body\": \"Todo ")
+        .append(i)
+        .append("\", \"category\": \"imports\"}\n");
+    }
+    when(ctx.queryParamMap()).thenReturn(Map.of(TodoController.BATCH_SIZE_KEY, List.of("3")));
+    when(ctx.queryParamAsClass(TodoController.BATCH_SIZE_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, "3", TodoController.BATCH_SIZE_KEY));
+    when(ctx.bodyInputStream())
+      .thenReturn(new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)));
+
+    todoController.addTodos(ctx);
+
+    ArgumentCaptor<BulkReport> reportCaptor = ArgumentCaptor.forClass(BulkReport.class);
+    verify(ctx).json(reportCaptor.capture());
+    assertEquals(7, reportCaptor.getValue().inserted);
+    assertEquals(0, reportCaptor.getValue().failed);
+    assertEquals(12, db.getCollection("todos").countDocuments());
+  }
+
+  @Test
+  public void bulkAddStopsAtMalformedJson() throws IOException {
+    String body = "{\"owner\": \"Bulk\", \"status\": false, \"body\": \"Fine\", \"category\": \"imports\"}\n"
+      + "{\"owner\": \"Bulk\", \"status\": ";
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+    todoController.addTodos(ctx);
+
+    ArgumentCaptor<BulkReport> reportCaptor = ArgumentCaptor.forClass(BulkReport.class);
+    verify(ctx).json(reportCaptor.capture());
+    assertEquals(1, reportCaptor.getValue().inserted);
+    assertEquals(1, reportCaptor.getValue().failed);
+    assertEquals(6, db.getCollection("todos").countDocuments());
+  }
+
+  @Test
+  public void bulkAddUpdatesTodoSummary() throws IOException {
+    todoController.getTodoSummary(ctx);
+
+    String body = "[{\"owner\": \"Bulk\", \"status\": false, \"body\": \"New\", \"category\": \"imports\"}]";
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    todoController.addTodos(ctx);
+
+    todoController.getTodoSummary(ctx);
+
+    ArgumentCaptor<TodoSummary> summaryCaptor = ArgumentCaptor.forClass(TodoSummary.class);
+    verify(ctx, atLeast(2)).json(summaryCaptor.capture());
+    assertEquals(6, summaryCaptor.getValue().total);
+  }
+
+  @Test
+  @SuppressWarnings({ "unchecked" })
+  public void bulkAddThatFailsPartWayStillInvalidatesETags() throws IOException {
+    // A database whose `todos` collection times out on the second insert
+    MongoCollection<Document> todoDocuments = db.getCollection("todos");
+    MongoCollection<Document> failingDocuments = mock(MongoCollection.class, delegatesTo(todoDocuments));
+    doAnswer(delegatesTo(todoDocuments))
+      .doThrow(new MongoTimeoutException("Timed out"))
+      .when(failingDocuments).insertMany(ArgumentMatchers.anyList(), ArgumentMatchers.any(InsertManyOptions.class));
+    MongoDatabase failingDb = mock(MongoDatabase.class, delegatesTo(db));
+    doReturn(failingDocuments).when(failingDb).getCollection("todos");
+    TodoController failingController = new TodoController(failingDb);
+
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    failingController.getTodos(ctx);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+
+    String body = "{\"owner\": \"Bulk\", \"status\": false, \"body\": \"First\", \"category\": \"imports\"}\n"
+      + "{\"owner\": \"Bulk\", \"status\": true, \"body\": \"Second\", \"category\": \"imports\"}\n";
+    Context bulkCtx = mock(Context.class);
+    when(bulkCtx.queryParamMap()).thenReturn(Map.of(TodoController.BATCH_SIZE_KEY, List.of("1")));
+    when(bulkCtx.queryParamAsClass(TodoController.BATCH_SIZE_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, "1", TodoController.BATCH_SIZE_KEY));
+    when(bulkCtx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    assertThrows(MongoTimeoutException.class, () -> {
+      failingController.addTodos(bulkCtx);
+    });
+    assertEquals(1, db.getCollection("todos").countDocuments(new Document("owner", "Bulk")));
+
+    // The first todo was added, so a client with the old tag has to fetch again
+    Context pollCtx = mock(Context.class);
+    when(pollCtx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(pollCtx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    failingController.getTodos(pollCtx);
+    verify(pollCtx, never()).status(HttpStatus.NOT_MODIFIED);
+    verify(pollCtx).status(HttpStatus.OK);
+  }
+
+  private void mockStatusUpdate(String json) {
+    when(ctx.bodyValidator(StatusUpdate.class))
+      .then(value -> new BodyValidator<StatusUpdate>(json, StatusUpdate.class, javalinJackson));
+  }
+
+  @Test
+  public void canUpdateStatusOfTodosById() throws IOException {
+    mockStatusUpdate("{\"ids\": [\"" + samsId.toHexString() + "\"], \"status\": false}");
+
+    todoController.updateTodoStatuses(ctx);
+
+    verify(ctx).json(Map.of("matched", 1L, "modified", 1L));
+    verify(ctx).status(HttpStatus.OK);
+    Document sam = db.getCollection("todos").find(new Document("_id", samsId)).first();
+    assertEquals(false, sam.get(TodoController.STATUS_KEY));
+  }
+
+  @Test
+  public void getTodoIsServedFromCache() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    todoController.getTodo(ctx);
+
+    // A change made behind the controller's back isn't seen until the cached copy expires
+    db.getCollection("todos")
+      .updateOne(new Document("_id", samsId), new Document("$set", new Document("body", "Changed")));
+    todoController.getTodo(ctx);
+
+    verify(ctx, times(2)).json(todoCaptor.capture());
+    assertEquals("Lorem ipsum", todoCaptor.getAllValues().get(1).body);
+  }
+
+  @Test
+  public void getTodoSeesStatusUpdates() throws IOException {
+    // Look the todo up with its own context, so its responses don't mix with the update's
+    Context getCtx = mock(Context.class);
+    when(getCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    todoController.getTodo(getCtx);
+
+    mockStatusUpdate("{\"ids\": [\"" + samsId.toHexString() + "\"], \"status\": false}");
+    todoController.updateTodoStatuses(ctx);
+    todoController.getTodo(getCtx);
+
+    verify(getCtx, times(2)).json(todoCaptor.capture());
+    assertEquals(true, todoCaptor.getAllValues().get(0).status);
+    assertEquals(false, todoCaptor.getAllValues().get(1).status);
+  }
+
+  @Test
+  public void canUpdateStatusOfTodosByOwnerAndCategory() throws IOException {
+    mockStatusUpdate("{\"owner\": \"egg\", \"category\": \"cool gaming\", \"status\": true}");
+
+    todoController.updateTodoStatuses(ctx);
+
+    verify(ctx).json(Map.of("matched", 1L, "modified", 1L));
+    // Both of Egg's todos are now complete
+    assertEquals(2, db.getCollection("todos")
+      .countDocuments(new Document("owner", "Egg").append(TodoController.STATUS_KEY, true)));
+  }
+
+  @Test
+  public void statusUpdateNeedsSomeTodosToUpdate() {
+    mockStatusUpdate("{\"status\": true}");
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.updateTodoStatuses(ctx);
+    });
+  }
+
+  @Test
+  public void statusUpdateNeedsLegalIds() {
+    mockStatusUpdate("{\"ids\": [\"bad\"], \"status\": true}");
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.updateTodoStatuses(ctx);
+    });
+  }
+
+  @Test
+  public void statusUpdateNeedsStatus() {
+    mockStatusUpdate("{\"owner\": \"Fry\"}");
+
+    assertThrows(ValidationException.class, () -> {
+      todoController.updateTodoStatuses(ctx);
+    });
+  }
+
+  @Test
+  public void constructorAddsAndIndexesLowercaseOwner() {
+    MongoCollection<Document> todoDocuments = db.getCollection("todos");
+
+    // Every todo (even those inserted behind the controller's back) gets an `ownerLower`
+    for (Document todo : todoDocuments.find()) {
+      assertEquals(todo.getString("owner").toLowerCase(), todo.getString(TodoController.OWNER_LOWER_KEY));
+    }
+
+    // Owner filters use the (ownerLower, _id) sort index; there's no
+    // separate index on `ownerLower` alone for every write to keep up.
+    List<Document> keys = new ArrayList<>();
+    for (Document index : todoDocuments.listIndexes()) {
+      keys.add(index.get("key", Document.class));
+    }
+    assertTrue(keys.contains(new Document(TodoController.OWNER_LOWER_KEY, 1).append("_id", 1)));
+    assertFalse(keys.contains(new Document(TodoController.OWNER_LOWER_KEY, 1)));
+
+    // One left over from an older version is dropped
+    todoDocuments.createIndex(new Document(TodoController.OWNER_LOWER_KEY, 1));
+    new TodoController(db);
+    for (Document index : todoDocuments.listIndexes()) {
+      assertFalse(new Document(TodoController.OWNER_LOWER_KEY, 1).equals(index.get("key", Document.class)));
+    }
+  }
+
+  @Test
+  public void normalizeOwnerOnlyLowercasesAscii() {
+    assertEquals("fry", TodoController.normalizeOwner("FrY"));
+    assertEquals("\u00c9mile", TodoController.normalizeOwner("\u00c9MILE"));
+  }
+
   /*@Test
   public void addTodo() throws IOException {
     String testNewTodo = "{"
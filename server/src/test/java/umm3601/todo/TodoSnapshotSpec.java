@@ -0,0 +1,258 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that TodoSnapshot filters and sorts todos the way MongoDB does
+ * for `TodoController`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoSnapshotSpec {
+
+  private TodoSnapshot snapshot;
+  private List<ObjectId> ids;
+
+  private static Document todo(ObjectId id, String owner, Boolean status, String body, String category) {
+    return new Document("_id", id)
+      .append("owner", owner)
+      .append("status", status)
+      .append("body", body)
+      .append("category", category);
+  }
+
+  @BeforeEach
+  public void setupEach() {
+    ids = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      ids.add(new ObjectId());
+    }
+    snapshot = new TodoSnapshot();
+    snapshot.refresh(List.of(
+      todo(ids.get(0), "Fry", true, "Lorem ipsum", "video games"),
+      todo(ids.get(1), "Egg", true, "Bob Har", "Food"),
+      todo(ids.get(2), "Watson", false, "Walter", "dog toys"),
+      todo(ids.get(3), "Egg", false, "Aaaaaaaaa", "cool gaming"),
+      todo(ids.get(4), "Sam", true, "Caf\u00e9 \ud83d\ude00", "video games")));
+  }
+
+  private List<String> owners(List<Todo> todos) {
+    List<String> owners = new ArrayList<>();
+    for (Todo todo : todos) {
+      owners.add(todo.owner);
+    }
+    return owners;
+  }
+
+  private List<Todo> find(String owner, String match, Boolean status, List<String> categories) {
+    return snapshot.find(new TodoFilter(owner, match, status, categories), null, false, null, 0);
+  }
+
+  @Test
+  public void noFilterFindsEverythingInOrderAdded() {
+    List<Todo> todos = find(null, TodoController.MATCH_PREFIX, null, null);
+
+    assertEquals(5, snapshot.size());
+    assertEquals(List.of("Fry", "Egg", "Watson", "Egg", "Sam"), owners(todos));
+    assertEquals(ids.get(0).toHexString(), todos.get(0)._id);
+    assertEquals("Lorem ipsum", todos.get(0).body);
+    assertEquals("Caf\u00e9 \ud83d\ude00", todos.get(4).body);
+    assertEquals(true, todos.get(0).status);
+    assertEquals("video games", todos.get(0).category);
+  }
+
+  @Test
+  public void matchesOwnersTheWayMongoDoes() {
+    assertEquals(2, find("EGG", TodoController.MATCH_EXACT, null, null).size());
+    assertEquals(0, find("eg", TodoController.MATCH_EXACT, null, null).size());
+    assertEquals(List.of("Watson"), owners(find("wAt", TodoController.MATCH_PREFIX, null, null)));
+    assertEquals(0, find(".*", TodoController.MATCH_PREFIX, null, null).size());
+    assertEquals(List.of("Watson", "Sam"), owners(find("A", TodoController.MATCH_CONTAINS, null, null)));
+  }
+
+  @Test
+  public void leavesOwnerPatternsToMongo() {
+    TodoFilter pattern = new TodoFilter("^(fry|sam)$", TodoController.MATCH_PATTERN, null, null);
+
+    assertFalse(TodoSnapshot.canMatch(pattern));
+    assertTrue(TodoSnapshot.canMatch(new TodoFilter("fry", TodoController.MATCH_CONTAINS, null, null)));
+    assertTrue(TodoSnapshot.canMatch(new TodoFilter(null, TodoController.MATCH_PATTERN, null, null)));
+    assertThrows(IllegalArgumentException.class, () -> {
+      snapshot.count(pattern);
+    });
+  }
+
+  @Test
+  public void combinesStatusAndCategoryFilters() {
+    assertEquals(List.of("Watson", "Egg"), owners(find(null, TodoController.MATCH_PREFIX, false, null)));
+    assertEquals(List.of("Fry", "Sam"),
+      owners(find(null, TodoController.MATCH_PREFIX, null, List.of("video games", "nonexistent"))));
+    assertEquals(List.of("Egg"),
+      owners(find("egg", TodoController.MATCH_PREFIX, false, List.of("Food", "cool gaming"))));
+    assertEquals(0, find(null, TodoController.MATCH_PREFIX, null, List.of("food")).size());
+  }
+
+  @Test
+  public void countsMatchesWithoutFindingThem() {
+    assertEquals(5, snapshot.count(new TodoFilter(null, TodoController.MATCH_PREFIX, null, null)));
+    assertEquals(3, snapshot.count(new TodoFilter(null, TodoController.MATCH_PREFIX, true, null)));
+    assertEquals(1, snapshot.count(new TodoFilter("egg", TodoController.MATCH_EXACT, true, List.of("Food"))));
+    assertEquals(0, snapshot.count(new TodoFilter("egg", TodoController.MATCH_EXACT, true, List.of("dog toys"))));
+  }
+
+  @Test
+  public void sortsWithIdAsTieBreaker() {
+    TodoFilter all = new TodoFilter(null, TodoController.MATCH_PREFIX, null, null);
+
+    List<Todo> byOwner = snapshot.find(all, TodoController.OWNER_LOWER_KEY, false, null, 0);
+    assertEquals(List.of("Egg", "Egg", "Fry", "Sam", "Watson"), owners(byOwner));
+    assertEquals(ids.get(1).toHexString(), byOwner.get(0)._id);
+
+    List<Todo> byOwnerDescending = snapshot.find(all, TodoController.OWNER_LOWER_KEY, true, null, 0);
+    assertEquals(List.of("Watson", "Sam", "Fry", "Egg", "Egg"), owners(byOwnerDescending));
+    assertEquals(ids.get(3).toHexString(), byOwnerDescending.get(3)._id);
+
+    // Bodies are sorted by their length in code points, not bytes or chars,
+    // so Sam's (6 code points, 7 chars, 10 bytes) ties with Watson's
+    List<Todo> byBody = snapshot.find(all, TodoController.BODY_LENGTH_KEY, false, null, 0);
+    assertEquals(List.of("Watson", "Sam", "Egg", "Egg", "Fry"), owners(byBody));
+
+    List<Todo> byStatus = snapshot.find(all, TodoController.STATUS_KEY, false, null, 0);
+    assertEquals(List.of("Watson", "Egg", "Fry", "Egg", "Sam"), owners(byStatus));
+  }
+
+  @Test
+  public void limitReturnsTheFirstTodosInOrder() {
+    TodoFilter all = new TodoFilter(null, TodoController.MATCH_PREFIX, null, null);
+
+    assertEquals(List.of("Egg", "Egg"), owners(snapshot.find(all, TodoController.OWNER_LOWER_KEY, false, null, 2)));
+    assertEquals(List.of("Watson"), owners(snapshot.find(all, TodoController.OWNER_LOWER_KEY, true, null, 1)));
+    assertEquals(List.of("Fry", "Egg", "Watson"), owners(snapshot.find(all, null, false, null, 3)));
+    assertEquals(5, snapshot.find(all, null, false, null, 10).size());
+
+    // Sorting by `_id` alone
+    List<Todo> newest = snapshot.find(all, TodoSnapshot.ID_KEY, true, null, 2);
+    assertEquals(ids.get(4).toHexString(), newest.get(0)._id);
+    assertEquals(ids.get(3).toHexString(), newest.get(1)._id);
+  }
+
+  @Test
+  public void idsThatArriveOutOfOrderAreStillSortedById() {
+    // All older than the ids in `setupEach()`; the last two differ only in
+    // their last few bytes, and arrive in the wrong order.
+    Date longAgo = new Date(1000000000000L);
+    ObjectId oldest = new ObjectId(new Date(0));
+    ObjectId laterCounter = new ObjectId(longAgo, 5);
+    ObjectId earlierCounter = new ObjectId(longAgo, 3);
+    ObjectId newest = new ObjectId();
+    snapshot.refresh(List.of(
+      todo(newest, "Newest", true, "New", "x"),
+      todo(oldest, "Oldest", true, "Old", "x"),
+      todo(laterCounter, "Later counter", true, "Mid", "x"),
+      todo(earlierCounter, "Earlier counter", true, "Mid", "x")));
+    TodoFilter all = new TodoFilter(null, TodoController.MATCH_PREFIX, null, null);
+
+    List<String> byId = new ArrayList<>();
+    for (Todo todo : snapshot.find(all, TodoSnapshot.ID_KEY, false, null, 0)) {
+      byId.add(todo._id);
+    }
+    List<String> expected = new ArrayList<>();
+    for (ObjectId id : ids) {
+      expected.add(id.toHexString());
+    }
+    for (ObjectId id : List.of(oldest, laterCounter, earlierCounter, newest)) {
+      expected.add(id.toHexString());
+    }
+    expected.sort(null);
+    assertEquals(expected, byId);
+
+    // Appending in order after a re-rank keeps working
+    ObjectId later = new ObjectId();
+    snapshot.refresh(List.of(todo(later, "Later", true, "Later", "x")));
+    List<Todo> newestFirst = snapshot.find(all, TodoSnapshot.ID_KEY, true, null, 2);
+    assertEquals(later.toHexString(), newestFirst.get(0)._id);
+    assertEquals(newest.toHexString(), newestFirst.get(1)._id);
+  }
+
+  @Test
+  public void largeSortsAreTheSameInParallel() {
+    List<Document> many = new ArrayList<>();
+    for (int i = 0; i < 2 * TodoSnapshot.PARALLEL_THRESHOLD; i++) {
+      many.add(todo(new ObjectId(), "Owner " + (i % 97), i % 2 == 0, "Body " + i, "category " + (i % 3)));
+    }
+    snapshot.refresh(many);
+    TodoFilter filter = new TodoFilter(null, TodoController.MATCH_PREFIX, null, List.of("category 0", "category 1"));
+
+    List<Todo> sorted = snapshot.find(filter, TodoController.OWNER_LOWER_KEY, true, null, 0);
+    List<Todo> top = snapshot.find(filter, TodoController.OWNER_LOWER_KEY, true, null, 50);
+
+    assertEquals(snapshot.count(filter), sorted.size());
+    assertEquals(50, top.size());
+    for (int i = 0; i < top.size(); i++) {
+      assertEquals(sorted.get(i)._id, top.get(i)._id);
+    }
+    for (int i = 1; i < sorted.size(); i++) {
+      assertTrue(sorted.get(i - 1).owner.toLowerCase().compareTo(sorted.get(i).owner.toLowerCase()) >= 0);
+    }
+  }
+
+  @Test
+  public void onlyFillsInRequestedFields() {
+    TodoFilter all = new TodoFilter(null, TodoController.MATCH_PREFIX, null, null);
+
+    Todo todo = snapshot.find(all, null, false, Set.of("owner"), 0).get(0);
+
+    assertEquals(ids.get(0).toHexString(), todo._id);
+    assertEquals("Fry", todo.owner);
+    assertNull(todo.status);
+    assertNull(todo.body);
+    assertNull(todo.category);
+  }
+
+  @Test
+  public void refreshReplacesExistingTodosAndAddsNewOnes() {
+    ObjectId newId = new ObjectId();
+    snapshot.refresh(List.of(
+      todo(ids.get(2), "Watson", true, "Walter", "dog toys"),
+      todo(ids.get(0), "Fry", true, null, "video games"),
+      todo(newId, "Bender", null, "Bite", null)));
+
+    assertEquals(6, snapshot.size());
+    assertEquals(List.of("Egg"), owners(find(null, TodoController.MATCH_PREFIX, false, null)));
+    assertEquals(List.of("Bender"), owners(find("bend", TodoController.MATCH_PREFIX, null, null)));
+
+    List<Todo> todos = find(null, TodoController.MATCH_PREFIX, null, null);
+    assertNull(todos.get(0).body);
+    assertEquals("Walter", todos.get(2).body);
+    assertNull(todos.get(5).status);
+    assertNull(todos.get(5).category);
+  }
+
+  @Test
+  public void growsPastItsInitialCapacity() {
+    List<Document> many = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      many.add(todo(new ObjectId(), "Owner " + (i % 7), i % 2 == 0, "Body " + i, "category " + (i % 3)));
+    }
+    snapshot.refresh(many);
+
+    assertEquals(3005, snapshot.size());
+    assertEquals(143, find("owner 0", TodoController.MATCH_EXACT, null, List.of("category 0")).size());
+    // Refreshing the same todos again doesn't add duplicates
+    snapshot.refresh(many);
+    assertEquals(3005, snapshot.size());
+  }
+}
@@ -0,0 +1,68 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that UserCodec reads and writes users the way MongoJack does.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class UserCodecSpec {
+
+  private final UserCodec codec = new UserCodec();
+
+  private User decode(BsonDocument document) {
+    return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+  }
+
+  @Test
+  public void decodesStoredUser() {
+    ObjectId id = new ObjectId();
+    User user = decode(BsonDocument.parse("{"
+      + "_id: {$oid: '" + id.toHexString() + "'},"
+      + "name: 'Chris', age: 25, company: 'UMM', email: 'chris@this.that',"
+      + "role: 'admin', avatar: 'https://gravatar.com/avatar/8c9616d6cc5de638ea6920fb5d65fc6c?d=identicon'}"));
+
+    assertEquals(id.toHexString(), user._id);
+    assertEquals("Chris", user.name);
+    assertEquals(25, user.age);
+    assertEquals("UMM", user.company);
+    assertEquals("chris@this.that", user.email);
+    assertEquals("admin", user.role);
+  }
+
+  @Test
+  public void decodesOtherKindsOfAge() {
+    assertEquals(37, decode(BsonDocument.parse("{age: {$numberLong: '37'}}")).age);
+    assertEquals(37, decode(BsonDocument.parse("{age: 37.0}")).age);
+    assertNull(decode(BsonDocument.parse("{name: 'Pat'}")).age);
+  }
+
+  @Test
+  public void roundTripsUser() {
+    User user = new User();
+    user.name = "Pat";
+    user.age = 30;
+    user.role = "viewer";
+    codec.generateIdIfAbsentFromDocument(user);
+
+    BsonDocument document = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(document), user, EncoderContext.builder().build());
+
+    assertFalse(document.containsKey("company"));
+    User decoded = decode(document);
+    assertEquals(user._id, decoded._id);
+    assertEquals("Pat", decoded.name);
+    assertEquals(30, decoded.age);
+    assertEquals("viewer", decoded.role);
+  }
+}
@@ -1,21 +1,35 @@
 package umm3601.user;
 
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -26,8 +40,10 @@ import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -36,6 +52,7 @@ import org.junit.jupiter.api.Test;
 
 import org.mockito.ArgumentMatcher;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -44,10 +61,18 @@ import io.javalin.validation.BodyValidator;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
+import umm3601.BulkReport;
+import umm3601.ServerOptions;
+import umm3601.SparseFields;
+import umm3601.Suggestion;
+import umm3601.TotalCount;
 
 /**
  * Tests the logic of the UserController
@@ -328,6 +353,38 @@ public class UserControllerSpec {
     }
   }
 
+  @Test
+  public void canGetOnlySomeFieldsOfUsers() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(SparseFields.FIELDS_KEY, Arrays.asList(new String[] {"name,company"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParams(SparseFields.FIELDS_KEY)).thenReturn(List.of("name,company"));
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(db.getCollection("users").countDocuments(), userArrayListCaptor.getValue().size());
+    for (User user : userArrayListCaptor.getValue()) {
+      assertNotNull(user.name);
+      assertNotNull(user.company);
+      assertNull(user.age);
+      assertNull(user.email);
+    }
+  }
+
+  @Test
+  public void cantAskForNoFieldsOfUsers() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(SparseFields.FIELDS_KEY, Arrays.asList(new String[] {","}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParams(SparseFields.FIELDS_KEY)).thenReturn(List.of(","));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
   @Test
   public void getUsersByRole() throws IOException {
     Map<String, List<String>> queryParams = new HashMap<>();
@@ -364,6 +421,368 @@ public class UserControllerSpec {
     }
   }
 
+  /**
+   * Make a mock context for a `getUsers()` request with the given query parameters.
+   */
+  private static final Set<String> INTEGER_PARAMS = Set.of(
+    UserController.AGE_KEY, UserController.MIN_AGE_KEY, UserController.MAX_AGE_KEY, UserController.LIMIT_KEY);
+
+  private Context queryContext(Map<String, String> params) {
+    Context queryCtx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (Map.Entry<String, String> param : params.entrySet()) {
+      String key = param.getKey();
+      String value = param.getValue();
+      queryParams.put(key, Arrays.asList(new String[] {value}));
+      when(queryCtx.queryParam(key)).thenReturn(value);
+      when(queryCtx.queryParams(key)).thenReturn(List.of(value));
+      if (INTEGER_PARAMS.contains(key)) {
+        when(queryCtx.queryParamAsClass(key, Integer.class)).thenReturn(Validator.create(Integer.class, value, key));
+      } else {
+        when(queryCtx.queryParamAsClass(key, String.class)).thenReturn(Validator.create(String.class, value, key));
+      }
+    }
+    when(queryCtx.queryParamMap()).thenReturn(queryParams);
+    return queryCtx;
+  }
+
+  private List<User> getUsers(UserController controller, Map<String, String> params) {
+    Context queryCtx = queryContext(params);
+    controller.getUsers(queryCtx);
+    verify(queryCtx).json(userArrayListCaptor.capture());
+    return userArrayListCaptor.getValue();
+  }
+
+  private List<String> userNames(List<User> users) {
+    List<String> names = new ArrayList<>();
+    for (User user : users) {
+      names.add(user.name);
+    }
+    return names;
+  }
+
+  private List<String> userIds(List<User> users) {
+    List<String> ids = new ArrayList<>();
+    for (User user : users) {
+      ids.add(user._id);
+    }
+    return ids;
+  }
+
+  @Test
+  public void memorySnapshotAnswersFiltersLikeMongo() throws IOException {
+    UserController snapshotController = new UserController(db, new ServerOptions().memorySnapshots(true));
+    List<Map<String, String>> queries = List.of(
+      Map.of(),
+      Map.of(UserController.ROLE_KEY, "viewer"),
+      Map.of(UserController.AGE_KEY, "37", UserController.SORT_BY_KEY, "company"),
+      Map.of(UserController.COMPANY_KEY, "ohm", UserController.SORT_ORDER_KEY, "desc"),
+      Map.of(UserController.ROLE_KEY, "viewer", UserController.COMPANY_KEY, "OHMNET", UserController.AGE_KEY, "45"),
+      Map.of(UserController.MIN_AGE_KEY, "26", UserController.MAX_AGE_KEY, "45"),
+      Map.of(UserController.MIN_AGE_KEY, "37", UserController.ROLE_KEY, "viewer", UserController.SORT_BY_KEY, "age"),
+      Map.of(UserController.MAX_AGE_KEY, "37"));
+
+    for (Map<String, String> query : queries) {
+      List<User> fromMongo = getUsers(userController, query);
+      List<User> fromSnapshot = getUsers(snapshotController, query);
+      assertEquals(userIds(fromMongo), userIds(fromSnapshot), query.toString());
+      for (int i = 0; i < fromMongo.size(); i++) {
+        assertEquals(fromMongo.get(i).name, fromSnapshot.get(i).name);
+        assertEquals(fromMongo.get(i).age, fromSnapshot.get(i).age);
+        assertEquals(fromMongo.get(i).email, fromSnapshot.get(i).email);
+      }
+    }
+  }
+
+  @Test
+  public void canFilterUsersByAgeRange() throws IOException {
+    assertEquals(List.of("Jamie", "Pat"),
+      userNames(getUsers(userController, Map.of(UserController.MIN_AGE_KEY, "26", UserController.MAX_AGE_KEY, "45"))));
+    assertEquals(List.of("Chris", "Jamie", "Pat", "Sam"),
+      userNames(getUsers(userController, Map.of(UserController.MIN_AGE_KEY, "25"))));
+    assertEquals(List.of("Sam"),
+      userNames(getUsers(userController, Map.of(UserController.MIN_AGE_KEY, "40", UserController.ROLE_KEY, "viewer"))));
+  }
+
+  @Test
+  public void respondsAppropriatelyToBackwardsAgeRange() {
+    Context rangeCtx = queryContext(Map.of(UserController.MIN_AGE_KEY, "40", UserController.MAX_AGE_KEY, "40"));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(rangeCtx);
+    });
+  }
+
+  @Test
+  public void respondsAppropriatelyToIllegalMaxAge() {
+    Context rangeCtx = queryContext(Map.of(UserController.MAX_AGE_KEY, "151"));
+
+    assertThrows(ValidationException.class, () -> {
+      userController.getUsers(rangeCtx);
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<AgeBucket> ageHistogram() {
+    Context histogramCtx = mock(Context.class);
+    userController.getAgeHistogram(histogramCtx);
+    ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+    verify(histogramCtx).json(captor.capture());
+    verify(histogramCtx).status(HttpStatus.OK);
+    return (List<AgeBucket>) captor.getValue();
+  }
+
+  @Test
+  public void canGetAgeHistogramUntilUsersChange() throws IOException {
+    List<AgeBucket> buckets = ageHistogram();
+
+    assertEquals(UserController.REASONABLE_AGE_LIMIT / UserController.AGE_BUCKET_WIDTH + 1, buckets.size());
+    assertEquals(20, buckets.get(2).minAge);
+    assertEquals(30, buckets.get(2).maxAge);
+    assertEquals(1, buckets.get(2).count);
+    assertEquals(2, buckets.get(3).count);
+    assertEquals(1, buckets.get(4).count);
+    assertEquals(0, buckets.get(0).count);
+    assertNull(buckets.get(buckets.size() - 1).minAge);
+    assertEquals(0, buckets.get(buckets.size() - 1).count);
+
+    // Users added behind our back aren't seen until a write goes through us
+    db.getCollection("users").insertOne(new Document("name", "Nobody").append("age", 200));
+    assertEquals(0, ageHistogram().get(buckets.size() - 1).count);
+
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.deleteUser(ctx);
+
+    buckets = ageHistogram();
+    assertEquals(0, buckets.get(4).count);
+    assertEquals(1, buckets.get(buckets.size() - 1).count);
+  }
+
+  @Test
+  public void canPageThroughSortedUsers() throws IOException {
+    List<String> names = new ArrayList<>();
+    String cursor = null;
+
+    do {
+      Map<String, String> params = new HashMap<>();
+      params.put(UserController.SORT_BY_KEY, UserController.AGE_KEY);
+      params.put(UserController.SORT_ORDER_KEY, "desc");
+      params.put(UserController.LIMIT_KEY, "2");
+      if (cursor != null) {
+        params.put(UserController.AFTER_KEY, cursor);
+      }
+      Context pageCtx = queryContext(params);
+      userController.getUsers(pageCtx);
+
+      verify(pageCtx).json(userArrayListCaptor.capture());
+      assertTrue(userArrayListCaptor.getValue().size() <= 2);
+      for (User user : userArrayListCaptor.getValue()) {
+        names.add(user.name);
+      }
+
+      ArgumentCaptor<String> cursorCaptor = ArgumentCaptor.forClass(String.class);
+      verify(pageCtx, atMost(1))
+        .header(ArgumentMatchers.eq(UserController.NEXT_CURSOR_HEADER), cursorCaptor.capture());
+      cursor = cursorCaptor.getAllValues().isEmpty() ? null : cursorCaptor.getValue();
+    } while (cursor != null);
+
+    // Pat and Jamie are both 37, so the page boundary between them is
+    // sorted out by the `_id` tie-breaker in the cursor.
+    assertEquals(List.of("Sam", "Jamie", "Pat", "Chris"), names);
+  }
+
+  @Test
+  public void respondsAppropriatelyToUnsortableField() {
+    Context sortCtx = queryContext(Map.of(UserController.SORT_BY_KEY, "avatar"));
+
+    assertThrows(ValidationException.class, () -> {
+      userController.getUsers(sortCtx);
+    });
+  }
+
+  @Test
+  public void respondsAppropriatelyToIllegalLimit() {
+    Context limitCtx = queryContext(Map.of(UserController.LIMIT_KEY, "0"));
+
+    assertThrows(ValidationException.class, () -> {
+      userController.getUsers(limitCtx);
+    });
+  }
+
+  @Test
+  public void createsIndexesForSortingAndFiltering() {
+    List<Document> keys = new ArrayList<>();
+    for (Document index : db.getCollection("users").listIndexes()) {
+      keys.add(index.get("key", Document.class));
+    }
+
+    // Sorting by email uses the unique index on it, so nothing else starts with `email`
+    assertTrue(keys.contains(new Document("role", 1).append("email", 1).append("age", 1)));
+    assertEquals(1, keys.stream().filter(key -> key.keySet().iterator().next().equals("email")).count());
+    assertTrue(keys.contains(new Document("name", 1).append("_id", 1).append("age", 1)));
+    assertTrue(keys.contains(new Document("role", 1).append("name", 1).append("_id", 1).append("age", 1)));
+    assertTrue(keys.contains(new Document("role", 1).append("age", 1).append("_id", 1)));
+    assertTrue(keys.contains(new Document("age", 1).append("company", 1).append("_id", 1)));
+
+    Document emailIndex = null;
+    for (Document index : db.getCollection("users").listIndexes()) {
+      if (index.get("key", Document.class).equals(new Document("email", 1))) {
+        emailIndex = index;
+      }
+    }
+    assertNotNull(emailIndex);
+    assertEquals(true, emailIndex.get("unique"));
+  }
+
+  private Document winningPlan(Bson filter, String sortBy) {
+    Document explained = db.getCollection("users").find(filter).sort(Sorts.ascending(sortBy, "_id")).explain();
+    return explained.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+  }
+
+  @Test
+  public void ageRangesAreReadInOrderFromAnIndex() {
+    // The queries `getUsers()` makes for an age range, sorted by the default field
+    // and by another one with a role filter; neither should need an in-memory sort.
+    Document byName = winningPlan(and(gte("age", 26), lt("age", 45)), UserController.DEFAULT_SORT_FIELD);
+    Document byCompany = winningPlan(and(eq("role", "viewer"), gte("age", 26)), UserController.COMPANY_KEY);
+
+    for (Document plan : List.of(byName, byCompany)) {
+      assertTrue(plan.toJson().contains("\"IXSCAN\""), plan.toJson());
+      assertFalse(plan.toJson().contains("\"SORT\""), plan.toJson());
+    }
+  }
+
+  @Test
+  public void memorySnapshotFirstPageMatchesMongo() throws IOException {
+    UserController snapshotController = new UserController(db, new ServerOptions().memorySnapshots(true));
+    List<Map<String, String>> queries = List.of(
+      Map.of(UserController.LIMIT_KEY, "2"),
+      Map.of(UserController.LIMIT_KEY, "3", UserController.SORT_BY_KEY, "company"),
+      Map.of(UserController.LIMIT_KEY, "1", UserController.SORT_BY_KEY, "age",
+        UserController.SORT_ORDER_KEY, "desc", SparseFields.FIELDS_KEY, "email"),
+      Map.of(UserController.LIMIT_KEY, "10", UserController.ROLE_KEY, "viewer"));
+
+    for (Map<String, String> query : queries) {
+      Context mongoCtx = queryContext(query);
+      userController.getUsers(mongoCtx);
+      Context snapshotCtx = queryContext(query);
+      snapshotController.getUsers(snapshotCtx);
+
+      verify(mongoCtx).json(userArrayListCaptor.capture());
+      List<User> fromMongo = userArrayListCaptor.getValue();
+      verify(snapshotCtx).json(userArrayListCaptor.capture());
+      List<User> fromSnapshot = userArrayListCaptor.getValue();
+      assertEquals(userIds(fromMongo), userIds(fromSnapshot), query.toString());
+
+      ArgumentCaptor<String> mongoCursor = ArgumentCaptor.forClass(String.class);
+      verify(mongoCtx, atMost(1)).header(ArgumentMatchers.eq(UserController.NEXT_CURSOR_HEADER), mongoCursor.capture());
+      ArgumentCaptor<String> snapshotCursor = ArgumentCaptor.forClass(String.class);
+      verify(snapshotCtx, atMost(1))
+        .header(ArgumentMatchers.eq(UserController.NEXT_CURSOR_HEADER), snapshotCursor.capture());
+      assertEquals(mongoCursor.getAllValues(), snapshotCursor.getAllValues(), query.toString());
+    }
+  }
+
+  @Test
+  public void pagesWithSomeFieldsOnlyIncludeThoseFields() throws IOException {
+    UserController snapshotController = new UserController(db, new ServerOptions().memorySnapshots(true));
+    for (String sortBy : List.of(UserController.DEFAULT_SORT_FIELD, "age", "email")) {
+      for (UserController controller : List.of(userController, snapshotController)) {
+        Context fieldsCtx = queryContext(Map.of(
+          SparseFields.FIELDS_KEY, "company",
+          UserController.SORT_BY_KEY, sortBy,
+          UserController.LIMIT_KEY, "2"));
+
+        controller.getUsers(fieldsCtx);
+
+        // The cursor is still built from the sort field, but the field isn't sent
+        verify(fieldsCtx).json(userArrayListCaptor.capture());
+        verify(fieldsCtx).header(ArgumentMatchers.eq(UserController.NEXT_CURSOR_HEADER), ArgumentMatchers.anyString());
+        for (User user : userArrayListCaptor.getValue()) {
+          assertNotNull(user.company);
+          assertNull(user.name, sortBy);
+          assertNull(user.age, sortBy);
+          assertNull(user.email, sortBy);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void canCountUsersWithoutListingThem() throws IOException {
+    UserController snapshotController = new UserController(db, new ServerOptions().memorySnapshots(true));
+    Map<Map<String, String>, Long> expectedCounts = Map.of(
+      Map.of(), 4L,
+      Map.of(UserController.ROLE_KEY, "viewer"), 2L,
+      Map.of(UserController.AGE_KEY, "37", UserController.COMPANY_KEY, "ohm"), 1L);
+
+    for (Map.Entry<Map<String, String>, Long> expected : expectedCounts.entrySet()) {
+      Map<String, String> query = new HashMap<>(expected.getKey());
+      query.put(TotalCount.COUNT_KEY, "true");
+      for (UserController controller : List.of(userController, snapshotController)) {
+        Context countCtx = queryContext(query);
+        controller.getUsers(countCtx);
+
+        verify(countCtx).header(TotalCount.TOTAL_COUNT_HEADER, expected.getValue().toString());
+        verify(countCtx).json(Map.of(TotalCount.COUNT_KEY, expected.getValue()));
+      }
+    }
+  }
+
+  @Test
+  public void headRequestOnlySendsTheUserCount() throws IOException {
+    Context headCtx = queryContext(Map.of(UserController.COMPANY_KEY, "IBM"));
+    when(headCtx.method()).thenReturn(HandlerType.HEAD);
+
+    userController.getUsers(headCtx);
+
+    verify(headCtx).header(TotalCount.TOTAL_COUNT_HEADER, "1");
+    verify(headCtx, never()).json(any());
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Suggestion> suggestions(Context suggestCtx) {
+    ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+    verify(suggestCtx).json(captor.capture());
+    return (List<Suggestion>) captor.getValue();
+  }
+
+  @Test
+  public void suggestsCompaniesAsUsersComeAndGo() throws IOException {
+    Context suggestCtx = queryContext(Map.of(UserController.PREFIX_KEY, "o"));
+    userController.suggestCompanies(suggestCtx);
+
+    List<Suggestion> companies = suggestions(suggestCtx);
+    assertEquals(1, companies.size());
+    assertEquals("OHMNET", companies.get(0).value);
+    assertEquals(2, companies.get(0).count);
+
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.deleteUser(ctx);
+
+    Context afterCtx = queryContext(Map.of(UserController.PREFIX_KEY, "OHM"));
+    userController.suggestCompanies(afterCtx);
+    companies = suggestions(afterCtx);
+    assertEquals(1, companies.size());
+    assertEquals(1, companies.get(0).count);
+
+    Context noneCtx = queryContext(Map.of(UserController.PREFIX_KEY, "umn"));
+    userController.suggestCompanies(noneCtx);
+    assertEquals(0, suggestions(noneCtx).size());
+  }
+
+  @Test
+  public void memorySnapshotSeesDeletedUsers() throws IOException {
+    UserController snapshotController = new UserController(db, new ServerOptions().memorySnapshots(true));
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    snapshotController.deleteUser(ctx);
+
+    List<User> viewers = getUsers(snapshotController, Map.of(UserController.ROLE_KEY, "viewer"));
+    assertEquals(1, viewers.size());
+    assertEquals("Jamie", viewers.get(0).name);
+  }
+
   @Test
   public void getUserWithExistentId() throws IOException {
     String id = samsId.toHexString();
@@ -400,6 +819,57 @@ public class UserControllerSpec {
     assertEquals("The requested user was not found", exception.getMessage());
   }
 
+  @Test
+  public void getUserIsNotModifiedForCurrentETag() throws IOException {
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.getUser(ctx);
+    verify(ctx).header(argThat(Header.ETAG::equals), etagCaptor.capture());
+
+    Context pollCtx = mock(Context.class);
+    when(pollCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(pollCtx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    userController.getUser(pollCtx);
+
+    verify(pollCtx).status(HttpStatus.NOT_MODIFIED);
+    verify(pollCtx, never()).json(argThat(user -> true));
+  }
+
+  @Test
+  public void deletingAMissingUserLeavesETagsCurrent() throws IOException {
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.getUser(ctx);
+    verify(ctx).header(argThat(Header.ETAG::equals), etagCaptor.capture());
+
+    // Nothing was deleted, so nothing changed
+    Context deleteCtx = mock(Context.class);
+    when(deleteCtx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.deleteUser(deleteCtx);
+    });
+
+    Context pollCtx = mock(Context.class);
+    when(pollCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(pollCtx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    userController.getUser(pollCtx);
+
+    verify(pollCtx).status(HttpStatus.NOT_MODIFIED);
+  }
+
+  @Test
+  public void getUserAfterDeleteIsNotFound() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    // Looking Sam up caches him; deleting him has to throw that copy away
+    userController.getUser(ctx);
+    userController.deleteUser(ctx);
+
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+  }
+
   @Test
   public void addUser() throws IOException {
     String testNewUser = "{"
@@ -432,6 +902,63 @@ public class UserControllerSpec {
     assertNotNull(addedUser.get("avatar"));
   }
 
+  private void mockNewUser(Context newUserCtx, String email) {
+    String testNewUser = "{"
+        + "\"name\": \"Test User\","
+        + "\"age\": 25,"
+        + "\"company\": \"testers\","
+        + "\"email\": \"" + email + "\","
+        + "\"role\": \"viewer\""
+        + "}";
+    when(newUserCtx.bodyValidator(User.class))
+      .then(value -> new BodyValidator<User>(testNewUser, User.class, javalinJackson));
+  }
+
+  @Test
+  public void addUserWithTakenEmailIsAConflict() throws IOException {
+    mockNewUser(ctx, "chris@this.that");
+
+    assertThrows(ConflictResponse.class, () -> {
+      userController.addNewUser(ctx);
+    });
+
+    verify(ctx).status(HttpStatus.CONFLICT);
+    assertEquals(4, db.getCollection("users").countDocuments());
+  }
+
+  @Test
+  public void addingTheSameEmailTwiceIsAConflict() throws IOException {
+    mockNewUser(ctx, "twice@example.com");
+    userController.addNewUser(ctx);
+
+    Context againCtx = mock(Context.class);
+    mockNewUser(againCtx, "twice@example.com");
+    assertThrows(ConflictResponse.class, () -> {
+      userController.addNewUser(againCtx);
+    });
+
+    verify(againCtx).status(HttpStatus.CONFLICT);
+    assertEquals(1, db.getCollection("users").countDocuments(eq("email", "twice@example.com")));
+  }
+
+  @Test
+  public void uniqueIndexCatchesEmailsTheFilterHasNotSeen() throws IOException {
+    // This controller was made before the other one added the user, so
+    // its filter doesn't know the email is taken; the index does.
+    UserController otherController = new UserController(db);
+    mockNewUser(ctx, "race@example.com");
+    userController.addNewUser(ctx);
+
+    Context raceCtx = mock(Context.class);
+    mockNewUser(raceCtx, "race@example.com");
+    assertThrows(ConflictResponse.class, () -> {
+      otherController.addNewUser(raceCtx);
+    });
+
+    verify(raceCtx).status(HttpStatus.CONFLICT);
+    assertEquals(1, db.getCollection("users").countDocuments(eq("email", "race@example.com")));
+  }
+
   @Test
   public void addInvalidEmailUser() throws IOException {
     String testNewUser = "{"
@@ -622,4 +1149,144 @@ public class UserControllerSpec {
     assertEquals(0, db.getCollection("users").countDocuments(eq("_id", new ObjectId(testID))));
   }
 
+  private BulkReport importUsers(String contentType, String body) throws IOException {
+    when(ctx.contentType()).thenReturn(contentType);
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+    userController.importUsers(ctx);
+
+    ArgumentCaptor<BulkReport> reportCaptor = ArgumentCaptor.forClass(BulkReport.class);
+    verify(ctx).json(reportCaptor.capture());
+    return reportCaptor.getValue();
+  }
+
+  @Test
+  public void canImportUsersFromNdjson() throws IOException, NoSuchAlgorithmException {
+    String body = "{\"name\": \"Ada\", \"age\": 36, \"company\": \"Analytical\","
+      + " \"email\": \"ada@example.com\", \"role\": \"admin\"}\n"
+      + "{\"name\": \"Bad\", \"age\": 200, \"company\": \"Nowhere\","
+      + " \"email\": \"bad@example.com\", \"role\": \"viewer\"}\n"
+      + "{\"name\": \"Grace\", \"age\": 85, \"company\": \"Navy\","
+      + " \"email\": \"grace@example.com\", \"role\": \"wizard\"}\n"
+      + "{\"name\": \"Alan\", \"age\": 41, \"company\": \"Bletchley\","
+      + " \"email\": \"alan@example.com\", \"role\": \"editor\"}\n";
+
+    BulkReport report = importUsers(null, body);
+
+    verify(ctx).status(HttpStatus.CREATED);
+    assertEquals(2, report.inserted);
+    assertEquals(2, report.failed);
+    assertEquals(4, report.results.size());
+    assertNotNull(report.results.get(0).id);
+    assertEquals("User's age must be less than " + UserController.REASONABLE_AGE_LIMIT, report.results.get(1).error);
+    assertEquals("User must have a legal user role", report.results.get(2).error);
+    assertNotNull(report.results.get(3).id);
+    assertEquals(6, db.getCollection("users").countDocuments());
+
+    // The new users have avatars, just as if they'd been added one at a time
+    Document alan = db.getCollection("users")
+      .find(new Document("_id", new ObjectId(report.results.get(3).id))).first();
+    assertEquals("Bletchley", alan.get("company"));
+    assertEquals("https://gravatar.com/avatar/" + userController.md5("alan@example.com") + "?d=identicon",
+      alan.get("avatar"));
+  }
+
+  @Test
+  public void md5IsLowercaseHex() throws NoSuchAlgorithmException {
+    // The same hash as Chris's avatar in the test data
+    assertEquals("8c9616d6cc5de638ea6920fb5d65fc6c", userController.md5("Chris@This.That"));
+  }
+
+  @Test
+  public void canImportUsersFromCsvInSmallBatches() throws IOException {
+    StringBuilder body = new StringBuilder("name,age,company,email,role\n");
+    for (int i = 0; i < 7; i++) {
+      body.append("User ").append(i).append(",").append(20 + i).append(",Imports,user")
+        .append(i).append("@example.com,viewer\n");
+    }
+    body.append("Nobody,old,Imports,nobody@example.com,viewer\n");
+    when(ctx.queryParamMap()).thenReturn(Map.of(UserController.BATCH_SIZE_KEY, List.of("3")));
+    when(ctx.queryParamAsClass(UserController.BATCH_SIZE_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, "3", UserController.BATCH_SIZE_KEY));
+
+    BulkReport report = importUsers(UserController.CSV_CONTENT_TYPE, body.toString());
+
+    assertEquals(7, report.inserted);
+    assertEquals(1, report.failed);
+    assertEquals(7, report.results.get(7).index);
+    assertEquals("User's age must be greater than zero", report.results.get(7).error);
+    assertEquals(7, db.getCollection("users").countDocuments(eq("company", "Imports")));
+    assertEquals(26, db.getCollection("users").find(eq("name", "User 6")).first().get("age"));
+  }
+
+  @Test
+  public void importStopsAtMalformedJson() throws IOException {
+    String body = "{\"name\": \"Ada\", \"age\": 36, \"company\": \"Analytical\","
+      + " \"email\": \"ada@example.com\", \"role\": \"admin\"}\n"
+      + "{\"name\": \"Alan\", \"age\": ";
+
+    BulkReport report = importUsers(null, body);
+
+    assertEquals(1, report.inserted);
+    assertEquals(1, report.failed);
+    assertEquals(5, db.getCollection("users").countDocuments());
+  }
+
+  @Test
+  public void importWithNoGoodUsersIsABadRequest() throws IOException {
+    BulkReport report = importUsers(null, "[{\"name\": \"\"}]");
+
+    verify(ctx).status(HttpStatus.BAD_REQUEST);
+    assertEquals(0, report.inserted);
+    assertEquals("User must have a non-empty user name", report.results.get(0).error);
+    assertEquals(4, db.getCollection("users").countDocuments());
+  }
+
+  @Test
+  public void importRejectsTakenAndRepeatedEmails() throws IOException {
+    String body = "{\"name\": \"Chris Too\", \"age\": 26, \"company\": \"UMM\","
+      + " \"email\": \"chris@this.that\", \"role\": \"viewer\"}\n"
+      + "{\"name\": \"Ada\", \"age\": 36, \"company\": \"Analytical\","
+      + " \"email\": \"ada@example.com\", \"role\": \"admin\"}\n"
+      + "{\"name\": \"Ada Again\", \"age\": 37, \"company\": \"Analytical\","
+      + " \"email\": \"ada@example.com\", \"role\": \"admin\"}\n";
+
+    BulkReport report = importUsers(null, body);
+
+    assertEquals(1, report.inserted);
+    assertEquals(2, report.failed);
+    assertEquals(UserController.DUPLICATE_EMAIL, report.results.get(0).error);
+    assertNotNull(report.results.get(1).id);
+    assertEquals(UserController.DUPLICATE_EMAIL, report.results.get(2).error);
+    assertEquals(5, db.getCollection("users").countDocuments());
+  }
+
+  @Test
+  public void importRejectsIllegalBatchSize() {
+    when(ctx.queryParamMap()).thenReturn(Map.of(UserController.BATCH_SIZE_KEY, List.of("0")));
+    when(ctx.queryParamAsClass(UserController.BATCH_SIZE_KEY, Integer.class))
+      .thenReturn(Validator.create(Integer.class, "0", UserController.BATCH_SIZE_KEY));
+
+    assertThrows(ValidationException.class, () -> {
+      userController.importUsers(ctx);
+    });
+  }
+
+  @Test
+  public void importedUsersAreSuggestedAndCounted() throws IOException {
+    String body = "[{\"name\": \"Ada\", \"age\": 36, \"company\": \"Analytical\","
+      + " \"email\": \"ada@example.com\", \"role\": \"admin\"}]";
+    importUsers(null, body);
+
+    Context suggestCtx = queryContext(Map.of(UserController.PREFIX_KEY, "ana"));
+    userController.suggestCompanies(suggestCtx);
+    List<Suggestion> suggestions = suggestions(suggestCtx);
+    assertEquals(1, suggestions.size());
+    assertEquals("Analytical", suggestions.get(0).value);
+
+    Context countCtx = queryContext(Map.of(TotalCount.COUNT_KEY, "true"));
+    userController.getUsers(countCtx);
+    verify(countCtx).header(TotalCount.TOTAL_COUNT_HEADER, "5");
+  }
+
 }
@@ -0,0 +1,161 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that UserSnapshot filters users with its bitmap indexes the way
+ * MongoDB does for `UserController`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class UserSnapshotSpec {
+
+  private static final UserFilter ANYONE = new UserFilter(null, null, null, null, null);
+
+  private UserSnapshot snapshot;
+  private ObjectId samsId;
+
+  private static User user(ObjectId id, String name, Integer age, String company, String role) {
+    User user = new User();
+    user._id = id.toHexString();
+    user.name = name;
+    user.age = age;
+    user.company = company;
+    user.email = name == null ? null : name.toLowerCase() + "@frogs.com";
+    user.role = role;
+    return user;
+  }
+
+  private void put(User user) {
+    snapshot.put(new ObjectId(user._id), user);
+  }
+
+  @BeforeEach
+  public void setupEach() {
+    snapshot = new UserSnapshot();
+    put(user(new ObjectId(), "Chris", 25, "UMM", "admin"));
+    put(user(new ObjectId(), "Pat", 37, "IBM", "editor"));
+    put(user(new ObjectId(), "Jamie", 37, "OHMNET", "viewer"));
+    samsId = new ObjectId();
+    put(user(samsId, "Sam", 45, "OHMNET", "viewer"));
+  }
+
+  private List<String> names(List<User> users) {
+    List<String> names = new ArrayList<>();
+    for (User user : users) {
+      names.add(user.name);
+    }
+    return names;
+  }
+
+  private List<String> ages(Integer minAge, Integer maxAge) {
+    return names(snapshot.find(new UserFilter(null, minAge, maxAge, null, null), "name", false, null, 0));
+  }
+
+  private List<String> find(Integer age, String company, String role) {
+    return names(snapshot.find(new UserFilter(age, null, null, company, role), "name", false, null, 0));
+  }
+
+  @Test
+  public void filtersOnEachField() {
+    assertEquals(List.of("Chris", "Jamie", "Pat", "Sam"), find(null, null, null));
+    assertEquals(List.of("Jamie", "Sam"), find(null, null, "viewer"));
+    assertEquals(List.of("Jamie", "Pat"), find(37, null, null));
+    assertEquals(List.of("Jamie", "Sam"), find(null, "ohm", null));
+    assertEquals(List.of(), find(null, "o.m", null));
+    assertEquals(List.of("Jamie"), find(37, "OHMNET", "viewer"));
+    assertEquals(List.of(), find(25, null, "viewer"));
+  }
+
+  @Test
+  public void countsMatchesWithoutFindingThem() {
+    assertEquals(4, snapshot.count(ANYONE));
+    assertEquals(2, snapshot.count(new UserFilter(null, null, null, "OHMNET", null)));
+    assertEquals(0, snapshot.count(new UserFilter(null, null, null, null, "superuser")));
+  }
+
+  @Test
+  public void sortsByTheRequestedField() {
+    assertEquals(List.of("Sam", "Jamie", "Pat", "Chris"),
+      names(snapshot.find(ANYONE, UserController.AGE_KEY, true, null, 0)));
+    assertEquals(List.of("Pat", "Jamie", "Sam", "Chris"),
+      names(snapshot.find(ANYONE, UserController.COMPANY_KEY, false, null, 0)));
+    // A limit keeps just the first users in that order
+    assertEquals(List.of("Pat", "Jamie"),
+      names(snapshot.find(ANYONE, UserController.COMPANY_KEY, false, null, 2)));
+  }
+
+  @Test
+  public void largeFirstPagesMatchTheFullSort() {
+    for (int i = 0; i < 2 * UserSnapshot.PARALLEL_THRESHOLD; i++) {
+      put(user(new ObjectId(), "User " + i, 1 + i % 97, "Company " + (i % 13), "viewer"));
+    }
+    UserFilter viewers = new UserFilter(null, null, null, null, "viewer");
+
+    List<User> sorted = snapshot.find(viewers, UserController.AGE_KEY, true, null, 0);
+    List<User> first = snapshot.find(viewers, UserController.AGE_KEY, true, null, 50);
+
+    assertEquals(snapshot.count(viewers), sorted.size());
+    assertEquals(50, first.size());
+    for (int i = 0; i < first.size(); i++) {
+      assertEquals(sorted.get(i)._id, first.get(i)._id);
+    }
+  }
+
+  @Test
+  public void onlyFillsInRequestedFields() {
+    User sam = snapshot.find(
+      new UserFilter(45, null, null, null, null), "name", false, Set.of("name", "role"), 0).get(0);
+
+    assertEquals(samsId.toHexString(), sam._id);
+    assertEquals("Sam", sam.name);
+    assertEquals("viewer", sam.role);
+    assertNull(sam.age);
+    assertNull(sam.company);
+    assertNull(sam.email);
+  }
+
+  @Test
+  public void filtersOnAgeRanges() {
+    assertEquals(List.of("Jamie", "Pat"), ages(26, 40));
+    assertEquals(List.of("Chris", "Jamie", "Pat"), ages(25, 45));
+    assertEquals(List.of("Jamie", "Pat", "Sam"), ages(37, null));
+    assertEquals(List.of("Chris"), ages(null, 37));
+    assertEquals(List.of(), ages(46, 100));
+    assertEquals(1, snapshot.count(new UserFilter(null, 30, 40, "ohm", "viewer")));
+  }
+
+  @Test
+  public void seesChangesAndDeletions() {
+    put(user(samsId, "Sam", 46, "UMM", "admin"));
+    assertEquals(List.of(), find(45, null, null));
+    assertEquals(List.of("Chris", "Sam"), find(null, null, "admin"));
+
+    snapshot.put(samsId, null);
+    assertEquals(List.of("Chris"), find(null, null, "admin"));
+    assertEquals(3, snapshot.count(ANYONE));
+
+    // Deleting a user we never had does nothing
+    snapshot.put(new ObjectId(), null);
+    assertEquals(3, snapshot.count(ANYONE));
+  }
+
+  @Test
+  public void unreasonableAgesAreNeverMatched() {
+    put(user(new ObjectId(), "Methuselah", 969, "Genesis", "viewer"));
+    put(user(new ObjectId(), null, null, null, null, 0));
+
+    assertEquals(6, snapshot.count(ANYONE));
+    assertEquals(List.of("Jamie", "Methuselah", "Sam"), find(null, null, "viewer"));
+    // Users with no name sort first
+    assertNull(snapshot.find(ANYONE, "name", false, null, 0).get(0).name);
+  }
+}